@@ -1,35 +1,71 @@
 package lmdb.basex;
 
 
-import org.basex.core.MainOptions;
+import org.basex.data.Data;
 import org.basex.io.IOContent;
 import org.basex.query.QueryException;
 import org.basex.query.expr.Expr;
+import org.basex.query.iter.ValueIter;
 import org.basex.query.value.Value;
+import org.basex.query.value.ValueBuilder;
 import org.basex.query.value.item.Item;
 import org.basex.query.value.node.DBNode;
+import org.basex.query.value.node.FElem;
 import org.basex.query.value.seq.Empty;
 import org.basex.query.value.seq.Seq;
 import org.basex.query.value.type.NodeType;
+import org.basex.query.value.type.SeqType.Occ;
 import org.basex.query.value.type.SeqType;
 import org.basex.util.InputInfo;
 import org.basex.util.Util;
 import org.fusesource.lmdbjni.Transaction;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
+import static org.basex.query.QueryText.NAM;
+import static org.basex.query.QueryText.SIZE;
+
+/**
+ * Documents of a collection. Sizes, subsequences, reversals and positional access work on the names of the
+ * documents, listed from {@code coldb}: a document is only opened when its node is requested, see
+ * {@link LmdbQueryResources#open(String)}. Iterations close the documents they have moved past, unless the
+ * documents are opened for updates.
+ */
 public class LazyDBNodeSeq extends Seq {
 
-    private List<String> doc;
-    private MainOptions options;
-    private Transaction tx;
+    private final String collection;
+    private final List<String> doc;
+    private final LmdbQueryResources resources;
 
-    public LazyDBNodeSeq(List<String> docs, MainOptions opt, Transaction tx) {
+    LazyDBNodeSeq(final String collection, final List<String> docs, final LmdbQueryResources resources) {
         super(docs.size(), NodeType.DOC);
+        this.collection = collection;
         doc = docs;
-        options = opt;
-        this.tx = tx;
+        this.resources = resources;
+    }
+
+    String collection() {
+        return collection;
+    }
+
+    List<String> names() {
+        return doc;
+    }
+
+    Transaction tx() {
+        return resources.tx();
+    }
+
+    /**
+     * Returns the specified documents of the collection.
+     * @param docs names of documents
+     * @return documents
+     */
+    Value docs(final List<String> docs) {
+        return docs.isEmpty() ? Empty.SEQ : new LazyDBNodeSeq(collection, docs, resources);
     }
 
     @Override
@@ -39,7 +75,7 @@ public class LazyDBNodeSeq extends Seq {
 
     @Override
     public SeqType seqType() {
-        return SeqType.DOC_O;
+        return SeqType.get(NodeType.DOC, Occ.ONE_MORE);
     }
 
     @Override
@@ -57,52 +93,78 @@ public class LazyDBNodeSeq extends Seq {
     @Override
     public int writeTo(final Item[] arr, final int start) {
         int w = 0;
-        for(String d: doc) {
-            DBNode dbn = null;
-            try {
-                arr[start+w] = new DBNode(LmdbDataManager.openDocument(d, options, tx));
-                w++;
-            } catch(IOException ioe) {
-                try {
-                    dbn = new DBNode(new IOContent("<error>" + ioe.getMessage() + "</error>"));
-                    arr[start+w] = dbn;
-                    w++;
-                } catch(Exception e) {}
-                throw Util.notExpected(ioe);
-            }
-        }
+        for(String d: doc) arr[start + w++] = open(d);
         return w;
     }
 
     @Override
     public DBNode itemAt(final long pos) {
-        try {
-            return new DBNode(LmdbDataManager.openDocument(doc.get((int) pos), options, tx));
-        } catch(IOException ioe) {
-            try {
-                return new DBNode(new IOContent("<error>" + ioe.getMessage() + "</error>"));
-            } catch(Exception i) {}
-            throw Util.notExpected(ioe);
-        }
+        return open(doc.get((int) pos));
+    }
+
+    @Override
+    public ValueIter iter() {
+        return new ValueIter() {
+            int c;
+            Data last;
+
+            @Override
+            public Item get(final long i) {
+                return itemAt(i);
+            }
+
+            @Override
+            public Item next() {
+                // read-only documents are not referenced once iteration has moved past them
+                if(last != null && !resources.updating()) last.close();
+                if(c == size) return null;
+                final DBNode node = itemAt(c++);
+                last = node.data();
+                return node;
+            }
+
+            @Override
+            public long size() {
+                return size;
+            }
+
+            @Override
+            public Value value() {
+                return LazyDBNodeSeq.this;
+            }
+        };
+    }
+
+    @Override
+    public Value subSeq(final long start, final long len) {
+        if(len == 0) return Empty.SEQ;
+        if(len == 1) return itemAt(start);
+        return len < size ? docs(doc.subList((int) start, (int) (start + len))) : this;
     }
 
+    @Override
     public Value reverse() {
-        return Empty.SEQ;
-    };
+        final ArrayList<String> docs = new ArrayList<>(doc);
+        Collections.reverse(docs);
+        return docs(docs);
+    }
 
     @Override
     public Value materialize(InputInfo ii) throws QueryException {
-        return null;
+        return this;
     }
 
     @Override
     public Value atomValue(InputInfo ii) throws QueryException {
-        return null;
+        final ValueBuilder vb = new ValueBuilder();
+        for(int s = 0; s < size; s++) vb.add(itemAt(s).atomValue(ii));
+        return vb.value();
     }
 
     @Override
     public long atomSize() {
-        return 0;
+        // every document node is atomized to a single item
+        return size;
     }
 
     @Override
@@ -112,12 +174,29 @@ public class LazyDBNodeSeq extends Seq {
 
     @Override
     public Value insert(long pos, Item val) {
-        return null;
+        return new ValueBuilder().add(subSeq(0, pos)).add(val).add(subSeq(pos, size - pos)).value();
     }
 
     @Override
     public Value remove(long pos) {
-        doc.remove((int)pos);
-        return this;
+        final ArrayList<String> docs = new ArrayList<>(doc);
+        docs.remove((int) pos);
+        return docs.size() == 1 ? itemAt(1 - pos) : docs(docs);
+    }
+
+    @Override
+    public void plan(final FElem plan) {
+        addPlan(plan, planElem(SIZE, size, NAM, collection));
+    }
+
+    private DBNode open(final String name) {
+        try {
+            return new DBNode(resources.open(name));
+        } catch(IOException ioe) {
+            try {
+                return new DBNode(new IOContent("<error>" + ioe.getMessage() + "</error>"));
+            } catch(Exception i) {}
+            throw Util.notExpected(ioe);
+        }
     }
 }
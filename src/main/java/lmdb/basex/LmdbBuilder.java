@@ -12,11 +12,11 @@ import org.basex.data.DataClip;
 import org.basex.index.IdPreMap;
 import org.basex.index.name.Names;
 import org.basex.io.IO;
-import org.basex.io.IOFile;
-import org.basex.io.in.DataInput;
 import org.basex.io.out.DataOutput;
-import org.fusesource.lmdbjni.Transaction;
+import org.basex.util.list.IntList;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.EOFException;
@@ -39,17 +39,21 @@ import static org.fusesource.lmdbjni.Constants.bytes;
 public class LmdbBuilder extends Builder {
 
     private DataOutput tout;
-    private DataOutput sout;
+    private LmdbTableOutput tableOutput;
     private StaticOptions sopts;
     private boolean closed;
 
     private byte[] docid;
+    /** Write batch text values go to while parsing, or {@code null} if they are staged in {@link #tmpFile}. */
+    private LmdbWriteBatch stream;
     private DataOutputStream tempBuffer;
     private File tmpFile;
+    /** Pairs of pre value and size of elements, fixed up in the table after parsing. */
+    private final IntList sizes = new IntList();
     private long txtref = 1;
     private long attref = 1;
-
-    private final static int batchsz = 10000;
+    /** Bytes of the stored values. */
+    private long textBytes;
 
     private LmdbBuilder(final String name, final byte[] docid, final Parser parser,
                         final MainOptions opts, final StaticOptions sopts) throws IOException {
@@ -60,16 +64,14 @@ public class LmdbBuilder extends Builder {
         sopts.set(DBPATH, System.getProperty("java.io.tmpdir", "/tmp"));
 
         meta = new LmdbMetaData(name, opts, sopts);
-        meta.updindex = false; //true;
+        meta.updindex = LmdbIndexer.updatable();
         meta.textindex = false; //true;
         meta.attrindex = false; //true;
-        meta.maxlen = opts.get(MainOptions.MAXLEN);
+        // indexed values are keys of the value index, after the document id
+        meta.maxlen = Math.min(opts.get(MainOptions.MAXLEN), (int) env.getMaxKeySize() - 4);
 
         this.docid = docid;
-
         this.tmpFile = new File(System.getProperty("java.io.tmpdir", "/tmp"),  "blx." + meta.name.replace('/', '.') + ".txt");
-        this.tmpFile.deleteOnExit();
-        this.tempBuffer = new DataOutputStream(new FileOutputStream(tmpFile));
     }
 
 
@@ -78,83 +80,152 @@ public class LmdbBuilder extends Builder {
         return new LmdbBuilder(name, docid, parser, opts, sopts).build();
     }
 
+    /**
+     * Creates a builder whose document is parsed with {@link #stage()} and stored later with {@link #store}.
+     * @param name document name
+     * @param docid document id
+     * @param parser parser
+     * @param opts main options
+     * @param sopts static options
+     * @return builder
+     * @throws IOException I/O exception
+     */
+    static LmdbBuilder stager(final String name, final byte[] docid, final Parser parser,
+                              final MainOptions opts, final StaticOptions sopts) throws IOException {
+        return new LmdbBuilder(name, docid, parser, opts, sopts);
+    }
+
+    /**
+     * Parses the document straight into LMDB: table pages and text values are appended as they are
+     * produced, no temporary files are written.
+     */
     @Override
     public LmdbData build() throws IOException {
-        meta.assign(parser);
-        meta.dirty = true;
-
-        // calculate optimized output buffer sizes to reduce disk fragmentation
-        final Runtime rt = Runtime.getRuntime();
-        final long max = Math.min(1 << 22, rt.maxMemory() - rt.freeMemory() >> 2);
-        int bs = (int) Math.min(meta.filesize, max);
-        bs = Math.max(IO.BLOCKSIZE, bs - bs % IO.BLOCKSIZE);
-
-        String tblBaseName = sopts.get(DBPATH)+"/" + "blx." + meta.name.replace('/','.') + ".tbl";
-        String tblTmpName =  sopts.get(DBPATH)+"/" + "blx." + meta.name.replace('/','.') + ".tmp";
+        try(LmdbWriteBatch batch = new LmdbWriteBatch()) {
+            stream = batch;
+            init();
+            try {
+                tableOutput = new LmdbTableOutput((LmdbMetaData)meta, batch, docid);
+                tout = new DataOutput(tableOutput);
+                parse();
+                close();
+                finish(batch);
+                batch.commit();
+            } catch(final IOException | RuntimeException ex) {
+                try { close(); } catch(final IOException ignored) { }
+                batch.abort();
+                // pages of full batches are committed already: let the cleaner reclaim them
+                if(batch.commits() > 0) LmdbCleaner.discard(meta.name, docid);
+                throw ex;
+            }
+        }
+        // just create it. do not use right away
+        return null;
+    }
 
-        elemNames = new Names(meta);
-        attrNames = new Names(meta);
+    /**
+     * Parses the document into temporary files. Nothing is written to LMDB yet, so documents can be
+     * staged concurrently.
+     * @throws IOException I/O exception
+     */
+    void stage() throws IOException {
+        init();
         try {
-            tout = new DataOutput(new LmdbTableOutput((LmdbMetaData)meta, tblBaseName, docid));
-            sout = new DataOutput(new IOFile(tblTmpName), bs);
+            tmpFile.deleteOnExit();
+            tempBuffer = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), IO.BLOCKSIZE));
+            tableOutput = new LmdbTableOutput((LmdbMetaData)meta, tblBaseName(), docid);
+            tout = new DataOutput(tableOutput);
             parse();
         } catch(final IOException ex) {
             try { close(); } catch(final IOException ignored) { }
+            discard();
             throw ex;
         }
         close();
+    }
 
-        int p = 0;
-        Transaction tx = env.createWriteTransaction();
-        FileInputStream tbl = new FileInputStream(tblBaseName);
-        for(int i = 0; ; i++) {
-            byte[] b = new byte[IO.BLOCKSIZE];
-            if(IOUtils.read(tbl,b) == 0) break;
-            tableaccessdb.put(tx,lmdbkey(docid,i),b);
-            if(++p > batchsz) {
-                tx.commit();
-                tx = env.createWriteTransaction();
-                p = 0;
-            }
-        }
-        if(p > 0) tx.commit();
-        else tx.close();
-
-        try(final DataInput in = new DataInput(new IOFile(tblTmpName))) {
-            p = 0;
-            tx = env.createWriteTransaction();
-            final TableLmdbAccess ta = new TableLmdbAccess(meta, tx, docid);
-            try {
-                for(; spos < ssize; ++spos) {
-                    ta.write4(in.readNum(), 8, in.readNum());
-                    ta.flush(false);
-                    if(++p > batchsz) {
-                        tx.commit();
-                        tx = env.createWriteTransaction();
-                        ta.setTx(tx);
-                        p = 0;
-                    }
+    /**
+     * Writes a staged document through the given batch. The document becomes visible with the commit
+     * of its collection entry, which is written last.
+     * @param batch write batch
+     * @throws IOException I/O exception
+     */
+    void store(final LmdbWriteBatch batch) throws IOException {
+        try {
+            try(FileInputStream tbl = new FileInputStream(tblBaseName())) {
+                for(int i = 0; ; i++) {
+                    byte[] b = new byte[IO.BLOCKSIZE];
+                    if(IOUtils.read(tbl,b) == 0) break;
+                    batch.append(tableaccessdb, lmdbkey(docid,i), b);
                 }
-            } finally {
-                ta.close();
             }
-            if(p > 0) tx.commit();
-            else tx.close();
+            writeTextData(batch);
+            finish(batch);
+        } finally {
+            discard();
         }
+    }
 
-        writeTextData();
-        writeStruct();
-
-        FileUtils.deleteQuietly(new File(tblTmpName));
-        FileUtils.deleteQuietly(new File(tblBaseName));
+    /**
+     * Deletes the temporary files of this builder.
+     */
+    void discard() {
+        FileUtils.deleteQuietly(new File(tblBaseName()));
         FileUtils.deleteQuietly(tmpFile);
+    }
 
-        coldb.put(bytes(meta.name), docid);
+    String name() {
+        return meta.name;
+    }
 
-        // just create it. do not use right away
-        return null;
+    byte[] docid() {
+        return docid;
     }
 
+    private void init() {
+        meta.assign(parser);
+        meta.dirty = true;
+        elemNames = new Names(meta);
+        attrNames = new Names(meta);
+    }
+
+    /**
+     * Writes everything following table pages and text values: the table directory, element sizes,
+     * reference counters, document structure and finally the collection entry.
+     * @param batch write batch
+     * @throws IOException I/O exception, or a document of the same name exists
+     */
+    private void finish(final LmdbWriteBatch batch) throws IOException {
+        batch.append(tableaccessdb, TableLmdbAccess.getStructKey(docid), tableOutput.struct());
+
+        final TableLmdbAccess ta = new TableLmdbAccess(meta, batch.tx(), docid);
+        try {
+            for(int i = 0; i < sizes.size(); i += 2, ++spos) {
+                ta.write4(sizes.get(i), 8, sizes.get(i + 1));
+                ta.flush(false);
+                if(batch.count()) ta.setTx(batch.tx());
+            }
+        } finally {
+            ta.close();
+        }
+
+        batch.append(textdatadb, LmdbData.getRefKey(docid), lmdb.util.Byte.getBytes((int) txtref));
+        batch.append(attributevaldb, LmdbData.getRefKey(docid), lmdb.util.Byte.getBytes((int) attref));
+        // the file size of a stored document: nodes and values, counted by the collection as well
+        meta.filesize = textBytes + ((long) meta.size << 4);
+        writeStruct(batch);
+        LmdbCollectionPaths.register(meta, docid, path, nspaces, elemNames, attrNames, batch);
+
+        // names are checked before a document id is leased, without lock: a concurrent build of the same name
+        // may have committed since. Checked again in the transaction which publishes the document
+        if(coldb.get(batch.tx(), bytes(meta.name)) != null) throw new IOException("document " + meta.name + " exists");
+        LmdbCollections.add(meta.name, 1, meta.filesize, batch.tx());
+        batch.put(coldb, bytes(meta.name), docid);
+    }
+
+    private String tblBaseName() {
+        return sopts.get(DBPATH) + "/" + "blx." + meta.name.replace('/','.') + ".tbl";
+    }
 
     @Override
     public DataClip dataClip() throws IOException {
@@ -166,10 +237,9 @@ public class LmdbBuilder extends Builder {
         if(closed) return;
         closed = true;
         if(tout != null) tout.close();
-        if(sout != null) sout.close();
+        if(tempBuffer != null) tempBuffer.close();
         parser.close();
         tout = null;
-        sout = null;
     }
 
     @Override
@@ -216,13 +286,17 @@ public class LmdbBuilder extends Builder {
 
     @Override
     protected void setSize(final int pre, final int size) throws IOException {
-        sout.writeNum(pre);
-        sout.writeNum(size);
+        sizes.add(pre).add(size);
         ++ssize;
     }
 
     private long textRef(final byte[] value, final boolean text) throws IOException {
         long ref = text ? txtref++ : attref++;
+        textBytes += value.length;
+        if(stream != null) {
+            stream.append(text ? textdatadb : attributevaldb, lmdbkey(docid, (int)ref), value);
+            return ref;
+        }
         tempBuffer.writeInt(value.length);
         tempBuffer.write(lmdbkey(docid, (int)ref));
         tempBuffer.write(value);
@@ -231,43 +305,24 @@ public class LmdbBuilder extends Builder {
     }
 
 
-    private void writeTextData() throws IOException {
+    private void writeTextData(final LmdbWriteBatch batch) throws IOException {
 
-        tempBuffer.close();
-        Transaction tx = env.createWriteTransaction();
-        DataInputStream di = new DataInputStream(new FileInputStream(tmpFile));
-
-        int c = 0;
-        try {
-            boolean text = true;
+        try(DataInputStream di = new DataInputStream(new BufferedInputStream(new FileInputStream(tmpFile), IO.BLOCKSIZE))) {
             while(true) try {
                 int len = di.readInt();
                 byte[] key = new byte[8];
                 di.readFully(key);
                 byte[] value = new byte[len];
                 di.readFully(value);
-                text = di.readBoolean();
-                (text ? textdatadb : attributevaldb).put(tx, key, value);
-                c++;
-                if (c > batchsz) {
-                    tx.commit();
-                    c = 0;
-                    tx = env.createWriteTransaction();
-                }
+                boolean text = di.readBoolean();
+                batch.append(text ? textdatadb : attributevaldb, key, value);
             } catch (EOFException eofe) {
                 break;
             }
-            tx.commit();
-        } finally {
-            tx.close();
         }
-
-        textdatadb.put(LmdbData.LAST_REF_KEY, lmdb.util.Byte.getBytes((int) txtref));
-        attributevaldb.put(LmdbData.LAST_REF_KEY, lmdb.util.Byte.getBytes((int) attref));
-
     }
 
-    private void writeStruct() {
+    private void writeStruct(final LmdbWriteBatch batch) {
 
         try(ByteArrayOutputStream bos = new ByteArrayOutputStream(1024*32);
             DataOutputStream dos = new DataOutputStream(bos);
@@ -303,7 +358,7 @@ public class LmdbBuilder extends Builder {
             dos.writeInt(b.size());
             dos.write(b.toByteArray());
 
-            structdb.put(docid, bos.toByteArray());
+            batch.append(structdb, docid, bos.toByteArray());
 
         } catch (IOException ioe) {
             throw new RuntimeException(ioe);
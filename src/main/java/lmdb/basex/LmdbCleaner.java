@@ -0,0 +1,337 @@
+package lmdb.basex;
+
+import lmdb.util.Byte;
+import org.apache.log4j.Logger;
+import org.fusesource.lmdbjni.Cursor;
+import org.fusesource.lmdbjni.Database;
+import org.fusesource.lmdbjni.Entry;
+import org.fusesource.lmdbjni.EntryIterator;
+import org.fusesource.lmdbjni.GetOp;
+import org.fusesource.lmdbjni.SeekOp;
+import org.fusesource.lmdbjni.Transaction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static lmdb.Constants.string;
+import static lmdb.basex.LmdbDataManager.attrangesdb;
+import static lmdb.basex.LmdbDataManager.attributevaldb;
+import static lmdb.basex.LmdbDataManager.attvaluesdb;
+import static lmdb.basex.LmdbDataManager.coldb;
+import static lmdb.basex.LmdbDataManager.env;
+import static lmdb.basex.LmdbDataManager.ftindexdb;
+import static lmdb.basex.LmdbDataManager.structdb;
+import static lmdb.basex.LmdbDataManager.tableaccessdb;
+import static lmdb.basex.LmdbDataManager.textdatadb;
+import static lmdb.basex.LmdbDataManager.txtrangesdb;
+import static lmdb.basex.LmdbDataManager.txtvaluesdb;
+import static org.fusesource.lmdbjni.Constants.bytes;
+
+/**
+ * Background service deleting the keys of removed documents, which are marked with {@code name + "/r"} in
+ * {@code coldb}, and of documents which failed to load, marked with {@code name + "/" + docid + "/r"}. Keys are deleted in short write transactions, each limited to a maximum duration, and the
+ * service sleeps between them so that at most {@link #rate(int)} keys are deleted per second: other writers
+ * wait for one short transaction at most, and the pages of the deleted keys are reused by the following
+ * writes. If the service waited for the write lock longer than {@link #contention(long, long)}, other writers are
+ * busy and it pauses. Removals wake the service up, otherwise it looks for removed documents every
+ * {@link #interval(long)}.
+ */
+public final class LmdbCleaner {
+
+    private static final Logger logger = Logger.getLogger(LmdbCleaner.class);
+
+    /** Maximum number of removed documents read with one scan of {@code coldb}. */
+    private static final int SCAN = 1000;
+
+    private static volatile int rate = 50000;
+    private static volatile long transactionTime = 50;
+    private static volatile long contention = 20;
+    private static volatile long pause = 1000;
+    private static volatile long interval = 60000;
+
+    private static Thread worker;
+    private static volatile boolean running;
+    private static final Object signal = new Object();
+    private static boolean signalled;
+
+    private static final AtomicLong documents = new AtomicLong();
+    private static final AtomicLong keys = new AtomicLong();
+    private static final AtomicLong reclaimed = new AtomicLong();
+    private static final AtomicLong pauses = new AtomicLong();
+    private static volatile int pending;
+
+    private LmdbCleaner() { }
+
+    /**
+     * Sets the maximum number of keys deleted per second.
+     * @param keys number of keys
+     */
+    public static void rate(final int keys) {
+        rate = Math.max(1, keys);
+    }
+
+    /**
+     * Sets the maximum duration of a write transaction of the service.
+     * @param millis milliseconds
+     */
+    public static void transactionTime(final long millis) {
+        transactionTime = Math.max(1, millis);
+    }
+
+    /**
+     * Sets the time waited for the write lock from which other writers count as busy, and the time the
+     * service pauses then.
+     * @param millis milliseconds waited for the write lock
+     * @param pauseMillis milliseconds paused
+     */
+    public static void contention(final long millis, final long pauseMillis) {
+        contention = millis;
+        pause = pauseMillis;
+    }
+
+    /**
+     * Sets the time between two scans for removed documents, if no removal wakes the service up.
+     * @param millis milliseconds
+     */
+    public static void interval(final long millis) {
+        interval = Math.max(1, millis);
+    }
+
+    static synchronized void start() {
+        if(running) return;
+        running = true;
+        worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                work();
+            }
+        }, "lmdb-cleaner");
+        worker.setDaemon(true);
+        worker.setPriority(Thread.MIN_PRIORITY);
+        worker.start();
+        logger.info("cleaner start");
+    }
+
+    /**
+     * Stops the service after the current transaction. Remaining keys are deleted after the next start.
+     */
+    static synchronized void stop() {
+        if(!running) return;
+        running = false;
+        worker.interrupt();
+        try {
+            worker.join();
+        } catch(InterruptedException ignored) {
+        }
+        logger.info(stats());
+        logger.info("cleaner stop");
+    }
+
+    /**
+     * Wakes the service up after documents were removed.
+     */
+    static void wake() {
+        synchronized(signal) {
+            signalled = true;
+            signal.notifyAll();
+        }
+    }
+
+    /**
+     * Marks the keys of a document which failed to load after some of its keys were committed. The marker
+     * contains the document id, and doesn't replace the marker of a removed document of the same name.
+     * @param name document name
+     * @param docid document id
+     */
+    static void discard(final String name, final byte[] docid) {
+        try(Transaction wtx = env.createWriteTransaction()) {
+            coldb.put(wtx, bytes(name + '/' + Byte.getInt(docid) + "/r"), docid);
+            LmdbDurability.commit(wtx);
+        }
+        wake();
+    }
+
+    /** Removed documents whose keys have been deleted. */
+    public static long documents() { return documents.get(); }
+
+    /** Deleted keys. */
+    public static long keys() { return keys.get(); }
+
+    /** Bytes of the deleted keys and values. */
+    public static long reclaimed() { return reclaimed.get(); }
+
+    /** Pauses because other writers were busy. */
+    public static long pauses() { return pauses.get(); }
+
+    /**
+     * Number of removed documents found by the last scan whose keys are not deleted yet.
+     * @return documents
+     */
+    public static int pending() {
+        return pending;
+    }
+
+    public static String stats() {
+        return "cleaner: pending=" + pending() + " documents=" + documents() + " keys=" + keys() + " reclaimed=" +
+               reclaimed() / 1024 + "kB pauses=" + pauses();
+    }
+
+    /**
+     * Waits until the keys of all removed documents are deleted.
+     * @param timeout milliseconds
+     * @return {@code true} if no removed document is left
+     */
+    static boolean await(final long timeout) throws InterruptedException {
+        final long end = System.currentTimeMillis() + timeout;
+        while(!removed(1).isEmpty()) {
+            if(System.currentTimeMillis() > end) return false;
+            wake();
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    private static void work() {
+        while(running) {
+            try {
+                final List<Entry> removed = removed(SCAN);
+                pending = removed.size();
+                if(removed.isEmpty()) {
+                    synchronized(signal) {
+                        if(!signalled) signal.wait(interval);
+                        signalled = false;
+                    }
+                    continue;
+                }
+                for(final Entry e : removed) {
+                    if(!running) break;
+                    clean(e.getKey(), e.getValue());
+                    pending--;
+                }
+            } catch(InterruptedException ie) {
+                // stopped
+            } catch(Exception e) {
+                logger.warn("cleaner: " + e.getMessage());
+                if(logger.isDebugEnabled()) logger.debug("", e);
+                try {
+                    Thread.sleep(pause);
+                } catch(InterruptedException ie) {
+                    // stopped
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes the keys of a removed document, and finally its removal marker.
+     * @param marker removal marker
+     * @param docid document id
+     * @throws InterruptedException interrupted
+     */
+    private static void clean(final byte[] marker, final byte[] docid) throws InterruptedException {
+        final String name = string(marker);
+        logger.info("cleaner: removing document " + name.substring(0, name.length() - 2));
+        // the values in the collection index are found with the value indexes of the document
+        Transaction wtx = begin();
+        try {
+            LmdbCollectionIndex.purge(name, docid, wtx);
+            structdb.delete(wtx, docid);
+            LmdbDurability.commit(wtx);
+        } finally {
+            wtx.close();
+        }
+        for(final Database db : new Database[] { tableaccessdb, textdatadb, attributevaldb, txtvaluesdb,
+                attvaluesdb, txtrangesdb, attrangesdb, ftindexdb }) {
+            boolean done = false;
+            while(running && !done) done = delete(db, docid);
+            if(!done) return;
+        }
+        wtx = begin();
+        try {
+            coldb.delete(wtx, marker);
+            LmdbDurability.commit(wtx);
+        } finally {
+            wtx.close();
+        }
+        LmdbPageCache.purge(docid);
+        LmdbStructCache.purge(docid);
+        documents.incrementAndGet();
+    }
+
+    /**
+     * Deletes keys of a removed document in one write transaction, within the limits of the transaction
+     * duration and the rate, and sleeps for the rest of the time the deleted keys are allowed to take.
+     * @param db database
+     * @param docid document id
+     * @return {@code true} if no key of the document is left
+     * @throws InterruptedException interrupted
+     */
+    private static boolean delete(final Database db, final byte[] docid) throws InterruptedException {
+        final int id = Byte.getInt(docid);
+        final int max = (int) Math.max(1, Math.min(Integer.MAX_VALUE, (long) rate * transactionTime / 1000));
+        final long start = System.nanoTime(), end = start + transactionTime * 1000000;
+        boolean done = true;
+        int n = 0;
+        long bytes = 0;
+        final Transaction wtx = begin();
+        try {
+            try(Cursor c = db.openCursor(wtx)) {
+                for(Entry e = c.seek(SeekOp.RANGE, docid); e != null; e = c.get(GetOp.NEXT)) {
+                    final byte[] key = e.getKey();
+                    if(key.length < 4 || Byte.getInt(key) != id) break;
+                    if(n == max || (n & 0xff) == 0 && System.nanoTime() > end) {
+                        done = false;
+                        break;
+                    }
+                    c.delete();
+                    bytes += key.length + e.getValue().length;
+                    n++;
+                }
+            }
+            LmdbDurability.commit(wtx);
+        } finally {
+            wtx.close();
+        }
+        keys.addAndGet(n);
+        reclaimed.addAndGet(bytes);
+        final long sleep = (long) n * 1000 / rate - (System.nanoTime() - start) / 1000000;
+        if(sleep > 0) Thread.sleep(sleep);
+        return done;
+    }
+
+    /**
+     * Starts a write transaction, and pauses first if waiting for the write lock took longer than the
+     * contention limit.
+     * @return write transaction
+     * @throws InterruptedException interrupted
+     */
+    private static Transaction begin() throws InterruptedException {
+        while(true) {
+            final long start = System.nanoTime();
+            final Transaction wtx = env.createWriteTransaction();
+            if((System.nanoTime() - start) / 1000000 <= contention) return wtx;
+            wtx.close();
+            pauses.incrementAndGet();
+            Thread.sleep(pause);
+        }
+    }
+
+    /**
+     * Returns the removal markers and ids of removed documents.
+     * @param max maximum number of documents
+     * @return markers and document ids
+     */
+    private static List<Entry> removed(final int max) {
+        final ArrayList<Entry> removed = new ArrayList<Entry>();
+        try(Transaction tx = env.createReadTransaction(); EntryIterator ei = coldb.iterate(tx)) {
+            while(ei.hasNext() && removed.size() < max) {
+                final Entry e = ei.next();
+                final byte[] key = e.getKey();
+                final int l = key.length;
+                if(l > 2 && key[l - 2] == '/' && key[l - 1] == 'r') removed.add(e);
+            }
+        }
+        return removed;
+    }
+}
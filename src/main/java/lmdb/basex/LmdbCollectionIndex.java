@@ -0,0 +1,331 @@
+package lmdb.basex;
+
+import lmdb.util.Byte;
+import org.basex.data.MetaData;
+import org.basex.index.IndexType;
+import org.basex.index.query.IndexToken;
+import org.basex.index.query.NumericRange;
+import org.basex.index.query.StringRange;
+import org.basex.index.query.StringToken;
+import org.basex.query.value.Value;
+import org.basex.util.hash.IntSet;
+import org.fusesource.lmdbjni.Cursor;
+import org.fusesource.lmdbjni.Database;
+import org.fusesource.lmdbjni.Entry;
+import org.fusesource.lmdbjni.GetOp;
+import org.fusesource.lmdbjni.SeekOp;
+import org.fusesource.lmdbjni.Transaction;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import static lmdb.basex.LmdbDataManager.attvaluesdb;
+import static lmdb.basex.LmdbDataManager.coldb;
+import static lmdb.basex.LmdbDataManager.colvaluesdb;
+import static lmdb.basex.LmdbDataManager.txtvaluesdb;
+import static org.basex.util.Token.concat;
+import static org.basex.util.Token.diff;
+import static org.basex.util.Token.startsWith;
+import static org.basex.util.Token.string;
+import static org.basex.util.Token.token;
+
+/**
+ * Value index of collections. Every text and attribute value of the indexed documents of a collection is a
+ * key of its own, {@code collection + 0 + kind + value + 0 + docid}, mapped to a zero byte: the documents
+ * containing a value are read with one cursor walk, and documents are added and removed without rewriting
+ * entries shared with other documents. Numeric values are also stored as typed keys,
+ * {@code collection + 0 + kind + number + docid} (see {@link LmdbValues#number(byte[])}), so that numeric
+ * ranges are a single walk as well.
+ *
+ * Only the entries of documents registered under {@code collection + 0 + 'd' + docid} are current: documents are
+ * registered when {@link LmdbIndexer} publishes their indexes, if enabled with
+ * {@link LmdbIndexer#collections(boolean)}, and unregistered when they are updated, unless their indexes are
+ * maintained by updates, indexed again or removed. The entries are derived from the value indexes of the
+ * documents, which are also used to remove them. Queries on a collection skip the registered documents which
+ * contain no matching value; all other documents are evaluated as before.
+ */
+final class LmdbCollectionIndex {
+
+    private static final byte TEXT = 't';
+    private static final byte ATTRIBUTE = 'a';
+    private static final byte TEXT_NUMBER = 'T';
+    private static final byte ATTRIBUTE_NUMBER = 'A';
+    private static final byte DOCUMENT = 'd';
+    private static final byte[] SEPARATOR = { 0 };
+
+    private LmdbCollectionIndex() { }
+
+    /**
+     * Registers a document and adds the values of its text and attribute indexes.
+     * @param data document, opened with a write transaction
+     */
+    static void register(final LmdbData data) {
+        final MetaData meta = data.meta;
+        // indexes restricted to some names don't contain every value: such documents are always evaluated
+        if(!meta.textinclude.isEmpty() || !meta.attrinclude.isEmpty()) return;
+        final String collection = collection(meta.name);
+        values(collection, data.docid, data.tx, true);
+        colvaluesdb.put(data.tx, concat(prefix(collection, DOCUMENT), data.docid),
+                concat(Byte.getBytes(meta.maxlen), token(meta.name)));
+    }
+
+    /**
+     * Unregisters a document and removes its values, if it is registered.
+     * @param data document, opened with a write transaction
+     */
+    static void unregister(final LmdbData data) {
+        final String collection = collection(data.meta.name);
+        if(colvaluesdb.delete(data.tx, concat(prefix(collection, DOCUMENT), data.docid))) {
+            values(collection, data.docid, data.tx, false);
+        }
+    }
+
+    /**
+     * Unregisters a removed document. Its values are removed by {@link #purge}.
+     * @param name document name
+     * @param docid document id
+     * @param tx write transaction
+     */
+    static void unregister(final String name, final byte[] docid, final Transaction tx) {
+        colvaluesdb.delete(tx, concat(prefix(collection(name), DOCUMENT), docid));
+    }
+
+    /**
+     * Removes the values of a removed document, before its indexes are deleted.
+     * @param name document name
+     * @param docid document id
+     * @param tx write transaction
+     */
+    static void purge(final String name, final byte[] docid, final Transaction tx) {
+        values(collection(name), docid, tx, false);
+    }
+
+    /**
+     * Checks if a document is registered.
+     * @param name document name
+     * @param docid document id
+     * @param tx transaction
+     * @return result of check
+     */
+    static boolean registered(final String name, final byte[] docid, final Transaction tx) {
+        return colvaluesdb.get(tx, concat(prefix(collection(name), DOCUMENT), docid)) != null;
+    }
+
+    /**
+     * Adds a value of a registered document.
+     * @param name document name
+     * @param text text or attribute value
+     * @param value value
+     * @param docid document id
+     * @param tx write transaction
+     */
+    static void add(final String name, final boolean text, final byte[] value, final byte[] docid,
+                    final Transaction tx) {
+        value(collection(name), text, value, docid, tx, true, true);
+    }
+
+    /**
+     * Removes a value of a registered document, which no node of the document has anymore.
+     * @param name document name
+     * @param text text or attribute value
+     * @param value value
+     * @param docid document id
+     * @param number remove the typed key of the value as well: other values of the document may have the same
+     *        number
+     * @param tx write transaction
+     */
+    static void delete(final String name, final boolean text, final byte[] value, final byte[] docid,
+                       final boolean number, final Transaction tx) {
+        value(collection(name), text, value, docid, tx, false, number);
+    }
+
+    /**
+     * Returns the documents of a collection which can contain nodes matching all predicates.
+     * @param docs documents of a collection
+     * @param tokens index tokens of every predicate, one of which must occur in a matching document
+     * @return documents, or {@code null} if none of the documents is registered
+     */
+    static Value docs(final LazyDBNodeSeq docs, final ArrayList<IndexToken[]> tokens) {
+        final String collection = docs.collection();
+        final Transaction tx = docs.tx();
+
+        // registered documents: names, ids and maximum length of indexed values
+        final HashMap<String, byte[]> registered = registered(docs);
+        if(registered.isEmpty()) return null;
+
+        // documents containing the tokens of each predicate
+        final ArrayList<IntSet> hits = new ArrayList<>(tokens.size());
+        final int[] lengths = new int[tokens.size()];
+        for(int t = 0; t < lengths.length; t++) {
+            final IntSet ids = new IntSet();
+            for(final IndexToken it : tokens.get(t)) {
+                if(it instanceof StringToken) lengths[t] = Math.max(lengths[t], it.get().length);
+                docs(collection, it, ids, tx);
+            }
+            hits.add(ids);
+        }
+
+        final List<String> names = docs.names();
+        final ArrayList<String> result = new ArrayList<>(names.size());
+        for(final String name : names) {
+            final byte[] reg = registered.get(name);
+            boolean match = true;
+            if(reg != null) {
+                final int docid = Byte.getInt(reg), maxlen = Byte.getInt(reg, 4);
+                // strings longer than the indexed values can't be ruled out
+                for(int t = 0; match && t < lengths.length; t++) {
+                    match = hits.get(t).contains(docid) || lengths[t] > maxlen;
+                }
+            }
+            if(match) result.add(name);
+        }
+        return docs.docs(result);
+    }
+
+    // PRIVATE METHODS ==============================================================================
+
+    /**
+     * Returns the registered documents of a sequence. The registrations of a few documents are looked up one by
+     * one, otherwise all registrations of the collection are read.
+     * @param docs documents of a collection
+     * @return document ids and maximum lengths of indexed values, by document name
+     */
+    private static HashMap<String, byte[]> registered(final LazyDBNodeSeq docs) {
+        final HashMap<String, byte[]> registered = new HashMap<>();
+        final Transaction tx = docs.tx();
+        final byte[] dp = prefix(docs.collection(), DOCUMENT);
+        if(docs.names().size() <= LmdbCollectionPaths.LOOKUPS) {
+            for(final String name : docs.names()) {
+                final byte[] docid = coldb.get(tx, token(name));
+                final byte[] value = docid == null ? null : colvaluesdb.get(tx, concat(dp, docid));
+                if(value != null) registered.put(name, concat(docid, Arrays.copyOf(value, 4)));
+            }
+            return registered;
+        }
+        try(Cursor c = colvaluesdb.openCursor(tx)) {
+            for(Entry e = c.seek(SeekOp.RANGE, dp); e != null && startsWith(e.getKey(), dp); e = c.get(GetOp.NEXT)) {
+                final byte[] value = e.getValue();
+                registered.put(string(value, 4, value.length - 4), concat(Arrays.copyOfRange(e.getKey(), dp.length,
+                        dp.length + 4), Arrays.copyOf(value, 4)));
+            }
+        }
+        return registered;
+    }
+
+    /**
+     * Adds the ids of the documents containing an index token.
+     * @param collection collection
+     * @param it index token
+     * @param ids document ids
+     * @param tx transaction
+     */
+    private static void docs(final String collection, final IndexToken it, final IntSet ids,
+                             final Transaction tx) {
+        final boolean text = it.type() == IndexType.TEXT;
+        try(Cursor c = colvaluesdb.openCursor(tx)) {
+            if(it instanceof NumericRange) {
+                final NumericRange nr = (NumericRange) it;
+                final byte[] prefix = prefix(collection, text ? TEXT_NUMBER : ATTRIBUTE_NUMBER);
+                final byte[] from = concat(prefix, LmdbValues.number(nr.min)), to = concat(prefix, LmdbValues.number(nr.max));
+                for(Entry e = c.seek(SeekOp.RANGE, from); e != null; e = c.get(GetOp.NEXT)) {
+                    final byte[] number = Arrays.copyOf(e.getKey(), to.length);
+                    final int d = diff(number, to);
+                    if(d > 0 || !nr.mxi && d == 0) break;
+                    if(nr.mni || diff(number, from) != 0) ids.add(docid(e.getKey()));
+                }
+            } else if(it instanceof StringRange) {
+                final StringRange sr = (StringRange) it;
+                final byte[] prefix = prefix(collection, text ? TEXT : ATTRIBUTE);
+                for(Entry e = c.seek(SeekOp.RANGE, concat(prefix, sr.min)); e != null && startsWith(e.getKey(), prefix);
+                    e = c.get(GetOp.NEXT)) {
+                    final byte[] key = e.getKey();
+                    final byte[] value = Arrays.copyOfRange(key, prefix.length, key.length - 5);
+                    final int d = diff(value, sr.max);
+                    if(d > 0 || !sr.mxi && d == 0) break;
+                    if(sr.mni || diff(value, sr.min) != 0) ids.add(docid(key));
+                }
+            } else {
+                final byte[] prefix = concat(prefix(collection, text ? TEXT : ATTRIBUTE), it.get(), SEPARATOR);
+                for(Entry e = c.seek(SeekOp.RANGE, prefix); e != null && startsWith(e.getKey(), prefix); e = c.get(GetOp.NEXT)) {
+                    ids.add(docid(e.getKey()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds or removes all values of the text and attribute index of a document.
+     * @param collection collection
+     * @param docid document id
+     * @param tx write transaction
+     * @param add add or remove values
+     */
+    private static void values(final String collection, final byte[] docid, final Transaction tx,
+                               final boolean add) {
+        for(final boolean text : new boolean[] { true, false }) {
+            final Database db = text ? txtvaluesdb : attvaluesdb;
+            try(Cursor c = db.openCursor(tx)) {
+                for(Entry e = c.seek(SeekOp.RANGE, docid); e != null && LmdbTerms.term(docid, e.getKey()); e = c.get(GetOp.NEXT)) {
+                    value(collection, text, LmdbTerms.term(e.getKey()), docid, tx, add, true);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds or removes a value of a document.
+     * @param collection collection
+     * @param text text or attribute value
+     * @param value value
+     * @param docid document id
+     * @param tx write transaction
+     * @param add add or remove the value
+     * @param number add or remove the typed key of a numeric value as well
+     */
+    private static void value(final String collection, final boolean text, final byte[] value, final byte[] docid,
+                              final Transaction tx, final boolean add, final boolean number) {
+        final byte[] key = concat(concat(prefix(collection, text ? TEXT : ATTRIBUTE), value, SEPARATOR), docid);
+        final byte[] nm = number ? LmdbValues.number(value) : null;
+        final byte[] nkey = nm == null ? null : concat(prefix(collection, text ? TEXT_NUMBER : ATTRIBUTE_NUMBER), nm, docid);
+        if(add) {
+            colvaluesdb.put(tx, key, SEPARATOR);
+            if(nkey != null) colvaluesdb.put(tx, nkey, SEPARATOR);
+        } else {
+            colvaluesdb.delete(tx, key);
+            if(nkey != null) colvaluesdb.delete(tx, nkey);
+        }
+    }
+
+    /**
+     * Returns the key prefix of a kind of entries of a collection.
+     * @param collection collection
+     * @param kind kind of entries
+     * @return key prefix
+     */
+    private static byte[] prefix(final String collection, final byte kind) {
+        final byte[] c = token(collection);
+        final byte[] prefix = Arrays.copyOf(c, c.length + 2);
+        prefix[c.length + 1] = kind;
+        return prefix;
+    }
+
+    /**
+     * Returns the document id of a value key.
+     * @param key key
+     * @return document id
+     */
+    private static int docid(final byte[] key) {
+        return Byte.getInt(key, key.length - 4);
+    }
+
+    /**
+     * Returns the collection of a document.
+     * @param name document name
+     * @return collection
+     */
+    private static String collection(final String name) {
+        return name.substring(0, name.indexOf('/'));
+    }
+}
@@ -0,0 +1,554 @@
+package lmdb.basex;
+
+import lmdb.util.Byte;
+import org.basex.data.Data;
+import org.basex.data.MetaData;
+import org.basex.data.Namespaces;
+import org.basex.index.name.Names;
+import org.basex.index.path.PathNode;
+import org.basex.index.path.PathSummary;
+import org.basex.query.expr.path.Axis;
+import org.basex.query.expr.path.NameTest;
+import org.basex.query.expr.path.Step;
+import org.basex.query.expr.path.Test;
+import org.basex.query.value.Value;
+import org.basex.query.value.node.ANode;
+import org.basex.query.value.type.NodeType;
+import org.basex.util.TokenBuilder;
+import org.basex.util.hash.IntMap;
+import org.basex.util.list.TokenList;
+import org.fusesource.lmdbjni.Cursor;
+import org.fusesource.lmdbjni.Entry;
+import org.fusesource.lmdbjni.GetOp;
+import org.fusesource.lmdbjni.SeekOp;
+import org.fusesource.lmdbjni.Transaction;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import static lmdb.basex.LmdbDataManager.coldb;
+import static lmdb.basex.LmdbDataManager.colpathsdb;
+import static lmdb.basex.LmdbDataManager.env;
+import static org.basex.data.DataText.ATT;
+import static org.basex.data.DataText.COMMENT;
+import static org.basex.data.DataText.PI;
+import static org.basex.data.DataText.TEXT;
+import static org.basex.util.Token.EMPTY;
+import static org.basex.util.Token.concat;
+import static org.basex.util.Token.eq;
+import static org.basex.util.Token.indexOf;
+import static org.basex.util.Token.local;
+import static org.basex.util.Token.split;
+import static org.basex.util.Token.startsWith;
+import static org.basex.util.Token.string;
+import static org.basex.util.Token.token;
+
+/**
+ * Path summary of collections. Every path of the path summary of a document is a key of its own,
+ * {@code collection + 0 + path + 0 + docid}, mapped to the number of nodes of the document on this path; paths
+ * are written like {@code /catalog/book/@id} or {@code /catalog/book/title/text()}. The distinct paths of a
+ * collection are read with one cursor walk, which skips the documents of paths not matching a query.
+ *
+ * Documents are registered under {@code collection + 0 + 'd' + docid}, mapped to their namespace URI, name and
+ * paths, separated by zero bytes: they are registered when they are built, unregistered on their first update,
+ * since updates don't maintain path summaries, and registered again when {@link LmdbIndexer} has rebuilt their
+ * path summary. Documents with more than one namespace, or with a path exceeding the key size, are not
+ * registered. Queries on a collection skip the registered documents without nodes on the queried path, and the
+ * number of nodes is computed from the summary if all documents are registered.
+ */
+final class LmdbCollectionPaths {
+
+    private static final byte PATH = '/';
+    private static final byte DOCUMENT = 'd';
+    private static final byte[] SEPARATOR = { 0 };
+    /** Maximum number of documents which are looked up one by one, instead of reading the whole collection. */
+    static final int LOOKUPS = 64;
+
+    private LmdbCollectionPaths() { }
+
+    /**
+     * Registers a document, after unregistering its old paths.
+     * @param data document, opened with a write transaction
+     */
+    static void register(final LmdbData data) {
+        unregister(data.meta.name, data.docid, data.tx);
+        final ArrayList<byte[]> entries = entries(data.meta, data.docid, data.paths, data.nspaces, data.elemNames,
+                data.attrNames);
+        for(int e = 0; e < entries.size(); e += 2) colpathsdb.put(data.tx, entries.get(e), entries.get(e + 1));
+    }
+
+    /**
+     * Registers a new document.
+     * @param meta meta data
+     * @param docid document id
+     * @param paths path summary
+     * @param nspaces namespaces
+     * @param elemNames element names
+     * @param attrNames attribute names
+     * @param batch write batch
+     */
+    static void register(final MetaData meta, final byte[] docid, final PathSummary paths, final Namespaces nspaces,
+                         final Names elemNames, final Names attrNames, final LmdbWriteBatch batch) {
+        final ArrayList<byte[]> entries = entries(meta, docid, paths, nspaces, elemNames, attrNames);
+        for(int e = 0; e < entries.size(); e += 2) batch.put(colpathsdb, entries.get(e), entries.get(e + 1));
+    }
+
+    /**
+     * Unregisters a document and removes its paths, if it is registered.
+     * @param data document, opened with a write transaction
+     */
+    static void unregister(final LmdbData data) {
+        unregister(data.meta.name, data.docid, data.tx);
+    }
+
+    /**
+     * Unregisters a document and removes its paths, if it is registered.
+     * @param name document name
+     * @param docid document id
+     * @param tx write transaction
+     */
+    static void unregister(final String name, final byte[] docid, final Transaction tx) {
+        final String collection = collection(name);
+        final byte[] key = concat(prefix(collection, DOCUMENT), docid);
+        final byte[] reg = colpathsdb.get(tx, key);
+        if(reg == null) return;
+        final byte[][] values = values(reg);
+        for(int v = 1; v < values.length; v++) colpathsdb.delete(tx, key(collection, values[v], docid));
+        colpathsdb.delete(tx, key);
+    }
+
+    /**
+     * Returns the documents of a collection which contain nodes on the path of the specified steps.
+     * @param docs documents of a collection
+     * @param steps leading axis steps of a path
+     * @return documents, or {@code null} if no document of the collection is registered or the steps are not
+     *         supported
+     */
+    static Value docs(final LazyDBNodeSeq docs, final List<Step> steps) {
+        final Query query = query(steps, false);
+        // document nodes are results in all documents
+        if(query == null || query.matches(EMPTY)) return null;
+        final HashMap<String, Registration> registered = registered(docs);
+        if(registered.isEmpty()) return null;
+
+        final IntMap counts = counts(docs, registered, query);
+        final List<String> names = docs.names();
+        final ArrayList<String> result = new ArrayList<>(names.size());
+        for(final String name : names) {
+            final Registration reg = registered.get(name);
+            if(reg == null || query.matches(reg) && counts.get(reg.docid) > 0) result.add(name);
+        }
+        return docs.docs(result);
+    }
+
+    /**
+     * Returns the number of nodes of the documents of a collection on the path of the specified steps.
+     * @param docs documents of a collection
+     * @param steps axis steps of a path
+     * @return number of nodes, or {@code -1} if a document is not registered or the steps are not supported
+     */
+    static long size(final LazyDBNodeSeq docs, final List<Step> steps) {
+        final Query query = query(steps, true);
+        if(query == null) return -1;
+        final HashMap<String, Registration> registered = registered(docs);
+        for(final String name : docs.names()) {
+            if(!registered.containsKey(name)) return -1;
+        }
+
+        final IntMap counts = counts(docs, registered, query);
+        final boolean root = query.matches(EMPTY);
+        long size = 0;
+        for(final String name : docs.names()) {
+            final Registration reg = registered.get(name);
+            if(!query.matches(reg)) continue;
+            final int count = counts.get(reg.docid);
+            if(count > 0) size += count;
+            if(root) size++;
+        }
+        return size;
+    }
+
+    // PRIVATE METHODS ==============================================================================
+
+    /**
+     * Returns the keys and values registering a document, in alternating order.
+     * @param meta meta data
+     * @param docid document id
+     * @param paths path summary
+     * @param nspaces namespaces
+     * @param elemNames element names
+     * @param attrNames attribute names
+     * @return keys and values, empty if the document can't be registered
+     */
+    private static ArrayList<byte[]> entries(final MetaData meta, final byte[] docid, final PathSummary paths,
+                                             final Namespaces nspaces, final Names elemNames, final Names attrNames) {
+        final ArrayList<byte[]> entries = new ArrayList<>();
+        // names of documents with several namespaces don't tell their namespace
+        final byte[] uri = nspaces.globalUri();
+        if(uri == null || !meta.uptodate) return entries;
+
+        final String collection = collection(meta.name);
+        final TokenBuilder reg = new TokenBuilder().add(uri).add(0).add(meta.name);
+        final ArrayList<PathNode> stack = new ArrayList<>();
+        final TokenList prefixes = new TokenList();
+        for(final PathNode root : paths.root()) {
+            stack.add(root);
+            prefixes.add(new byte[0]);
+        }
+        while(!stack.isEmpty()) {
+            final PathNode node = stack.remove(stack.size() - 1);
+            final byte[] prefix = prefixes.get(prefixes.size() - 1);
+            prefixes.size(prefixes.size() - 1);
+            if(node.children == null) continue;
+            for(final PathNode child : node.children) {
+                final byte[] path = concat(prefix, new byte[] { PATH }, segment(child, elemNames, attrNames));
+                final byte[] key = key(collection, path, docid);
+                // paths of deep documents may exceed the key size
+                if(key.length > env.getMaxKeySize()) return new ArrayList<>();
+                entries.add(key);
+                entries.add(Byte.getBytes(child.stats.count));
+                reg.add(0).add(path);
+                stack.add(child);
+                prefixes.add(path);
+            }
+        }
+        entries.add(concat(prefix(collection, DOCUMENT), docid));
+        entries.add(reg.finish());
+        return entries;
+    }
+
+    /**
+     * Returns the path segment of a path node.
+     * @param node path node
+     * @param elemNames element names
+     * @param attrNames attribute names
+     * @return segment
+     */
+    private static byte[] segment(final PathNode node, final Names elemNames, final Names attrNames) {
+        switch(node.kind) {
+            case Data.ELEM: return elemNames.key(node.name);
+            case Data.ATTR: return concat(ATT, attrNames.key(node.name));
+            case Data.TEXT: return TEXT;
+            case Data.COMM: return COMMENT;
+            default:        return PI;
+        }
+    }
+
+    /**
+     * Returns the node kind of a path segment.
+     * @param segment path segment
+     * @return node kind
+     */
+    private static int kind(final byte[] segment) {
+        if(segment.length > 0 && segment[0] == ATT[0]) return Data.ATTR;
+        if(eq(segment, TEXT)) return Data.TEXT;
+        if(eq(segment, COMMENT)) return Data.COMM;
+        if(eq(segment, PI)) return Data.PI;
+        return Data.ELEM;
+    }
+
+    /**
+     * Returns the registered documents of a sequence. The registrations of a few documents are looked up one by
+     * one, otherwise all registrations of the collection are read.
+     * @param docs documents of a collection
+     * @return registrations by document name
+     */
+    private static HashMap<String, Registration> registered(final LazyDBNodeSeq docs) {
+        final HashMap<String, Registration> registered = new HashMap<>();
+        final Transaction tx = docs.tx();
+        final byte[] dp = prefix(docs.collection(), DOCUMENT);
+        if(docs.names().size() <= LOOKUPS) {
+            for(final String name : docs.names()) {
+                final byte[] docid = coldb.get(tx, token(name));
+                final byte[] value = docid == null ? null : colpathsdb.get(tx, concat(dp, docid));
+                if(value != null) registered.put(name, new Registration(Byte.getInt(docid), value));
+            }
+            return registered;
+        }
+        try(Cursor c = colpathsdb.openCursor(tx)) {
+            for(Entry e = c.seek(SeekOp.RANGE, dp); e != null && startsWith(e.getKey(), dp); e = c.get(GetOp.NEXT)) {
+                final Registration reg = new Registration(Byte.getInt(e.getKey(), dp.length), e.getValue());
+                registered.put(string(reg.values[0]), reg);
+            }
+        }
+        return registered;
+    }
+
+    /**
+     * Returns the name and the paths of a registered document.
+     * @param reg registration
+     * @return name, followed by the paths
+     */
+    private static byte[][] values(final byte[] reg) {
+        // the namespace URI may be empty
+        return split(Arrays.copyOfRange(reg, indexOf(reg, 0) + 1, reg.length), 0);
+    }
+
+    /**
+     * Returns the number of nodes on the paths matching a query, by document id. The paths of a few documents are
+     * looked up one by one, otherwise all paths of the collection are read.
+     * @param docs documents of a collection
+     * @param registered registered documents
+     * @param query query
+     * @return number of nodes by document id
+     */
+    private static IntMap counts(final LazyDBNodeSeq docs, final HashMap<String, Registration> registered,
+                                 final Query query) {
+        if(docs.names().size() > LOOKUPS) return counts(docs.collection(), query, docs.tx());
+        final IntMap counts = new IntMap();
+        for(final Registration reg : registered.values()) {
+            int count = 0;
+            for(int v = 1; v < reg.values.length; v++) {
+                if(!query.matches(reg.values[v])) continue;
+                final byte[] value = colpathsdb.get(docs.tx(), key(docs.collection(), reg.values[v],
+                        Byte.getBytes(reg.docid)));
+                if(value != null) count += Byte.getInt(value);
+            }
+            counts.put(reg.docid, count);
+        }
+        return counts;
+    }
+
+    /**
+     * Returns the number of nodes on the paths matching a query, by document id. Only the first entry of the
+     * paths not matching the query is read.
+     * @param collection collection
+     * @param query query
+     * @param tx transaction
+     * @return number of nodes by document id
+     */
+    private static IntMap counts(final String collection, final Query query, final Transaction tx) {
+        final IntMap counts = new IntMap();
+        final byte[] prefix = prefix(collection, PATH);
+        try(Cursor c = colpathsdb.openCursor(tx)) {
+            Entry e = c.seek(SeekOp.RANGE, prefix);
+            while(e != null && startsWith(e.getKey(), prefix)) {
+                final byte[] key = e.getKey();
+                final byte[] path = Arrays.copyOfRange(key, prefix.length - 1, key.length - 5);
+                if(query.matches(path)) {
+                    final byte[] pp = concat(prefix, Arrays.copyOfRange(path, 1, path.length), SEPARATOR);
+                    for(; e != null && startsWith(e.getKey(), pp); e = c.get(GetOp.NEXT)) {
+                        final int docid = Byte.getInt(e.getKey(), e.getKey().length - 4);
+                        final int count = counts.get(docid);
+                        counts.put(docid, (count == Integer.MIN_VALUE ? 0 : count) + Byte.getInt(e.getValue()));
+                    }
+                } else {
+                    // continue with the next path
+                    final byte[] next = concat(Arrays.copyOf(key, key.length - 5), new byte[] { 1 });
+                    e = c.seek(SeekOp.RANGE, next);
+                }
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Compiles the tests of axis steps.
+     * @param steps axis steps
+     * @param all all steps must be supported, and have no predicates
+     * @return query, or {@code null} if no step is supported
+     */
+    private static Query query(final List<Step> steps, final boolean all) {
+        final ArrayList<StepTest> tests = new ArrayList<>(steps.size());
+        byte[] uri = null;
+        for(final Step step : steps) {
+            final StepTest test = test(step);
+            // steps after the first unsupported step can only be ignored
+            if(test == null || all && step.preds.length != 0) {
+                if(all) return null;
+                break;
+            }
+            if(test.uri != null) {
+                // documents have a single namespace
+                if(uri != null && !eq(uri, test.uri)) return null;
+                uri = test.uri;
+            }
+            tests.add(test);
+        }
+        return tests.isEmpty() ? null : new Query(tests.toArray(new StepTest[tests.size()]), uri);
+    }
+
+    /**
+     * Compiles the test of an axis step.
+     * @param step axis step
+     * @return test, or {@code null} if the step is not supported
+     */
+    private static StepTest test(final Step step) {
+        final Axis axis = step.axis;
+        if(axis != Axis.CHILD && axis != Axis.DESC && axis != Axis.DESCORSELF && axis != Axis.SELF &&
+           axis != Axis.ATTR) return null;
+
+        final Test test = step.test;
+        final NodeType type = test.type;
+        if(test instanceof NameTest) {
+            final NameTest nt = (NameTest) test;
+            final int kind = ANode.kind(type);
+            switch(nt.kind) {
+                case WILDCARD:
+                    return new StepTest(axis, kind, null, true, null);
+                case NAME:
+                    return new StepTest(axis, kind, nt.local, true, null);
+                case URI_NAME:
+                    // the names of attributes without namespace have no prefix
+                    if(type == NodeType.ATT) return nt.name.hasURI() ? null : new StepTest(axis, kind, nt.local, false, null);
+                    return new StepTest(axis, kind, nt.local, true, nt.name.uri());
+                default:
+                    return type == NodeType.ATT ? null : new StepTest(axis, kind, null, true, nt.name.uri());
+            }
+        }
+        // kind tests
+        if(type == NodeType.NOD || type == NodeType.ELM || type == NodeType.ATT || type == NodeType.TXT ||
+           type == NodeType.COM || type == NodeType.PI || type == NodeType.DOC) {
+            if(Test.get(type) == test) return new StepTest(axis, ANode.kind(type), null, true, null);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the key of a path of a document.
+     * @param collection collection
+     * @param path path
+     * @param docid document id
+     * @return key
+     */
+    private static byte[] key(final String collection, final byte[] path, final byte[] docid) {
+        return concat(concat(prefix(collection, PATH), Arrays.copyOfRange(path, 1, path.length), SEPARATOR), docid);
+    }
+
+    /**
+     * Returns the key prefix of a kind of entries of a collection.
+     * @param collection collection
+     * @param kind kind of entries
+     * @return key prefix
+     */
+    private static byte[] prefix(final String collection, final byte kind) {
+        final byte[] c = token(collection);
+        final byte[] prefix = Arrays.copyOf(c, c.length + 2);
+        prefix[c.length + 1] = kind;
+        return prefix;
+    }
+
+    /**
+     * Returns the collection of a document.
+     * @param name document name
+     * @return collection
+     */
+    private static String collection(final String name) {
+        return name.substring(0, name.indexOf('/'));
+    }
+
+    /**
+     * Registered document.
+     */
+    private static final class Registration {
+        final int docid;
+        /** Namespace URI of all elements. */
+        final byte[] uri;
+        /** Name and paths of the document. */
+        final byte[][] values;
+
+        private Registration(final int docid, final byte[] reg) {
+            this.docid = docid;
+            uri = Arrays.copyOf(reg, indexOf(reg, 0));
+            values = values(reg);
+        }
+    }
+
+    /**
+     * Test of an axis step on the nodes of a path.
+     */
+    private static final class StepTest {
+        final Axis axis;
+        /** Node kind, or {@code -1} for all kinds. */
+        final int kind;
+        /** Name, or {@code null} for all names. */
+        final byte[] name;
+        /** Compare the local part of names. */
+        final boolean local;
+        /** Namespace URI of the elements, or {@code null}. */
+        final byte[] uri;
+
+        private StepTest(final Axis axis, final int kind, final byte[] name, final boolean local, final byte[] uri) {
+            this.axis = axis;
+            this.kind = kind;
+            this.name = name;
+            this.local = local;
+            this.uri = uri;
+        }
+
+        boolean matches(final int k, final byte[] segment) {
+            if(kind != -1 && kind != k) return false;
+            if(name == null) return true;
+            final byte[] nm = k == Data.ATTR ? Arrays.copyOfRange(segment, 1, segment.length) : segment;
+            return eq(local ? local(nm) : nm, name);
+        }
+    }
+
+    /**
+     * Axis steps, evaluated on the paths of a collection.
+     */
+    private static final class Query {
+        final StepTest[] tests;
+        /** Namespace URI required by the tests, or {@code null}. */
+        final byte[] uri;
+
+        private Query(final StepTest[] tests, final byte[] uri) {
+            this.tests = tests;
+            this.uri = uri;
+        }
+
+        /**
+         * Checks if the namespace of a document is the one required by the tests.
+         * @param reg registered document
+         * @return result of check
+         */
+        boolean matches(final Registration reg) {
+            return uri == null || eq(uri, reg.uri);
+        }
+
+        /**
+         * Checks if the last node of a path is a result of the tests. Paths start with the document node,
+         * their prefixes are paths of their own.
+         * @param path path, or an empty path for the document node
+         * @return result of check
+         */
+        boolean matches(final byte[] path) {
+            final byte[][] names = split(path, PATH);
+            final int size = names.length + 1;
+            final byte[][] segments = new byte[size][];
+            segments[0] = EMPTY;
+            System.arraycopy(names, 0, segments, 1, names.length);
+            final int[] kinds = new int[size];
+            kinds[0] = Data.DOC;
+            for(int s = 1; s < size; s++) kinds[s] = kind(segments[s]);
+
+            boolean[] nodes = new boolean[size];
+            nodes[0] = true;
+            for(final StepTest test : tests) {
+                final boolean[] next = new boolean[size];
+                boolean found = false;
+                for(int n = 0; n < size; n++) {
+                    if(!nodes[n]) continue;
+                    final Axis axis = test.axis;
+                    if((axis == Axis.SELF || axis == Axis.DESCORSELF) && test.matches(kinds[n], segments[n])) {
+                        found = next[n] = true;
+                    }
+                    if(axis == Axis.CHILD || axis == Axis.ATTR) {
+                        final int c = n + 1;
+                        if(c < size && (kinds[c] == Data.ATTR) == (axis == Axis.ATTR) &&
+                           test.matches(kinds[c], segments[c])) found = next[c] = true;
+                    } else if(axis == Axis.DESC || axis == Axis.DESCORSELF) {
+                        for(int d = n + 1; d < size && kinds[d] != Data.ATTR; d++) {
+                            if(test.matches(kinds[d], segments[d])) found = next[d] = true;
+                        }
+                    }
+                }
+                if(!found) return false;
+                nodes = next;
+            }
+            return nodes[size - 1];
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package lmdb.basex;
+
+import lmdb.util.Byte;
+import org.basex.core.MainOptions;
+import org.basex.io.IOContent;
+import org.basex.io.in.DataInput;
+import org.fusesource.lmdbjni.EntryIterator;
+import org.fusesource.lmdbjni.Transaction;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static lmdb.basex.LmdbDataManager.coldb;
+import static lmdb.basex.LmdbDataManager.structdb;
+import static org.basex.util.Token.concat;
+import static org.basex.util.Token.startsWith;
+import static org.basex.util.Token.string;
+import static org.basex.util.Token.token;
+
+/**
+ * Registry of collections. Every collection is a key of its own in {@code coldb}, {@code 2 + name}, mapped to
+ * its metadata: the number of documents, the bytes of their nodes and values and the creation time. The counters
+ * are updated in the write transactions which add, update and remove documents, so they are always consistent
+ * with the documents of the collection. Existence checks are a single get, listings a cursor walk over the
+ * registry.
+ */
+final class LmdbCollections {
+
+    /** Key prefix of the registry, after the last document id and the collection list of older versions. */
+    private static final byte[] PREFIX = { 2 };
+    private static final int DOCUMENTS = 0;
+    private static final int BYTES = 8;
+    private static final int CREATED = 16;
+    private static final int SIZE = 24;
+
+    private LmdbCollections() { }
+
+    /**
+     * Registers a collection.
+     * @param name collection
+     * @param tx write transaction
+     * @return {@code false} if the collection exists
+     */
+    static boolean create(final String name, final Transaction tx) {
+        return create(name, 0, 0, tx);
+    }
+
+    /**
+     * Registers a collection with existing documents.
+     * @param name collection
+     * @param documents number of documents
+     * @param bytes bytes of the documents
+     * @param tx write transaction
+     * @return {@code false} if the collection exists
+     */
+    static boolean create(final String name, final long documents, final long bytes, final Transaction tx) {
+        final byte[] key = key(name);
+        if(coldb.get(tx, key) != null) return false;
+        final byte[] value = new byte[SIZE];
+        Byte.setLong(documents, value, DOCUMENTS);
+        Byte.setLong(bytes, value, BYTES);
+        Byte.setLong(System.currentTimeMillis(), value, CREATED);
+        coldb.put(tx, key, value);
+        return true;
+    }
+
+    /**
+     * Unregisters a collection. Its documents are removed by the caller.
+     * @param name collection
+     * @param tx write transaction
+     * @return {@code false} if the collection does not exist
+     */
+    static boolean remove(final String name, final Transaction tx) {
+        return coldb.delete(tx, key(name));
+    }
+
+    /**
+     * Checks if a collection exists.
+     * @param name collection
+     * @param tx transaction
+     * @return result of check
+     */
+    static boolean exists(final String name, final Transaction tx) {
+        return coldb.get(tx, key(name)) != null;
+    }
+
+    /**
+     * Lists the collections.
+     * @param tx transaction
+     * @return names of the collections, sorted
+     */
+    static List<String> list(final Transaction tx) {
+        final ArrayList<String> list = new ArrayList<String>();
+        try(EntryIterator ei = coldb.seek(tx, PREFIX)) {
+            while(ei.hasNext()) {
+                final byte[] key = ei.next().getKey();
+                if(!startsWith(key, PREFIX)) break;
+                list.add(string(key, PREFIX.length, key.length - PREFIX.length));
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Returns the metadata of a collection: number of documents, bytes and creation time.
+     * @param name collection
+     * @param tx transaction
+     * @return metadata, or {@code null} if the collection does not exist
+     */
+    static long[] info(final String name, final Transaction tx) {
+        final byte[] value = coldb.get(tx, key(name));
+        if(value == null) return null;
+        return new long[] { Byte.getLong(value, DOCUMENTS), Byte.getLong(value, BYTES), Byte.getLong(value, CREATED) };
+    }
+
+    /**
+     * Updates the counters of the collection of a document, in the transaction which changes the document.
+     * @param name document name
+     * @param documents added or removed documents
+     * @param bytes added or removed bytes
+     * @param tx write transaction
+     */
+    static void add(final String name, final int documents, final long bytes, final Transaction tx) {
+        final byte[] key = key(name.substring(0, name.indexOf('/')));
+        final byte[] value = coldb.get(tx, key);
+        // documents of removed collections are removed as well
+        if(value == null) return;
+        final byte[] updated = Arrays.copyOf(value, SIZE);
+        Byte.setLong(Byte.getLong(value, DOCUMENTS) + documents, updated, DOCUMENTS);
+        Byte.setLong(Byte.getLong(value, BYTES) + bytes, updated, BYTES);
+        coldb.put(tx, key, updated);
+    }
+
+    /**
+     * Returns the bytes of a stored document, which are kept as its file size.
+     * @param name document name
+     * @param docid document id
+     * @param tx transaction
+     * @return bytes
+     */
+    static long bytes(final String name, final byte[] docid, final Transaction tx) {
+        final byte[] struct = structdb.get(tx, docid);
+        if(struct == null) return 0;
+        try(DataInputStream in = new DataInputStream(new ByteArrayInputStream(struct))) {
+            final byte[] meta = new byte[in.readInt()];
+            in.readFully(meta);
+            final LmdbMetaData md = new LmdbMetaData(name, new MainOptions(), null);
+            md.read(new DataInput(new IOContent(meta)));
+            return md.filesize;
+        } catch(final IOException ex) {
+            return 0;
+        }
+    }
+
+    /**
+     * Moves the collection list of older versions, a single string, to the registry. Collections whose removal
+     * was interrupted are removed.
+     * @param listKey key of the collection list
+     * @param tx write transaction
+     * @return collections to be removed
+     */
+    static List<String> migrate(final byte[] listKey, final Transaction tx) {
+        final ArrayList<String> removed = new ArrayList<String>();
+        final byte[] cl = coldb.get(tx, listKey);
+        if(cl == null) return removed;
+        for(final String c : string(cl, 1, cl.length - 2).split(", ")) {
+            if(c.isEmpty()) continue;
+            if(c.endsWith("/r")) {
+                removed.add(c.substring(0, c.indexOf('/')));
+                continue;
+            }
+            final List<String> docs = LmdbDataManager.listDocuments(c, true, tx);
+            long bytes = 0;
+            for(final String d : docs) bytes += bytes(d, coldb.get(tx, token(d)), tx);
+            create(c, docs.size(), bytes, tx);
+        }
+        coldb.delete(tx, listKey);
+        return removed;
+    }
+
+    private static byte[] key(final String name) {
+        return concat(PREFIX, token(name));
+    }
+}
@@ -15,8 +15,12 @@ import org.basex.io.in.DataInput;
 import org.basex.io.out.DataOutput;
 import org.basex.util.Token;
 import org.basex.util.Util;
+import org.fusesource.lmdbjni.Cursor;
 import org.fusesource.lmdbjni.Database;
+import org.fusesource.lmdbjni.Entry;
 import org.fusesource.lmdbjni.EntryIterator;
+import org.fusesource.lmdbjni.GetOp;
+import org.fusesource.lmdbjni.SeekOp;
 import org.fusesource.lmdbjni.Transaction;
 
 import java.io.ByteArrayInputStream;
@@ -29,20 +33,16 @@ import static lmdb.basex.LmdbDataManager.env;
 import static lmdb.basex.LmdbDataManager.attributevaldb;
 import static lmdb.basex.LmdbDataManager.structdb;
 import static lmdb.basex.LmdbDataManager.textdatadb;
-import static lmdb.basex.LmdbDataManager.txtindexldb;
-import static lmdb.basex.LmdbDataManager.txtindexrdb;
-import static lmdb.basex.LmdbDataManager.attindexldb;
-import static lmdb.basex.LmdbDataManager.attindexrdb;
-import static lmdb.basex.LmdbDataManager.ftindexxdb;
-import static lmdb.basex.LmdbDataManager.ftindexydb;
-import static lmdb.basex.LmdbDataManager.ftindexzdb;
+import static lmdb.basex.LmdbDataManager.txtvaluesdb;
+import static lmdb.basex.LmdbDataManager.attvaluesdb;
+import static lmdb.basex.LmdbDataManager.txtrangesdb;
+import static lmdb.basex.LmdbDataManager.attrangesdb;
+import static lmdb.basex.LmdbDataManager.ftindexdb;
 
 import static lmdb.util.Byte.lmdbkey;
 
 public class LmdbData extends Data implements AutoCloseable {
 
-    public static final byte[] LAST_REF_KEY = new byte[] {0,0,0,0};
-
     protected Transaction tx;
 
     byte[] docid;
@@ -50,6 +50,12 @@ public class LmdbData extends Data implements AutoCloseable {
     private volatile int lastTxtRef;
     private volatile int lastAttRef;
 
+    /** Set when an update was applied, which invalidates the indexes. */
+    boolean updated;
+    /** Nodes and bytes of added values since the last update, for the file size, see {@link LmdbCollections}. */
+    private int nodes;
+    private long textBytes;
+
     protected LmdbData(final String name, final MainOptions options) {
         super(new LmdbMetaData(name, options, null));
     }
@@ -63,7 +69,8 @@ public class LmdbData extends Data implements AutoCloseable {
         this.tx = tx;
 
         readStruct();
-        initLastRefs();
+        if(!tx.isReadOnly()) initLastRefs();
+        nodes = meta.size;
 
         this.table = new TableLmdbAccess(meta, tx, docid);
 
@@ -71,11 +78,67 @@ public class LmdbData extends Data implements AutoCloseable {
         attrIndex = null;
         ftxtIndex = null;
 
+        // flags are set once an index is complete, see LmdbIndexer
         if(openIndex) {
-            textIndex = new UpdatableLmdbValues(this, true, docid, tx);
-            attrIndex = new UpdatableLmdbValues(this, false, docid, tx);
-            ftxtIndex = new LmdbFTIndex(this, docid, tx);
+            if(meta.textindex) textIndex = values(true);
+            if(meta.attrindex) attrIndex = values(false);
+            if(meta.ftindex) ftxtIndex = ftindex();
+        }
+    }
+
+    /**
+     * Moves a document opened for reading to a write transaction, to apply updates evaluated on the read
+     * snapshot. The document must not have changed since the snapshot. Its structure is read again, as the
+     * decoded structures of readers are shared, see {@link LmdbStructCache}.
+     * @param wtx write transaction
+     * @throws IOException I/O exception
+     */
+    void beginWrite(final Transaction wtx) throws IOException {
+        final boolean text = textIndex != null, attr = attrIndex != null, ftxt = ftxtIndex != null;
+        tx = wtx;
+        readStruct();
+        initLastRefs();
+        nodes = meta.size;
+        table = new TableLmdbAccess(meta, tx, docid);
+        textIndex = text && meta.textindex ? values(true) : null;
+        attrIndex = attr && meta.attrindex ? values(false) : null;
+        ftxtIndex = ftxt && meta.ftindex ? ftindex() : null;
+    }
+
+    /**
+     * Writes the updates applied since {@link #beginWrite(Transaction)}, if any, and moves the document back to
+     * the read transaction, which is only used to close it: the updates are not visible in the read snapshot.
+     * @param rtx read transaction
+     * @param write write the updates
+     */
+    void endWrite(final Transaction rtx, final boolean write) {
+        if(write) flush(true);
+        tx = rtx;
+        ((TableLmdbAccess) table).setTx(rtx);
+        textIndex = null;
+        attrIndex = null;
+        ftxtIndex = null;
+    }
+
+    private LmdbValues values(final boolean text) throws IOException {
+        if(!LmdbValues.exists(docid, text, tx)) {
+            // indexed by an older version: use no index until it is built again
+            if(text) meta.textindex = false;
+            else meta.attrindex = false;
+            LmdbIndexer.submit(meta.name);
+            return null;
         }
+        return meta.updindex ? new UpdatableLmdbValues(this, text, docid, tx) : new LmdbValues(this, text, docid, tx);
+    }
+
+    private LmdbFTIndex ftindex() throws IOException {
+        if(!LmdbFTIndex.exists(docid, tx)) {
+            // indexed by an older version: use no index until it is built again
+            meta.ftindex = false;
+            LmdbIndexer.submit(meta.name);
+            return null;
+        }
+        return meta.updindex ? new UpdatableLmdbFTIndex(this, docid, tx) : new LmdbFTIndex(this, docid, tx);
     }
 
     @Override
@@ -123,17 +186,17 @@ public class LmdbData extends Data implements AutoCloseable {
         switch(type) {
             case TEXT:
                 if(textIndex != null) textIndex.close();
-                dropIndex(new Database[]{txtindexldb, txtindexrdb});
+                dropIndex(new Database[]{txtvaluesdb, txtrangesdb});
                 textIndex = null;
                 break;
             case ATTRIBUTE:
                 if(attrIndex != null) attrIndex.close();
-                dropIndex(new Database[]{attindexldb, attindexrdb});
+                dropIndex(new Database[]{attvaluesdb, attrangesdb});
                 attrIndex = null;
                 break;
             case FULLTEXT:
                 if(ftxtIndex != null) ftxtIndex.close();
-                dropIndex(new Database[]{ftindexxdb, ftindexydb, ftindexzdb});
+                dropIndex(new Database[]{ftindexdb});
                 ftxtIndex = null;
                 break;
             default:
@@ -149,19 +212,21 @@ public class LmdbData extends Data implements AutoCloseable {
             try (EntryIterator dbei = db.seek(tx, docid)) {
                 int c = 0;
                 Transaction wtx = env.createWriteTransaction();
+                LmdbPageCache.invalidate(docid, wtx);
                 try {
                     while (dbei.hasNext()) {
                         byte[] key = dbei.next().getKey();
                         if (Byte.getInt(docid) != Byte.getInt(key)) break;
                         db.delete(wtx, key);
                         if (++c > deleteBatchSize) {
-                            wtx.commit();
+                            LmdbDurability.commit(wtx);
                             wtx = env.createWriteTransaction();
+                            LmdbPageCache.invalidate(docid, wtx);
                             c = 0;
                         }
                     }
                 } finally {
-                    if(c > 0) wtx.commit();
+                    if(c > 0) LmdbDurability.commit(wtx);
                     else wtx.close();
                 }
             }
@@ -174,6 +239,19 @@ public class LmdbData extends Data implements AutoCloseable {
 
     @Override
     public void finishUpdate(MainOptions opts) {
+        // values in the collection index are only maintained with the indexes of the document, paths are not
+        if(!updated) {
+            if(!meta.updindex) LmdbCollectionIndex.unregister(this);
+            LmdbCollectionPaths.unregister(this);
+        }
+        updated = true;
+        final long bytes = textBytes + ((long) (meta.size - nodes) << 4);
+        if(bytes != 0) {
+            meta.filesize += bytes;
+            LmdbCollections.add(meta.name, 0, bytes, tx);
+        }
+        nodes = meta.size;
+        textBytes = 0;
         writeStruct();
     }
 
@@ -208,22 +286,40 @@ public class LmdbData extends Data implements AutoCloseable {
 
     @Override
     protected void updateText(int pre, byte[] value, int kind) {
+        indexDelete(pre, -1, 1);
+        textBytes += value.length - textLen(pre, kind != ATTR);
         (kind != ATTR ? textdatadb : attributevaldb).put(tx, lmdbkey(docid, (int) textRef(pre)), value);
+        indexAdd(pre, -1, 1, null);
     }
 
     @Override
     protected void delete(int pre, boolean text) {
+        textBytes -= textLen(pre, text);
         (text ? textdatadb : attributevaldb).delete(tx, lmdbkey(docid, (int) textRef(pre)));
     }
 
     @Override
     protected long textRef(byte[] value, boolean text) {
+        textBytes += value.length;
         (text ? textdatadb : attributevaldb).put(tx, lmdbkey(docid, (text ? ++lastTxtRef : ++lastAttRef)), value);
         return (text ? lastTxtRef : lastAttRef);
     }
 
     private void readStruct() throws IOException {
 
+        if(tx.isReadOnly()) {
+            final LmdbStructCache.Struct s = LmdbStructCache.get(docid, tx);
+            if(s != null) {
+                meta.read(new DataInput(new IOContent(s.meta)));
+                paths = s.paths.copy(this);
+                nspaces = s.nspaces;
+                elemNames = s.elemNames;
+                attrNames = s.attrNames;
+                idmap = s.idmap;
+                return;
+            }
+        }
+
         DataInputStream structin = new DataInputStream(new ByteArrayInputStream(structdb.get(tx,docid)));
 
         byte[] metastruct = new byte[structin.readInt()];
@@ -253,6 +349,13 @@ public class LmdbData extends Data implements AutoCloseable {
         } catch(EOFException eofe) {
             idmap = new IdPreMap(meta.lastid);
         }
+
+        // decoded instances are shared by readers only. writers modify them. the path summary refers to its data
+        // instance, each reader gets its own copy
+        if(tx.isReadOnly()) {
+            LmdbStructCache.put(docid, tx, new LmdbStructCache.Struct(metastruct, paths.copy(null), nspaces, elemNames,
+                    attrNames, idmap, tx.getId()));
+        }
     }
 
     private void writeStruct() {
@@ -291,6 +394,7 @@ public class LmdbData extends Data implements AutoCloseable {
             dos.writeInt(b.size());
             dos.write(b.toByteArray());
 
+            LmdbPageCache.invalidate(docid, tx);
             structdb.put(tx, docid, bos.toByteArray());
 
         } catch (IOException ioe) {
@@ -299,12 +403,48 @@ public class LmdbData extends Data implements AutoCloseable {
     }
 
     private synchronized void initLastRefs() {
-        lastTxtRef = Byte.getInt(textdatadb.get(tx, LmdbData.LAST_REF_KEY));
-        lastAttRef = Byte.getInt(attributevaldb.get(tx, LmdbData.LAST_REF_KEY));
+        lastTxtRef = lastRef(textdatadb);
+        lastAttRef = lastRef(attributevaldb);
     }
 
     private void writeLastRefs() {
-        textdatadb.put(tx, LmdbData.LAST_REF_KEY, lmdb.util.Byte.getBytes(lastTxtRef));
-        attributevaldb.put(tx, LmdbData.LAST_REF_KEY, lmdb.util.Byte.getBytes(lastAttRef));
+        if(lastTxtRef != lastRef(textdatadb)) textdatadb.put(tx, getRefKey(docid), Byte.getBytes(lastTxtRef));
+        if(lastAttRef != lastRef(attributevaldb)) attributevaldb.put(tx, getRefKey(docid), Byte.getBytes(lastAttRef));
+    }
+
+    /**
+     * Returns the last text or attribute value reference handed out for this document.
+     * Documents stored before references were counted per document have no counter: the last
+     * reference in use is taken instead.
+     * @param db text or attribute database
+     * @return last reference
+     */
+    private int lastRef(final Database db) {
+        final byte[] key = getRefKey(docid);
+        final byte[] ref = db.get(tx, key);
+        if(ref != null) return Byte.getInt(ref);
+
+        final int did = Byte.getInt(docid);
+        try(Cursor c = db.openCursor(tx)) {
+            Entry e = c.seek(SeekOp.RANGE, key);
+            if(e == null) e = c.get(GetOp.LAST);
+            // skip keys of following documents and the legacy global counter
+            while(e != null && (e.getKey().length != 8 || Byte.getInt(e.getKey()) > did)) e = c.get(GetOp.PREV);
+            return e != null && Byte.getInt(e.getKey()) == did ? Byte.getInt(e.getKey(), 4) : 0;
+        }
+    }
+
+    // using last possible key in text and attribute value dbs for the last reference of a document
+    static byte[] getRefKey(byte[] did) {
+        return new byte[] {
+                did[0],
+                did[1],
+                did[2],
+                did[3],
+                (byte)(0xff),
+                (byte)(0xff),
+                (byte)(0xff),
+                (byte)(0xff)
+        };
     }
 }
@@ -6,24 +6,28 @@ import org.basex.build.xml.XMLParser;
 import org.basex.core.MainOptions;
 import org.basex.core.StaticOptions;
 import org.basex.data.Data;
-import org.basex.index.IndexType;
 import org.basex.io.IOStream;
-import org.basex.util.Util;
+import org.basex.util.Token;
 import org.fusesource.lmdbjni.Database;
 import org.fusesource.lmdbjni.Entry;
 import org.fusesource.lmdbjni.EntryIterator;
 import org.fusesource.lmdbjni.Env;
+import org.fusesource.lmdbjni.LMDBException;
 import org.fusesource.lmdbjni.Transaction;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+import java.util.zip.ZipInputStream;
 
 import static lmdb.Constants.string;
 import static org.fusesource.lmdbjni.Constants.FIXEDMAP;
+import static org.fusesource.lmdbjni.Constants.NOTLS;
 import static org.fusesource.lmdbjni.Constants.bytes;
 
 // TODO: basex-lmdb: add docname as col/name/c before creating check side effects here in Manager first
@@ -33,6 +37,7 @@ public class LmdbDataManager {
     private static final Logger logger = Logger.getLogger(LmdbDataManager.class);
 
     private static String home;
+    private static int maxDbs = 16;
 
     static Env env = null;
     static Database coldb;
@@ -40,20 +45,33 @@ public class LmdbDataManager {
     static Database tableaccessdb;
     static Database textdatadb;
     static Database attributevaldb;
-    static Database txtindexldb;
-    static Database txtindexrdb;
-    static Database attindexldb;
-    static Database attindexrdb;
-    static Database ftindexxdb;
-    static Database ftindexydb;
-    static Database ftindexzdb;
-
-    private static volatile boolean cleanerRunning = true;
-    private static volatile boolean cleanerStopped = false;
+    static Database txtvaluesdb;
+    static Database attvaluesdb;
+    static Database txtrangesdb;
+    static Database attrangesdb;
+    static Database ftindexdb;
+    static Database colvaluesdb;
+    static Database colpathsdb;
 
     private static final byte[] LAST_DOCUMENT_INDEX_KEY = new byte[]{0};
     private static final byte[] COLLECTION_LIST_KEY = new byte[]{1};
 
+    /**
+     * Number of document ids leased with one write transaction. {@code LAST_DOCUMENT_INDEX_KEY} holds the last
+     * leased id: ids left over by a crash are skipped, never handed out twice.
+     */
+    private static final int DOCUMENT_ID_LEASE = 1024;
+    private static final AtomicInteger nextDocumentId = new AtomicInteger();
+    private static volatile int leasedDocumentIds;
+
+    /**
+     * Sets the maximum number of named databases of the environment, before it is opened.
+     * @param dbs number of databases
+     */
+    public static void maxDbs(final int dbs) {
+        maxDbs = dbs;
+    }
+
     public static void config(String home) { config(home, 100); }
 
     public static void config(String home, long size) {
@@ -61,8 +79,9 @@ public class LmdbDataManager {
         LmdbDataManager.home = home;
         env = new Env();
         env.setMapSize(size*1024000000000L);
-        env.setMaxDbs(16);
-        env.open(home, FIXEDMAP);
+        env.setMaxDbs(maxDbs);
+        // read transactions are pooled and may move between threads, see LmdbReaders
+        env.open(home, FIXEDMAP | NOTLS | LmdbDurability.flags());
     }
 
     public static void start(boolean runCleaner) {
@@ -72,94 +91,137 @@ public class LmdbDataManager {
         tableaccessdb = env.openDatabase("table_access");
         textdatadb = env.openDatabase("text_node_data");
         attributevaldb = env.openDatabase("attribute_values");
-        txtindexldb = env.openDatabase("txtindexldb");
-        txtindexrdb = env.openDatabase("txtindexrdb");
-        attindexldb = env.openDatabase("attindexldb");
-        attindexrdb = env.openDatabase("attindexrdb");
-        ftindexxdb = env.openDatabase("ftindexxdb");
-        ftindexydb = env.openDatabase("ftindexydb");
-        ftindexzdb = env.openDatabase("ftindexzdb");
+        txtvaluesdb = env.openDatabase("txtvalues");
+        attvaluesdb = env.openDatabase("attvalues");
+        txtrangesdb = env.openDatabase("txtranges");
+        attrangesdb = env.openDatabase("attranges");
+        ftindexdb = env.openDatabase("ftindex");
+        colvaluesdb = env.openDatabase("colvalues");
+        colpathsdb = env.openDatabase("colpaths");
+        // indexes of older versions, stored in pages: documents are indexed again on first use
+        for(String legacy : new String[]{"txtindexldb", "txtindexrdb", "attindexldb", "attindexrdb",
+                "ftindexxdb", "ftindexydb", "ftindexzdb"}) drop(legacy);
 
-        try {
-            String[] lc = _listCollections();
-            if(lc != null) for(String c: _listCollections()) if(c.endsWith("/r")) removeAllDocuments(c.substring(0,c.indexOf('/')));
-        } catch (IOException e) {
-            Util.notExpected(e);
+        try(Transaction tx = env.createWriteTransaction()) {
+            for(String c : LmdbCollections.migrate(COLLECTION_LIST_KEY, tx)) removeAllDocuments(c, tx);
+            byte[] docid = coldb.get(tx, LAST_DOCUMENT_INDEX_KEY);
+            nextDocumentId.set(docid == null ? 0 : Byte.getInt(docid) + 1);
+            leasedDocumentIds = nextDocumentId.get();
+            LmdbDurability.commit(tx);
         }
 
+        LmdbDurability.start();
+        LmdbReaders.start();
+        LmdbIndexer.start();
+        LmdbWriteCoordinator.start();
+
         logger.info("start");
 
-        if(runCleaner) {
-            new Thread(new Cleaner()).start();
-        } else {
-            cleanerStopped = true;
-        }
+        if(runCleaner) LmdbCleaner.start();
     }
 
     public static void start() {
         start(true);
     }
 
+    private static void drop(final String name) {
+        final Database db;
+        try {
+            db = env.openDatabase(name, 0);
+        } catch(LMDBException e) {
+            if(e.getErrorCode() == LMDBException.NOTFOUND) return;
+            throw e;
+        }
+        db.drop(true);
+        logger.info("dropped database " + name);
+    }
+
     public static void stop() {
-        cleanerRunning = false;
-        while(!cleanerStopped) try { Thread.sleep(500); } catch(InterruptedException ie) {}
+        LmdbCleaner.stop();
+        LmdbWriteCoordinator.stop();
+        LmdbIndexer.stop();
+        LmdbDurability.stop();
+        LmdbReaders.stop();
         env.sync(true);
         coldb.close();
         structdb.close();
         tableaccessdb.close();
         textdatadb.close();
         attributevaldb.close();
-        txtindexldb.close();
-        txtindexrdb.close();
-        attindexldb.close();
-        attindexrdb.close();
-        ftindexxdb.close();
-        ftindexydb.close();
-        ftindexzdb.close();
+        txtvaluesdb.close();
+        attvaluesdb.close();
+        txtrangesdb.close();
+        attrangesdb.close();
+        ftindexdb.close();
+        colvaluesdb.close();
+        colpathsdb.close();
         env.close();
+        env = null;
+        logger.info(LmdbPageCache.stats());
+        // stamps are transaction ids of this environment
+        LmdbPageCache.clear();
+        LmdbStructCache.clear();
         logger.info("stop");
     }
 
-    public static synchronized void createCollection(final String name) throws IOException {
+    public static void createCollection(final String name) throws IOException {
         try(Transaction tx = env.createWriteTransaction()) {
-            byte[] cl = coldb.get(tx,COLLECTION_LIST_KEY);
-            if (cl != null) {
-                String collections = string(cl,1,cl.length-2);
-                HashSet<String> collection = new HashSet<String>(Arrays.asList(collections.split(", ")));
-                if(collection.contains(name)) return;
-                collection.add(name);
-                coldb.put(tx, COLLECTION_LIST_KEY, bytes(collection.toString()));
-            } else {
-                coldb.put(tx,COLLECTION_LIST_KEY, bytes("["+name+"]"));
+            if(LmdbCollections.create(name, tx)) LmdbDurability.commit(tx);
+        }
+    }
+
+    public static List<String> listCollections() throws IOException {
+        try(Transaction tx = env.createReadTransaction()) {
+            return LmdbCollections.list(tx);
+        }
+    }
+
+    public static boolean existsCollection(final String name) {
+        try(Transaction tx = env.createReadTransaction()) {
+            return LmdbCollections.exists(name, tx);
+        }
+    }
+
+    /**
+     * Removes a collection and all its documents in one write transaction. The documents are reclaimed by the
+     * cleaner.
+     */
+    public static void removeCollection(final String name) throws IOException {
+        try(Transaction tx = env.createWriteTransaction()) {
+            if(LmdbCollections.remove(name, tx)) {
+                removeAllDocuments(name, tx);
+                LmdbDurability.commit(tx);
+                LmdbCleaner.wake();
             }
-            tx.commit();
         }
     }
 
-    private static String[] _listCollections() throws IOException {
-        byte[] cl = coldb.get(COLLECTION_LIST_KEY);
-        if (cl == null) return null;
-        String[] clist = string(cl,1,cl.length-2).split(", ");
-        Arrays.sort(clist);
-        return clist;
+    /**
+     * Returns the number of documents of a collection.
+     */
+    public static long countDocuments(final String collection) throws IOException {
+        return info(collection)[0];
     }
 
-    public static List<String> listCollections() throws IOException {
-        String[] clist = _listCollections();
-        if(clist == null) return new ArrayList<String>();
-        ArrayList<String> collection = new ArrayList<String>(clist.length);
-        for(String c: clist) if(!c.endsWith("/r")) collection.add(c);
-        return collection;
+    /**
+     * Returns the bytes of the nodes and values of the documents of a collection.
+     */
+    public static long collectionSize(final String collection) throws IOException {
+        return info(collection)[1];
+    }
+
+    /**
+     * Returns the creation time of a collection, in milliseconds since the epoch.
+     */
+    public static long collectionCreated(final String collection) throws IOException {
+        return info(collection)[2];
     }
 
-    public static synchronized void removeCollection(final String name) throws IOException {
-        byte[] cl = coldb.get(COLLECTION_LIST_KEY);
-        if (cl == null) return;
-        HashSet<String> collection = new HashSet<String>(Arrays.asList(string(cl,1,cl.length-2).split(", ")));
-        if(collection.remove(name)) {
-            collection.add(name+"/r");
-            coldb.put(COLLECTION_LIST_KEY, bytes(collection.toString()));
-            removeAllDocuments(name);
+    private static long[] info(final String collection) throws IOException {
+        try(Transaction tx = env.createReadTransaction()) {
+            long[] info = LmdbCollections.info(collection, tx);
+            if(info == null) throw new IOException("unknown collection " + collection);
+            return info;
         }
     }
 
@@ -167,27 +229,42 @@ public class LmdbDataManager {
         byte[] docid = getNextDocumentId(name);
         MainOptions opt = new MainOptions();
         LmdbBuilder.build(name, docid, new XMLParser(new IOStream(content), opt), opt, new StaticOptions(false));
-        //indexDocument(name);
+        LmdbIndexer.submit(name);
     }
 
-    public static void indexDocument(final String name) throws IOException {
-        MainOptions opt = new MainOptions();
-        try(Transaction tx = env.createReadTransaction(); LmdbData data = (LmdbData)openDocument(name, opt, tx, false)) {
-            data.createIndex(IndexType.TEXT, opt);
-            data.createIndex(IndexType.ATTRIBUTE, opt);
-            data.createIndex(IndexType.FULLTEXT, opt);
+    /**
+     * Imports every entry of a zip archive into a collection, see {@link LmdbImporter}. If a document fails, no
+     * document is imported.
+     * @return names of the created documents
+     */
+    public static List<String> importDocuments(final String collection, final ZipInputStream zip) throws IOException {
+        try(LmdbImporter imp = new LmdbImporter(collection)) {
+            imp.addZip(zip);
+            return imp.finish();
         }
-
     }
 
-    public static void dropDocumentIndex(final String name) throws IOException {
-        MainOptions opt = new MainOptions();
-        try(Transaction tx = env.createReadTransaction(); LmdbData data = (LmdbData)openDocument(name, opt, tx, false)) {
-            data.dropIndex(IndexType.TEXT);
-            data.dropIndex(IndexType.ATTRIBUTE);
-            data.dropIndex(IndexType.FULLTEXT);
+    /**
+     * Imports every file of a directory into a collection, see {@link LmdbImporter}. If a document fails, no
+     * document is imported.
+     * @return names of the created documents
+     */
+    public static List<String> importDirectory(final String collection, final File dir) throws IOException {
+        try(LmdbImporter imp = new LmdbImporter(collection)) {
+            imp.addDirectory(dir);
+            return imp.finish();
         }
+    }
 
+    /**
+     * Builds the indexes of a document right away, see {@link LmdbIndexer}.
+     */
+    public static void indexDocument(final String name) throws IOException {
+        LmdbIndexer.index(name, true);
+    }
+
+    public static void dropDocumentIndex(final String name) throws IOException {
+        LmdbIndexer.drop(name);
     }
 
     public static List<String> listDocuments(String collection) throws IOException {
@@ -195,26 +272,98 @@ public class LmdbDataManager {
     }
 
     public static List<String> listDocuments(String collection, boolean addCollectionName) throws IOException {
+        try(Transaction tx = env.createReadTransaction()) {
+            return listDocuments(collection, addCollectionName, tx);
+        }
+    }
+
+    /**
+     * Lists the documents selected by a name with cursor seeks over the document names, so that only the
+     * matching names are read: {@code col} selects all documents of a collection, {@code col/name} a single
+     * document, {@code col/prefix*} the documents with names matching a pattern ({@code *} and {@code ?}
+     * wildcards, the names starting with the text before the first wildcard are read), and
+     * {@code col/from..to} the documents from {@code from} up to and including the names starting with
+     * {@code to}, such as {@code col/2015-01..2015-03}. Either bound of a range may be omitted.
+     * @param selection selection
+     * @param addCollectionName return the names with the collection name
+     * @param tx transaction
+     * @return names of the documents, sorted
+     */
+    static List<String> listDocuments(String selection, boolean addCollectionName, Transaction tx) {
         ArrayList<String> docs = new ArrayList<String>();
-        try(Transaction tx = env.createReadTransaction(); EntryIterator ei = coldb.seek(tx, bytes(collection))) {
+        int i = selection.indexOf('/');
+        String collection = i == -1 ? selection : selection.substring(0, i);
+        String name = i == -1 ? "" : selection.substring(i + 1);
+        byte[] prefix = bytes(collection + '/');
+
+        // bounds of the names
+        byte[] from, to = null;
+        Pattern pattern = null;
+        int range = name.indexOf("..");
+        if(range != -1) {
+            from = bytes(name.substring(0, range));
+            if(range + 2 < name.length()) to = bytes(name.substring(range + 2));
+        } else {
+            int w = wildcard(name);
+            if(w == -1 && !name.isEmpty()) {
+                if(coldb.get(tx, bytes(selection)) != null) docs.add(addCollectionName ? selection : name);
+                return docs;
+            }
+            from = bytes(w == -1 ? name : name.substring(0, w));
+            if(w != -1) pattern = glob(name);
+        }
+
+        try(EntryIterator ei = coldb.seek(tx, Token.concat(prefix, from))) {
             while (ei.hasNext()) {
-                Entry e = ei.next();
-                String key = string(e.getKey());
-                if(key.endsWith("/r")) continue;
-                if(!key.startsWith(collection)) break;
-                docs.add(addCollectionName ? key : key.substring(key.indexOf('/')+1));
+                byte[] key = ei.next().getKey();
+                if(!Token.startsWith(key, prefix)) break;
+                byte[] doc = Arrays.copyOfRange(key, prefix.length, key.length);
+                if(pattern != null ? !Token.startsWith(doc, from) :
+                        to != null && Token.diff(doc, to) > 0 && !Token.startsWith(doc, to)) break;
+                // removed documents
+                if(Token.contains(doc, '/')) continue;
+                String d = string(doc);
+                if(pattern != null && !pattern.matcher(d).matches()) continue;
+                docs.add(addCollectionName ? collection + '/' + d : d);
             }
         }
         return docs;
     }
 
+    private static int wildcard(String name) {
+        for(int c = 0; c < name.length(); c++) {
+            if(name.charAt(c) == '*' || name.charAt(c) == '?') return c;
+        }
+        return -1;
+    }
+
+    private static Pattern glob(String name) {
+        StringBuilder regex = new StringBuilder();
+        int l = 0;
+        for(int c = 0; c < name.length(); c++) {
+            char ch = name.charAt(c);
+            if(ch != '*' && ch != '?') continue;
+            if(c > l) regex.append(Pattern.quote(name.substring(l, c)));
+            regex.append(ch == '*' ? ".*" : ".");
+            l = c + 1;
+        }
+        if(l < name.length()) regex.append(Pattern.quote(name.substring(l)));
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+
     public static void removeDocument(final String name) throws IOException {
         byte[] docid = coldb.get(bytes(name));
         if(docid == null) return;
         try(Transaction tx = env.createWriteTransaction()) {
-            if(coldb.delete(tx, bytes(name))) coldb.put(tx, bytes(name + "/r"), docid);
-            tx.commit();
+            if(coldb.delete(tx, bytes(name))) {
+                coldb.put(tx, bytes(name + "/r"), docid);
+                LmdbCollections.add(name, -1, -LmdbCollections.bytes(name, docid, tx), tx);
+                LmdbCollectionIndex.unregister(name, docid, tx);
+                LmdbCollectionPaths.unregister(name, docid, tx);
+            }
+            LmdbDurability.commit(tx);
         }
+        LmdbCleaner.wake();
     }
 
     public static String home() {
@@ -222,128 +371,66 @@ public class LmdbDataManager {
     }
 
     static Data openDocument(String name, MainOptions options, Transaction tx) throws IOException {
-        return openDocument(name, options, tx, false); //true);
+        return openDocument(name, options, tx, true);
     }
 
-
-    private static Data openDocument(String name, MainOptions options, Transaction tx, boolean openIndex) throws IOException {
+    static Data openDocument(String name, MainOptions options, Transaction tx, boolean openIndex) throws IOException {
         byte[] docid = coldb.get(tx,bytes(name));
         if(docid == null) throw new IOException("document " + name + " not found");
         return new LmdbData(name, docid, tx, options, new LmdbStaticOptions(), openIndex);
     }
 
-    private static synchronized byte[] getNextDocumentId(final String name) throws IOException {
-        if(coldb.get(bytes(name)) != null) throw new IOException("document " + name + " exists");
+    static byte[] getNextDocumentId(final String name) throws IOException {
         int i = name.indexOf('/');
-        if(i > 0 && name.length() > 2) {
-            String docname = name.substring(i+1);
-            if(docname.indexOf('/') != -1) throw new IOException("document " + docname + " name is malformed");
-            String collection = name.substring(0,i);
-            if(!listCollections().contains(collection)) throw new IOException("unknown collection " + collection);
-        } else {
+        if(i <= 0 || name.length() <= 2) {
             throw new IOException("malformed document name " + name +  " or unknown collection. 'collection_name/document_name' needed");
         }
-        try(Transaction tx = env.createWriteTransaction()) {
-            byte[] docid = coldb.get(tx, LAST_DOCUMENT_INDEX_KEY);
-            if(docid == null) {
-                docid = new byte[]{0,0,0,0};
+        String docname = name.substring(i+1);
+        if(docname.indexOf('/') != -1) throw new IOException("document " + docname + " name is malformed");
+        String collection = name.substring(0,i);
+        try(Transaction tx = env.createReadTransaction()) {
+            if(coldb.get(tx, bytes(name)) != null) throw new IOException("document " + name + " exists");
+            if(!LmdbCollections.exists(collection, tx)) throw new IOException("unknown collection " + collection);
+        }
+        while(true) {
+            int id = nextDocumentId.get();
+            if(id < leasedDocumentIds) {
+                if(nextDocumentId.compareAndSet(id, id + 1)) return Byte.getBytes(id);
             } else {
-                Byte.setInt(Byte.getInt(docid)+1,docid);
+                leaseDocumentIds(id);
             }
-            coldb.put(tx, LAST_DOCUMENT_INDEX_KEY, docid);
-            tx.commit();
-            return docid;
         }
     }
 
-    private static synchronized void removeAllDocuments(String collection) {
-        try(Transaction tx = env.createReadTransaction(); EntryIterator ei = coldb.seek(tx, bytes(collection))) {
-            try(Transaction wtx = env.createWriteTransaction()) {
-                while (ei.hasNext()) {
-                    Entry e = ei.next();
-                    if (!string(e.getKey()).startsWith(collection)) break;
-                    if (coldb.delete(wtx, e.getKey())) coldb.put(wtx, bytes(string(e.getKey()) + "/r"), e.getValue());
-                }
-                wtx.commit();
-            }
+    /**
+     * Leases the next block of document ids, if the ids up to the given one are handed out.
+     */
+    private static synchronized void leaseDocumentIds(int id) {
+        if(id < leasedDocumentIds) return;
+        try(Transaction tx = env.createWriteTransaction()) {
+            coldb.put(tx, LAST_DOCUMENT_INDEX_KEY, Byte.getBytes(leasedDocumentIds + DOCUMENT_ID_LEASE - 1));
+            LmdbDurability.commit(tx);
         }
+        leasedDocumentIds += DOCUMENT_ID_LEASE;
     }
 
-    private static class Cleaner implements Runnable {
-
-        private int writeBatchSize = 10000;
-        private int mincycle = 60; // minutes
-        private int secscounter = 0;
-
-        private Database[] dblist =  new Database[]{
-                tableaccessdb, textdatadb, attributevaldb, txtindexldb, txtindexrdb,
-                attindexldb, attindexrdb, ftindexxdb, ftindexydb, ftindexzdb
-        };
-
-        @Override
-        public void run() {
-            logger.info("cleaner start");
-            while(cleanerRunning) try {
-                Thread.sleep(1000);
-                if(secscounter++ < 60 * mincycle) continue;
-                DocRef dr = getNextRemovedDoc();
-                while(dr != null) {
-                    boolean retry = false;
-                    String docName = string(dr.key);
-                    logger.info("cleaner: removing document " + docName.substring(0, docName.length() - 2));
-                    structdb.delete(dr.ref);
-                    for (Database db : dblist) {
-                        try (Transaction tx = env.createReadTransaction(); EntryIterator dbei = db.seek(tx, dr.ref)) {
-                            int c = 0;
-                            Transaction wtx = env.createWriteTransaction();
-                            try {
-                                while (dbei.hasNext()) {
-                                    byte[] key = dbei.next().getKey();
-                                    if (Byte.getInt(dr.ref) != Byte.getInt(key)) break;
-                                    db.delete(wtx, key);
-                                    if (++c > writeBatchSize) {
-                                        wtx.commit();
-                                        wtx = env.createWriteTransaction();
-                                        c = 0;
-                                    }
-                                }
-                            } catch (Exception e) {
-                                retry = true;
-                            } finally {
-                                if(c > 0) wtx.commit();
-                                else wtx.close();
-                            }
-                        } catch (Exception e) {
-                            retry = true;
-                        }
-                    }
-                    if(!retry) coldb.delete(dr.key);
-                    dr = getNextRemovedDoc();
-                }
-                secscounter = 0;
-            } catch(InterruptedException ie) {
-                break;
-            }
-            logger.info("cleaner stop");
-            cleanerStopped = true;
-        }
-
-        private DocRef getNextRemovedDoc() {
-            try(Transaction tx = env.createReadTransaction(); EntryIterator coldbei = coldb.iterate(tx)) {
-                while(coldbei.hasNext()) {
-                    Entry e = coldbei.next();
-                    if(string(e.getKey()).endsWith("/r")) return new DocRef(e.getKey(),e.getValue());
-                }
+    private static void removeAllDocuments(String collection, Transaction tx) {
+        byte[] prefix = bytes(collection + '/');
+        ArrayList<Entry> docs = new ArrayList<Entry>();
+        try(EntryIterator ei = coldb.seek(tx, prefix)) {
+            while (ei.hasNext()) {
+                Entry e = ei.next();
+                if (!Token.startsWith(e.getKey(), prefix)) break;
+                // already removed
+                if (string(e.getKey()).endsWith("/r")) continue;
+                docs.add(e);
             }
-            return null;
         }
-
-        private class DocRef {
-            public byte[] key;
-            public byte[] ref;
-            public DocRef(byte[] k, byte[] v) {
-                key = k;
-                ref = v;
+        for(Entry e : docs) {
+            if (coldb.delete(tx, e.getKey())) {
+                coldb.put(tx, bytes(string(e.getKey()) + "/r"), e.getValue());
+                LmdbCollectionIndex.unregister(string(e.getKey()), e.getValue(), tx);
+                LmdbCollectionPaths.unregister(string(e.getKey()), e.getValue(), tx);
             }
         }
     }
@@ -0,0 +1,260 @@
+package lmdb.basex;
+
+import org.apache.log4j.Logger;
+import org.fusesource.lmdbjni.Transaction;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static lmdb.basex.LmdbDataManager.env;
+import static org.fusesource.lmdbjni.Constants.MAPASYNC;
+import static org.fusesource.lmdbjni.Constants.NOMETASYNC;
+import static org.fusesource.lmdbjni.Constants.NORDAHEAD;
+import static org.fusesource.lmdbjni.Constants.NOSYNC;
+import static org.fusesource.lmdbjni.Constants.WRITEMAP;
+
+/**
+ * Durability of commits. The environment is opened with a default {@link Mode}, which requests may change for
+ * their own writes with {@link #request(Mode)}:
+ * <ul>
+ * <li>{@link Mode#STRICT}: every commit is synced before it returns.</li>
+ * <li>{@link Mode#GROUP}: commits are not synced, a background timer syncs every {@link #interval(long)}. A crash
+ * loses the commits of the last interval.</li>
+ * <li>{@link Mode#ASYNC}: commits are not synced, the OS writes them back, and the environment is synced on stop.
+ * Meant for bulk loads and staging collections which can be loaded again.</li>
+ * </ul>
+ * Without sync ({@code MDB_NOSYNC}), LMDB relies on the file system to keep the order of writes: a system crash
+ * may corrupt the environment on file systems which don't. A request relaxing the durability of a strict
+ * environment turns off the sync of the whole environment while it runs; strict commits of other requests are
+ * synced explicitly in the meantime.
+ */
+public final class LmdbDurability {
+
+    private static final Logger logger = Logger.getLogger(LmdbDurability.class);
+
+    /**
+     * Durability of commits.
+     */
+    public enum Mode { STRICT, GROUP, ASYNC }
+
+    private static volatile Mode mode = Mode.STRICT;
+    private static volatile long interval = 100;
+    private static int flags;
+
+    private static final ThreadLocal<Mode> requests = new ThreadLocal<Mode>();
+    /** Requests relaxing the durability of a strict environment. */
+    private static int relaxed;
+    /** Changes of the sync flag by relaxing requests: odd while the sync is turned off. */
+    private static final AtomicLong changes = new AtomicLong();
+    private static volatile boolean pending;
+    private static long synced;
+
+    private static Thread timer;
+    private static volatile boolean running;
+
+    private static final AtomicLong syncs = new AtomicLong();
+
+    private LmdbDurability() { }
+
+    /**
+     * Sets the default durability, before the environment is opened.
+     * @param mode durability
+     */
+    public static void mode(final Mode mode) {
+        LmdbDurability.mode = mode;
+    }
+
+    /**
+     * Parses a durability.
+     * @param name name of the durability, case is ignored
+     * @return durability, or {@code null} for none
+     * @throws IllegalArgumentException unknown durability
+     */
+    public static Mode mode(final String name) {
+        if(name == null || name.trim().isEmpty()) return null;
+        return Mode.valueOf(name.trim().toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * Sets the time between the syncs of {@link Mode#GROUP}.
+     * @param millis milliseconds
+     */
+    public static void interval(final long millis) {
+        interval = Math.max(1, millis);
+    }
+
+    /**
+     * Sets additional environment flags, before the environment is opened: {@code nometasync}, {@code writemap},
+     * {@code mapasync} and {@code nordahead}. Updates are committed one by one with {@code writemap}, which doesn't
+     * support nested transactions, see {@link LmdbWriteCoordinator}.
+     * @param names names of the flags
+     * @throws IllegalArgumentException unknown flag
+     */
+    public static void flags(final String... names) {
+        int f = 0;
+        for(final String n : names) {
+            final String name = n.trim().toLowerCase(Locale.ROOT);
+            if(name.isEmpty()) continue;
+            if(name.equals("nometasync")) f |= NOMETASYNC;
+            else if(name.equals("writemap")) f |= WRITEMAP;
+            else if(name.equals("mapasync")) f |= MAPASYNC;
+            else if(name.equals("nordahead")) f |= NORDAHEAD;
+            else throw new IllegalArgumentException("unknown environment flag " + n);
+        }
+        flags = f;
+    }
+
+    /**
+     * Flags the environment is opened with.
+     * @return flags
+     */
+    static int flags() {
+        return flags | (mode == Mode.STRICT ? 0 : NOSYNC);
+    }
+
+    static synchronized void start() {
+        if(running) return;
+        running = true;
+        synced = env.info().getLastTxnId();
+        timer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                work();
+            }
+        }, "lmdb-sync");
+        timer.setDaemon(true);
+        timer.start();
+        logger.info("durability " + mode.name().toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Stops the timer. The environment is synced by the caller.
+     */
+    static synchronized void stop() {
+        if(!running) return;
+        running = false;
+        timer.interrupt();
+        try {
+            timer.join();
+        } catch(InterruptedException ignored) {
+        }
+        logger.info(stats());
+    }
+
+    /** Explicit syncs of strict commits and syncs of the timer. */
+    public static long syncs() { return syncs.get(); }
+
+    public static String stats() {
+        return "durability: mode=" + mode.name().toLowerCase(Locale.ROOT) + " relaxed=" + relaxed() +
+               " syncs=" + syncs();
+    }
+
+    private static synchronized int relaxed() {
+        return relaxed;
+    }
+
+    /**
+     * Sets the durability of the writes of the current thread, until the returned request is closed.
+     * @param mode durability, or {@code null} for the default
+     * @return request
+     */
+    public static Request request(final Mode mode) {
+        return new Request(mode);
+    }
+
+    /**
+     * Durability of the writes of the current thread.
+     * @return durability
+     */
+    static Mode mode() {
+        final Mode m = requests.get();
+        return m == null ? mode : m;
+    }
+
+    /**
+     * Commits a write transaction with the durability of the current thread.
+     * @param tx write transaction
+     */
+    static void commit(final Transaction tx) {
+        final long c = changes.get();
+        tx.commit();
+        committed(mode(), c);
+    }
+
+    /**
+     * Syncs a commit if it is strict and the environment may not have synced it.
+     * @param mode durability of the commit
+     * @param changes value of {@link #changes} before the commit, see {@link #changes()}
+     */
+    static void committed(final Mode mode, final long changes) {
+        if(mode == Mode.GROUP) pending = true;
+        if(mode != Mode.STRICT) return;
+        if(LmdbDurability.mode == Mode.STRICT && (changes & 1) == 0 && changes == LmdbDurability.changes.get()) return;
+        env.sync(true);
+        syncs.incrementAndGet();
+    }
+
+    /**
+     * Returns the state of the sync flag, to be passed to {@link #committed(Mode, long)} after the commit.
+     * @return changes of the sync flag
+     */
+    static long changes() {
+        return changes.get();
+    }
+
+    private static synchronized void relax() {
+        if(relaxed++ > 0) return;
+        changes.incrementAndGet();
+        env.addFlags(NOSYNC);
+    }
+
+    private static synchronized void restore() {
+        if(--relaxed > 0) return;
+        env.removeFlags(NOSYNC);
+        changes.incrementAndGet();
+    }
+
+    private static void work() {
+        while(running) {
+            try {
+                Thread.sleep(interval);
+            } catch(InterruptedException ie) {
+                continue;
+            }
+            if(mode != Mode.GROUP && !pending) continue;
+            pending = false;
+            try {
+                final long last = env.info().getLastTxnId();
+                if(last == synced) continue;
+                env.sync(true);
+                synced = last;
+                syncs.incrementAndGet();
+            } catch(RuntimeException e) {
+                logger.warn("sync: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Durability of the writes of a thread.
+     */
+    public static final class Request implements AutoCloseable {
+        private final Mode previous = requests.get();
+        private final boolean relaxing;
+        private boolean closed;
+
+        private Request(final Mode m) {
+            relaxing = m != null && m != Mode.STRICT && LmdbDurability.mode == Mode.STRICT && env != null;
+            if(relaxing) relax();
+            requests.set(m == null ? previous : m);
+        }
+
+        @Override
+        public void close() {
+            if(closed) return;
+            closed = true;
+            requests.set(previous);
+            if(relaxing) restore();
+        }
+    }
+}
@@ -1,21 +1,33 @@
 package lmdb.basex;
 
+import lmdb.util.Byte;
 import org.basex.core.MainOptions;
 import org.basex.data.Data;
 import org.basex.index.ft.FTBuilder;
 import org.basex.index.ft.FTIndex;
+import org.basex.util.Num;
+import org.basex.util.ft.StopWords;
+import org.basex.util.list.LongList;
+import org.fusesource.lmdbjni.Database;
 
 import java.io.IOException;
 
-import static lmdb.basex.LmdbDataManager.ftindexxdb;
-import static lmdb.basex.LmdbDataManager.ftindexydb;
-import static lmdb.basex.LmdbDataManager.ftindexzdb;
-import static lmdb.basex.LmdbValuesBuilder.copyIndex;
-import static org.basex.data.DataText.DATAFTX;
+import static lmdb.basex.LmdbDataManager.ftindexdb;
+import static org.basex.util.Token.concat;
 
+/**
+ * Builds the full-text index of a document in the layout read by {@link LmdbFTIndex}. Tokens are collected in
+ * an {@link LmdbFTTree} and written in key order; when memory runs out the tree is written and the postings
+ * of later parts are merged into the stored ones, as done by {@link LmdbValuesBuilder}.
+ */
 public class LmdbFTBuilder extends FTBuilder {
 
-    private byte[] docid;
+    private final byte[] docid;
+    private final Database db = ftindexdb;
+    private LmdbFTTree index = new LmdbFTTree();
+    private LmdbWriteBatch batch;
+    /** Number of index entries. */
+    private int entries;
 
     public LmdbFTBuilder(final byte[] docid, final Data data, final MainOptions options) throws IOException {
         super(data, options);
@@ -24,11 +36,65 @@ public class LmdbFTBuilder extends FTBuilder {
 
     @Override
     public FTIndex build() throws IOException {
-        _build();
-        copyIndex(data.meta.dbfile(DATAFTX + 'x').file(), ftindexxdb, docid);
-        copyIndex(data.meta.dbfile(DATAFTX + 'y').file(), ftindexydb, docid);
-        copyIndex(data.meta.dbfile(DATAFTX + 'z').file(), ftindexzdb,docid);
-        data.meta.dbfile("swl").file().delete();
+        try(LmdbWriteBatch b = new LmdbWriteBatch()) {
+            batch = b;
+            final StopWords sw = lexer.ftOpt().sw;
+            for(pre = 0; pre < size; ++pre) {
+                if((pre & 0x0FFF) == 0) check();
+                if(!indexEntry()) continue;
+
+                final int id = data.meta.updindex ? data.id(pre) : pre;
+                lexer.init(data.text(pre, true));
+                int pos = -1;
+                while(lexer.hasNext()) {
+                    final byte[] tok = lexer.nextToken();
+                    ++pos;
+                    // skip too long and stopword tokens
+                    if(tok.length <= data.meta.maxlen && (sw.isEmpty() || !sw.contains(tok))) {
+                        // check if main memory is exhausted
+                        if((ntok++ & 0x0FFF) == 0 && split()) {
+                            write();
+                            index = new LmdbFTTree();
+                            finishSplit();
+                        }
+                        index.add(tok, id, pos);
+                        count++;
+                    }
+                }
+            }
+            write();
+            batch.append(db, LmdbTerms.sizeKey(docid), Byte.getBytes(entries));
+            batch.commit();
+        }
+        finishIndex();
         return null;
     }
+
+    /**
+     * Writes the current token tree. Postings of the first tree are appended, postings of later trees are
+     * merged with the stored ones.
+     */
+    private void write() {
+        index.init();
+        while(index.more()) {
+            final int n = index.next();
+            final byte[] key = concat(docid, index.keys.get(n));
+            final LongList postings = new LongList();
+            if(splits > 0) {
+                final byte[] stored = db.get(batch.tx(), key);
+                if(stored != null) postings.add(LmdbFTIndex.postings(stored));
+            }
+            if(postings.isEmpty()) entries++;
+
+            final byte[] ids = index.values.get(n), poss = index.poss.get(n);
+            final int is = Num.size(ids);
+            for(int ip = 4, pp = 4; ip < is; ip += Num.length(ids, ip), pp += Num.length(poss, pp)) {
+                postings.add((long) Num.get(ids, ip) << 32 | Num.get(poss, pp));
+            }
+            final byte[] list = LmdbFTIndex.postings(postings.sort().finish());
+            if(splits > 0) batch.put(db, key, list);
+            else batch.append(db, key, list);
+        }
+        splits++;
+    }
 }
@@ -1,9 +1,8 @@
 package lmdb.basex;
 
+import lmdb.util.Byte;
 import org.basex.core.MainOptions;
 import org.basex.data.Data;
-import org.basex.index.IndexCache;
-import org.basex.index.IndexEntry;
 import org.basex.index.query.EntryIterator;
 import org.basex.index.query.FTIndexIterator;
 import org.basex.index.query.IndexEntries;
@@ -15,86 +14,77 @@ import org.basex.query.expr.ft.FTWildcard;
 import org.basex.query.util.ft.FTMatches;
 import org.basex.util.Array;
 import org.basex.util.Levenshtein;
+import org.basex.util.Num;
 import org.basex.util.Performance;
 import org.basex.util.TokenBuilder;
 import org.basex.util.Util;
 import org.basex.util.ft.FTLexer;
 import org.basex.util.ft.FTOpt;
-import org.basex.util.hash.IntObjMap;
 import org.basex.util.hash.TokenObjMap;
 import org.basex.util.list.IntList;
+import org.fusesource.lmdbjni.Cursor;
+import org.fusesource.lmdbjni.Database;
+import org.fusesource.lmdbjni.Entry;
+import org.fusesource.lmdbjni.GetOp;
+import org.fusesource.lmdbjni.SeekOp;
 import org.fusesource.lmdbjni.Transaction;
 
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import static lmdb.basex.LmdbDataManager.ftindexxdb;
-import static lmdb.basex.LmdbDataManager.ftindexydb;
-import static lmdb.basex.LmdbDataManager.ftindexzdb;
+import static lmdb.basex.LmdbDataManager.ftindexdb;
 import static org.basex.core.Text.LI_NAMES;
 import static org.basex.core.Text.LI_SIZE;
 import static org.basex.core.Text.NL;
 import static org.basex.data.DataText.DATAFTX;
-import static org.basex.util.Token.diff;
-import static org.basex.util.Token.eq;
+import static org.basex.util.Token.concat;
 import static org.basex.util.Token.startsWith;
 import static org.basex.util.ft.FTFlag.FZ;
 import static org.basex.util.ft.FTFlag.WC;
 
+/**
+ * Full-text index of a document. Every token is a key of its own, {@code docid + token}, mapped to the
+ * compressed postings of the token (see {@link #postings(long[])}); the number of tokens is stored under
+ * {@link LmdbTerms#sizeKey}. Exact lookups are a single get, wildcard queries walk the tokens with the
+ * wildcard prefix, fuzzy queries the tokens of the document. As in {@link LmdbValues}, every lookup uses a
+ * cursor of its own, concurrent readers don't lock.
+ */
 public class LmdbFTIndex extends ValueIndex {
-    /** Entry size. */
-    private static final int ENTRY = 9;
-
-    /** Cached texts. Increases used memory, but speeds up repeated queries. */
-    private final IntObjMap<byte[]> ctext = new IntObjMap<>();
-    /** Levenshtein reference. */
-    private final Levenshtein ls = new Levenshtein();
-
-    /** Index storing each unique token length and pointer
-     * on the first token with this length. */
-    private final LmdbDataAccess inX;
-    /** Index storing each token, its data size and pointer on the data. */
-    private final LmdbDataAccess inY;
-    /** Storing pre and pos values for each token. */
-    private final LmdbDataAccess inZ;
-
-    /** Cache for number of hits and data reference per token. */
-    private final IndexCache cache = new IndexCache();
-    /** Token positions. */
-    private final int[] tp;
+
+    final Database db = ftindexdb;
+    final byte[] docid;
+    final Transaction tx;
+    /** Number of current index entries. */
+    final AtomicInteger size = new AtomicInteger();
 
     /**
      * Constructor, initializing the index structure.
      * @param data data reference
+     * @param docid document id
+     * @param tx transaction
      * @throws IOException I/O Exception
      */
     public LmdbFTIndex(final Data data, final byte[] docid, final Transaction tx) throws IOException {
         super(data, true);
-        // cache token length index
-        inX = new LmdbDataAccess(docid, ftindexxdb, tx);
-        inY = new LmdbDataAccess(docid, ftindexydb, tx);
-        inZ = new LmdbDataAccess(docid, ftindexzdb, tx);
-        tp = new int[data.meta.maxlen + 3];
-        final int tl = tp.length;
-        for(int i = 0; i < tl; ++i) tp[i] = -1;
-        int is = inX.readNum();
-        while(--is >= 0) {
-            int p = inX.readNum();
-            final int r;
-            if(p < tl) {
-                r = inX.read4();
-            } else {
-                // legacy issue (7.0.2 -> 7.1)
-                r = p << 24 | (inX.read1() & 0xFF) << 16 |
-                        (inX.read1() & 0xFF) << 8 | inX.read1() & 0xFF;
-                p = p >> 8 | 0x40;
-            }
-            tp[p] = r;
-        }
-        tp[tl - 1] = (int) inY.length();
+        this.docid = docid;
+        this.tx = tx;
+        final byte[] sz = db.get(tx, LmdbTerms.sizeKey(docid));
+        if(sz == null) throw new IOException("full-text index of " + data.meta.name + " not found");
+        size.set(Byte.getInt(sz));
+    }
+
+    /**
+     * Checks if the index of a document exists, documents indexed by older versions have none.
+     * @param docid document id
+     * @param tx transaction
+     * @return result of check
+     */
+    static boolean exists(final byte[] docid, final Transaction tx) {
+        return ftindexdb.get(tx, LmdbTerms.sizeKey(docid)) != null;
     }
 
     @Override
-    public synchronized int costs(final IndexToken it) {
+    public int costs(final IndexToken it) {
         final byte[] tok = it.get();
         if(tok.length > data.meta.maxlen) return Integer.MAX_VALUE;
 
@@ -102,11 +92,12 @@ public class LmdbFTIndex extends ValueIndex {
         final FTOpt opt = ((FTLexer) it).ftOpt();
         if(opt.is(FZ) || opt.is(WC)) return Math.max(1, data.meta.size >> 4);
 
-        return entry(tok).size;
+        final byte[] postings = db.get(tx, key(tok));
+        return postings == null ? 0 : Num.get(postings, 0);
     }
 
     @Override
-    public synchronized IndexIterator iter(final IndexToken it) {
+    public IndexIterator iter(final IndexToken it) {
         final byte[] tok = it.get();
 
         // wildcard search
@@ -117,105 +108,32 @@ public class LmdbFTIndex extends ValueIndex {
         // fuzzy search
         if(opt.is(FZ)) return fuzzy(tok, lexer.lserror(tok));
 
-        // return cached or new result
-        final IndexEntry e = entry(tok);
-        return e.size > 0 ? iter(e.offset, e.size, inZ, tok) : FTIndexIterator.FTEMPTY;
-    }
-
-    /**
-     * Returns a cache entry.
-     * @param token token to be found or cached
-     * @return cache entry
-     */
-    private IndexEntry entry(final byte[] token) {
-        final IndexEntry e = cache.get(token);
-        if(e != null) return e;
-
-        final long p = token(token);
-        return p == -1 ? new IndexEntry(token, 0, 0) :
-                cache.add(token, size(p, token.length), pointer(p, token.length));
+        final byte[] postings = tok.length > data.meta.maxlen ? null : db.get(tx, key(tok));
+        if(postings == null) return FTIndexIterator.FTEMPTY;
+        final IntList pr = new IntList(), ps = new IntList();
+        add(postings, pr, ps);
+        return iter(new FTCache(pr, ps), tok);
     }
 
     @Override
     public EntryIterator entries(final IndexEntries entries) {
         final byte[] prefix = entries.get();
-        return new EntryIterator() {
-            int ti = prefix.length - 1, i, e, nr;
-            boolean inner;
-
-            @Override
-            public synchronized byte[] next() {
-                if(inner && i < e) {
-                    // loop through all entries with the same character length
-                    final byte[] entry = inY.readBytes(i, ti);
-                    if(startsWith(entry, prefix)) {
-                        final long poi = inY.read5();
-                        nr = inY.read4();
-                        if(prefix.length != 0) cache.add(entry, nr, poi);
-                        i += ti + ENTRY;
-                        return entry;
-                    }
-                }
-                // find next available entry group
-                final int tl = tp.length;
-                while(++ti < tl - 1) {
-                    i = tp[ti];
-                    if(i == -1) continue;
-                    int c = ti + 1;
-                    do e = tp[c++]; while(e == -1);
-                    nr = 0;
-                    inner = true;
-                    i = find(prefix, i, e, ti);
-                    // jump to inner loop
-                    final byte[] n = next();
-                    if(n != null) return n;
-                }
-                // all entries processed: return null
-                return null;
-            }
-            @Override
-            public int count() {
-                return nr;
-            }
-        };
-    }
-
-    /**
-     * Binary search.
-     * @param token token to look for
-     * @param start start position
-     * @param end end position
-     * @param ti entry length
-     * @return position where the key was found, or would have been found
-     */
-    private int find(final byte[] token, final int start, final int end, final int ti) {
-        final int tl = ti + ENTRY;
-        int l = 0, h = (end - start) / tl;
-        while(l <= h) {
-            final int m = l + h >>> 1;
-            final int p = start + m * tl;
-            byte[] txt = ctext.get(p);
-            if(txt == null) {
-                txt = inY.readBytes(p, ti);
-                ctext.put(p, txt);
-            }
-            final int d = diff(txt, token);
-            if(d == 0) return start + m * tl;
-            if(d < 0) l = m + 1;
-            else h = m - 1;
-        }
-        return start + l * tl;
+        return new LmdbTerms(db, tx, docid, key(prefix), false, prefix);
     }
 
     @Override
-    public synchronized byte[] info(final MainOptions options) {
+    public byte[] info(final MainOptions options) {
         final TokenBuilder tb = new TokenBuilder();
-        final long l = inX.length() + inY.length() + inZ.length();
         tb.add(LI_NAMES).add(data.meta.ftinclude).add(NL);
-        tb.add(LI_SIZE + Performance.format(l, true) + NL);
 
         final IndexStats stats = new IndexStats(options.get(MainOptions.MAXSTAT));
-        addOccs(stats);
+        long l = 0;
+        final LmdbTerms terms = new LmdbTerms(db, tx, docid, docid, false, null);
+        for(byte[] key; (key = terms.next()) != null;) {
+            l += key.length + terms.bytes;
+            if(stats.adding(terms.count)) stats.add(key, terms.count);
+        }
+        tb.add(LI_SIZE + Performance.format(l, true) + NL);
         stats.print(tb);
         return tb.finish();
     }
@@ -226,96 +144,99 @@ public class LmdbFTIndex extends ValueIndex {
     }
 
     @Override
-    public synchronized void close() {
-        inX.close();
-        inY.close();
-        inZ.close();
+    public void close() {
     }
 
     @Override
     public int size() {
-        final int tl = tp.length;
-        int size = 0, t = tl - 1;
-        while(true) {
-            final int e = t;
-            while(tp[--t] == -1) {
-                if(t == 0) return size;
-            }
-            size += (tp[e] - tp[t]) / (t + ENTRY);
-        }
+        return size.get();
+    }
+
+    @Override
+    public void add(final TokenObjMap<IntList> map) {
+        throw Util.notExpected();
+    }
+
+    @Override
+    public void delete(final TokenObjMap<IntList> map) {
+        throw Util.notExpected();
     }
 
+    @Override
+    public void flush() { }
+
     /**
-     * Determines the pointer on a token.
-     * @param token token looking for
-     * @return int pointer or {@code -1} if token was not found
+     * Returns the {@code pre} value for the specified id.
+     * @param id id value
+     * @return pre value
      */
-    private int token(final byte[] token) {
-        final int tl = token.length;
-        // left limit
-        int l = tp[tl];
-        if(l == -1) return -1;
-
-        int i = 1;
-        int r;
-        // find right limit
-        do r = tp[tl + i++]; while(r == -1);
-        final int x = r;
-
-        // binary search
-        final int o = tl + ENTRY;
-        while(l < r) {
-            final int m = l + (r - l >> 1) / o * o;
-            final int c = diff(inY.readBytes(m, tl), token);
-            if(c == 0) return m;
-            if(c < 0) l = m + o;
-            else r = m - o;
-        }
-        // accept entry if pointer is inside relevant tokens
-        return r != x && l == r && eq(inY.readBytes(l, tl), token) ? l : -1;
+    protected int pre(final int id) {
+        return id;
     }
 
     /**
-     * Collects all tokens and their sizes found in the index structure.
-     * @param stats statistics
+     * Returns the key of a token.
+     * @param token token
+     * @return key
      */
-    private void addOccs(final IndexStats stats) {
-        int i = 0;
-        final int tl = tp.length;
-        while(i < tl && tp[i] == -1) ++i;
-        int p = tp[i], j = i + 1;
-        while(j < tl && tp[j] == -1) ++j;
-
-        final int max = tp[tl - 1];
-        while(p < max) {
-            final int oc = size(p, i);
-            if(stats.adding(oc)) stats.add(inY.readBytes(p, i), oc);
-            p += i + ENTRY;
-            if(p == tp[j]) {
-                i = j;
-                while(j + 1 < tl && tp[++j] == -1);
-            }
+    protected final byte[] key(final byte[] token) {
+        return concat(docid, token);
+    }
+
+    /**
+     * Compresses sorted postings, each an id in the upper and a token position in the lower 32 bits: the
+     * number of postings, followed by the distance of every id to the previous one and the position, in the
+     * {@link Num} format.
+     * @param postings sorted postings
+     * @return compressed postings
+     */
+    static byte[] postings(final long[] postings) {
+        final int ps = postings.length;
+        int l = Num.length(ps);
+        for(int i = 0, o = 0; i < ps; o = (int) (postings[i++] >>> 32)) {
+            l += Num.length((int) (postings[i] >>> 32) - o) + Num.length((int) postings[i]);
+        }
+        final byte[] list = new byte[l];
+        Num.set(list, ps, 0);
+        for(int i = 0, o = 0, p = Num.length(ps); i < ps; o = (int) (postings[i++] >>> 32)) {
+            final int id = (int) (postings[i] >>> 32) - o, pos = (int) postings[i];
+            Num.set(list, id, p);
+            p += Num.length(id);
+            Num.set(list, pos, p);
+            p += Num.length(pos);
         }
+        return list;
     }
 
     /**
-     * Gets the pointer on ftdata for a token.
-     * @param pt pointer on token
-     * @param lt length of the token
-     * @return int pointer on ftdata
+     * Decompresses postings.
+     * @param list compressed postings
+     * @return sorted postings
      */
-    private long pointer(final long pt, final int lt) {
-        return inY.read5(pt + lt);
+    static long[] postings(final byte[] list) {
+        final long[] postings = new long[Num.get(list, 0)];
+        for(int i = 0, id = 0, p = Num.length(list, 0); i < postings.length; i++) {
+            id += Num.get(list, p);
+            p += Num.length(list, p);
+            postings[i] = (long) id << 32 | Num.get(list, p);
+            p += Num.length(list, p);
+        }
+        return postings;
     }
 
+    // PRIVATE METHODS ==============================================================================
+
     /**
-     * Reads the size of ftdata from disk.
-     * @param pt pointer on token
-     * @param lt length of the token
-     * @return size of the ftdata
+     * Adds the pre values and positions of compressed postings.
+     * @param list compressed postings
+     * @param pr pre values
+     * @param ps positions
      */
-    private int size(final long pt, final int lt) {
-        return inY.read4(pt + lt + 5);
+    private void add(final byte[] list, final IntList pr, final IntList ps) {
+        for(final long p : postings(list)) {
+            pr.add(pre((int) (p >>> 32)));
+            ps.add((int) p);
+        }
     }
 
     /**
@@ -324,25 +245,17 @@ public class LmdbFTIndex extends ValueIndex {
      * @param k number of errors allowed
      * @return iterator
      */
-    private synchronized IndexIterator fuzzy(final byte[] token, final int k) {
-        FTIndexIterator it = FTIndexIterator.FTEMPTY;
-        final int tokl = token.length, tl = tp.length;
-        final int e = Math.min(tl - 1, tokl + k);
-        int s = Math.max(1, tokl - k) - 1;
-
-        while(++s <= e) {
-            int p = tp[s];
-            if(p == -1) continue;
-            int t = s + 1, r = -1;
-            while(t < tl && r == -1) r = tp[t++];
-            while(p < r) {
-                if(ls.similar(inY.readBytes(p, s), token, k)) {
-                    it = FTIndexIterator.union(iter(pointer(p, s), size(p, s), inZ, token), it);
-                }
-                p += s + ENTRY;
+    private IndexIterator fuzzy(final byte[] token, final int k) {
+        final Levenshtein ls = new Levenshtein();
+        final IntList pr = new IntList(), ps = new IntList();
+        final int min = token.length - k, max = token.length + k;
+        try(Cursor c = db.openCursor(tx)) {
+            for(Entry e = c.seek(SeekOp.RANGE, docid); e != null && LmdbTerms.term(docid, e.getKey()); e = c.get(GetOp.NEXT)) {
+                final int tl = e.getKey().length - 4;
+                if(tl >= min && tl <= max && ls.similar(LmdbTerms.term(e.getKey()), token, k)) add(e.getValue(), pr, ps);
             }
         }
-        return it;
+        return iter(new FTCache(pr, ps), token);
     }
 
     /**
@@ -350,68 +263,29 @@ public class LmdbFTIndex extends ValueIndex {
      * @param token token to look for
      * @return iterator
      */
-    private synchronized IndexIterator wc(final byte[] token) {
-        final FTIndexIterator it = FTIndexIterator.FTEMPTY;
+    private IndexIterator wc(final byte[] token) {
         final FTWildcard wc = new FTWildcard(token);
-        if(!wc.parse()) return it;
+        if(!wc.parse()) return FTIndexIterator.FTEMPTY;
 
-        final IntList pr = new IntList();
-        final IntList ps = new IntList();
+        final IntList pr = new IntList(), ps = new IntList();
         final byte[] pref = wc.prefix();
-        final int pl = pref.length, tl = tp.length;
-        final int l = Math.min(tl - 1, wc.max());
-        for(int ti = pl; ti <= l; ti++) {
-            int i = tp[ti];
-            if(i == -1) continue;
-            int c = ti + 1;
-            int e = -1;
-            while(c < tl && e == -1) e = tp[c++];
-            i = find(pref, i, e, ti);
-
-            while(i < e) {
-                final byte[] t = inY.readBytes(i, ti);
+        try(Cursor c = db.openCursor(tx)) {
+            for(Entry e = c.seek(SeekOp.RANGE, key(pref)); e != null && LmdbTerms.term(docid, e.getKey()); e = c.get(GetOp.NEXT)) {
+                final byte[] t = LmdbTerms.term(e.getKey());
                 if(!startsWith(t, pref)) break;
-                if(wc.match(t)) {
-                    inZ.cursor(pointer(i, ti));
-                    final int s = size(i, ti);
-                    for(int d = 0; d < s; d++) {
-                        pr.add(inZ.readNum());
-                        ps.add(inZ.readNum());
-                    }
-                }
-                i += ti + ENTRY;
+                if(wc.match(t)) add(e.getValue(), pr, ps);
             }
         }
         return iter(new FTCache(pr, ps), token);
     }
 
-    /**
-     * Returns an iterator for an index entry.
-     * @param off offset on entries
-     * @param size number of id/pos entries
-     * @param da data source
-     * @param token index token
-     * @return iterator
-     */
-    private static FTIndexIterator iter(final long off, final int size, final LmdbDataAccess da,
-                                        final byte[] token) {
-        da.cursor(off);
-        final IntList pr = new IntList(size);
-        final IntList ps = new IntList(size);
-        for(int c = 0; c < size; c++) {
-            pr.add(da.readNum());
-            ps.add(da.readNum());
-        }
-        return iter(new FTCache(pr, ps), token);
-    }
-
     /**
      * Returns an iterator for an index entry.
      * @param ftc id cache
      * @param token index token
      * @return iterator
      */
-    private static synchronized FTIndexIterator iter(final FTCache ftc, final byte[] token) {
+    private static FTIndexIterator iter(final FTCache ftc, final byte[] token) {
         final int size = ftc.pre.size();
 
         return new FTIndexIterator() {
@@ -419,7 +293,7 @@ public class LmdbFTIndex extends ValueIndex {
             int pos, pre, c;
 
             @Override
-            public synchronized boolean more() {
+            public boolean more() {
                 if(c == size) return false;
                 all.reset(pos);
                 pre = ftc.pre.get(ftc.order[c]);
@@ -431,12 +305,12 @@ public class LmdbFTIndex extends ValueIndex {
             }
 
             @Override
-            public synchronized FTMatches matches() {
+            public FTMatches matches() {
                 return all;
             }
 
             @Override
-            public synchronized int pre() {
+            public int pre() {
                 return pre;
             }
 
@@ -446,7 +320,7 @@ public class LmdbFTIndex extends ValueIndex {
             }
 
             @Override
-            public synchronized int size() {
+            public int size() {
                 return size;
             }
 
@@ -483,17 +357,4 @@ public class LmdbFTIndex extends ValueIndex {
         }
     }
 
-    @Override
-    public void add(final TokenObjMap<IntList> map) {
-        throw Util.notExpected();
-    }
-
-    @Override
-    public void delete(final TokenObjMap<IntList> map) {
-        throw Util.notExpected();
-    }
-
-    @Override
-    public void flush() { }
-
 }
@@ -0,0 +1,27 @@
+package lmdb.basex;
+
+import org.basex.index.IndexTree;
+import org.basex.util.Num;
+import org.basex.util.list.TokenList;
+
+/**
+ * Full-text tokens of a document, with the compressed ids of their text nodes and, in the same order,
+ * the compressed token positions.
+ */
+final class LmdbFTTree extends IndexTree {
+
+    /** Compressed positions. */
+    final TokenList poss = new TokenList(FACTOR);
+
+    /**
+     * Indexes a token.
+     * @param token token
+     * @param id id of the text node
+     * @param pos position of the token in the text
+     */
+    void add(final byte[] token, final int id, final int pos) {
+        final int n = add(token, id, true);
+        if(n == poss.size()) poss.add(Num.newNum(pos));
+        else poss.set(n, Num.add(poss.get(n), pos));
+    }
+}
@@ -0,0 +1,281 @@
+package lmdb.basex;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+import org.basex.build.xml.XMLParser;
+import org.basex.core.MainOptions;
+import org.basex.core.StaticOptions;
+import org.basex.io.IO;
+import org.basex.io.IOContent;
+import org.basex.io.IOFile;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Bulk import of many documents into a collection. Documents are parsed and staged on a pool of worker
+ * threads while a single writer thread stores the staged documents in large write transactions, committing
+ * whenever the batch is full or no further staged document is waiting. Imports are all or nothing: if a
+ * document fails, or the import is closed before {@link #finish()} returned, the documents committed already
+ * are removed again.
+ *
+ * <pre>
+ * try(LmdbImporter imp = new LmdbImporter("shakespeare")) {
+ *     imp.add("hamlet", new File("hamlet.xml"));
+ *     ...
+ *     List&lt;String&gt; created = imp.finish();
+ * }
+ * </pre>
+ */
+public class LmdbImporter implements Closeable {
+
+    private static final Logger logger = Logger.getLogger(LmdbImporter.class);
+
+    /** Number of writes per write transaction. */
+    private static volatile int batchSize = 100000;
+
+    private final String collection;
+    private final ExecutorService workers;
+    /** Limits parsed documents in memory and staged documents waiting for the writer. */
+    private final Semaphore permits;
+    private final BlockingQueue<Object> staged = new LinkedBlockingQueue<Object>();
+    private final List<String> created = Collections.synchronizedList(new ArrayList<String>());
+    private final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+    private final Set<String> names = new HashSet<String>();
+    private final Thread writer;
+    private volatile boolean aborted;
+
+    private static final Object END = new Object();
+
+    /**
+     * Sets the number of writes per write transaction of imports started from now on.
+     * @param writes number of writes
+     */
+    static void batchSize(final int writes) {
+        batchSize = Math.max(1, writes);
+    }
+
+    public LmdbImporter(final String collection) throws IOException {
+        this(collection, Runtime.getRuntime().availableProcessors());
+    }
+
+    public LmdbImporter(final String collection, final int threads) throws IOException {
+        if(!LmdbDataManager.existsCollection(collection)) throw new IOException("unknown collection " + collection);
+        this.collection = collection;
+        this.workers = Executors.newFixedThreadPool(threads);
+        this.permits = new Semaphore(threads * 2);
+        this.writer = new Thread(new Writer(), "lmdb-import-" + collection);
+        this.writer.start();
+    }
+
+    /**
+     * Imports all xml files of a directory, named after the file name without extension.
+     * @param dir directory
+     * @throws IOException I/O exception
+     */
+    public void addDirectory(final File dir) throws IOException {
+        final File[] files = dir.listFiles();
+        if(files == null) throw new IOException("can't read directory " + dir);
+        for(File f : files) if(f.isFile() && isXml(f.getName())) add(docName(f.getName()), f);
+    }
+
+    /**
+     * Imports all xml entries of a zip stream, named after the entry file name without extension.
+     * @param zip zip stream
+     * @throws IOException I/O exception
+     */
+    public void addZip(final ZipInputStream zip) throws IOException {
+        ZipEntry e;
+        while((e = zip.getNextEntry()) != null) {
+            if(e.isDirectory() || !isXml(e.getName())) continue;
+            add(docName(e.getName()), IOUtils.toByteArray(zip));
+        }
+    }
+
+    public void add(final String name, final File file) throws IOException {
+        submit(name, new IOFile(file));
+    }
+
+    public void add(final String name, final byte[] content) throws IOException {
+        submit(name, new IOContent(content));
+    }
+
+    /**
+     * Waits for all documents to be stored.
+     * @return names of the created documents
+     * @throws IOException if any document failed: the created documents are removed again
+     */
+    public List<String> finish() throws IOException {
+        workers.shutdown();
+        try {
+            while(!workers.awaitTermination(1, TimeUnit.SECONDS));
+            staged.put(END);
+            writer.join();
+        } catch(InterruptedException ie) {
+            throw new IOException("import into " + collection + " interrupted");
+        }
+        if(!errors.isEmpty()) {
+            rollback();
+            throw new IOException("import into " + collection + " failed for " + errors);
+        }
+        return created;
+    }
+
+    /**
+     * Aborts the import if it is not finished: the open write transaction and the staged documents are
+     * dropped, and the documents committed so far are removed. Returns once the writer has stopped.
+     * @throws IOException I/O exception
+     */
+    @Override
+    public void close() throws IOException {
+        if(workers.isShutdown() && !writer.isAlive()) return;
+        aborted = true;
+        workers.shutdownNow();
+        try {
+            // parsers don't react to interrupts: documents staged until then are discarded by the writer
+            while(!workers.awaitTermination(1, TimeUnit.SECONDS));
+            staged.put(END);
+            writer.join();
+        } catch(InterruptedException ie) {
+            throw new IOException("abort of import into " + collection + " interrupted");
+        }
+        rollback();
+    }
+
+    private void rollback() throws IOException {
+        for(String name : created) LmdbDataManager.removeDocument(name);
+        if(!created.isEmpty()) logger.info("import: " + created.size() + " documents removed from " + collection);
+        created.clear();
+    }
+
+    private void submit(final String name, final IO input) throws IOException {
+        final String docname = collection + "/" + name;
+        if(!names.add(name)) throw new IOException("document " + docname + " exists");
+        final byte[] docid = LmdbDataManager.getNextDocumentId(docname);
+        try {
+            permits.acquire();
+        } catch(InterruptedException ie) {
+            throw new IOException("import into " + collection + " interrupted");
+        }
+        workers.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final MainOptions opt = new MainOptions();
+                    final LmdbBuilder b = LmdbBuilder.stager(docname, docid, new XMLParser(input, opt), opt,
+                            new StaticOptions(false));
+                    b.stage();
+                    staged.put(b);
+                } catch(Exception e) {
+                    errors.add(docname + ": " + e.getMessage());
+                    permits.release();
+                }
+            }
+        });
+    }
+
+    private static boolean isXml(final String file) {
+        return "xml".equalsIgnoreCase(FilenameUtils.getExtension(file)) && !FilenameUtils.getName(file).startsWith(".");
+    }
+
+    private static String docName(final String file) {
+        final String n = FilenameUtils.getName(file);
+        final int i = n.indexOf('.');
+        return i > 0 ? n.substring(0, i) : n;
+    }
+
+    private class Writer implements Runnable {
+        /** Documents written since the last commit. */
+        private final List<LmdbBuilder> group = new ArrayList<LmdbBuilder>();
+        /** Keys of the first document of the group were committed by a full batch. */
+        private boolean partial;
+
+        @Override
+        public void run() {
+            try(LmdbWriteBatch batch = new LmdbWriteBatch(batchSize)) {
+                while(true) {
+                    Object o = staged.poll();
+                    if(o == null) {
+                        // nothing waiting: make what we have visible
+                        if(!aborted) commit(batch);
+                        o = staged.take();
+                    }
+                    if(o == END) break;
+                    final LmdbBuilder b = (LmdbBuilder) o;
+                    final int commits = batch.commits();
+                    try {
+                        if(aborted) {
+                            b.discard();
+                            continue;
+                        }
+                        b.store(batch);
+                        // a full batch was committed: the group is created, the keys of b are committed in part
+                        if(batch.commits() != commits) {
+                            created();
+                            partial = true;
+                        }
+                        group.add(b);
+                    } catch(Exception e) {
+                        // documents of the current transaction are lost with it
+                        batch.abort();
+                        final boolean committed = batch.commits() != commits;
+                        if(committed) created();
+                        discard();
+                        errors.add(b.name() + ": " + e.getMessage());
+                        if(committed) LmdbCleaner.discard(b.name(), b.docid());
+                    } finally {
+                        permits.release();
+                    }
+                }
+                if(!aborted) commit(batch);
+                else discard();
+            } catch(InterruptedException ie) {
+                errors.add("writer interrupted");
+            } catch(Exception e) {
+                errors.add(e.getMessage());
+            }
+            for(Object o : staged) if(o instanceof LmdbBuilder) ((LmdbBuilder) o).discard();
+            staged.clear();
+        }
+
+        private void commit(final LmdbWriteBatch batch) {
+            batch.commit();
+            partial = false;
+            if(!group.isEmpty()) logger.info("import: " + group.size() + " documents stored in " + collection);
+            created();
+        }
+
+        private void created() {
+            for(LmdbBuilder g : group) {
+                created.add(g.name());
+                LmdbIndexer.submit(g.name());
+            }
+            group.clear();
+        }
+
+        /**
+         * Drops the documents of the group, after the writes since the last commit were aborted.
+         */
+        private void discard() {
+            for(LmdbBuilder g : group) errors.add(g.name() + ": aborted");
+            if(partial && !group.isEmpty()) LmdbCleaner.discard(group.get(0).name(), group.get(0).docid());
+            partial = false;
+            group.clear();
+        }
+    }
+}
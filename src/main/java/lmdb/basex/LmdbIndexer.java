@@ -0,0 +1,309 @@
+package lmdb.basex;
+
+import org.apache.log4j.Logger;
+import org.basex.core.MainOptions;
+import org.basex.core.cmd.Optimize;
+import org.basex.data.MetaData;
+import org.basex.index.IndexType;
+import org.fusesource.lmdbjni.Transaction;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static lmdb.basex.LmdbDataManager.env;
+
+/**
+ * Background service building the text, attribute and full-text indexes of documents after they are
+ * created or updated. Documents are queued by name in a bounded queue; when it is full the document is
+ * left unindexed and counted as rejected, it can still be indexed with {@link LmdbDataManager#indexDocument}.
+ *
+ * Indexes are built from a read snapshot and published by setting the index flags of the document
+ * {@link MetaData} in a write transaction, only if the document did not change in the meantime: queries
+ * use an index as soon as they see its flag. Updates clear the flags of indexes they don't maintain (see
+ * {@link LmdbMetaData#update()}) and queue the document again.
+ */
+public final class LmdbIndexer {
+
+    private static final Logger logger = Logger.getLogger(LmdbIndexer.class);
+
+    private static volatile int capacity = 1024;
+    private static volatile boolean updatable;
+    private static volatile boolean ranges;
+    private static volatile boolean collections;
+
+    private static BlockingQueue<String> queue;
+    private static final Set<String> queued = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private static Thread worker;
+    private static volatile boolean running;
+    private static volatile boolean busy;
+
+    private static final AtomicLong built = new AtomicLong();
+    private static final AtomicLong failed = new AtomicLong();
+    private static final AtomicLong rejected = new AtomicLong();
+    private static final AtomicLong buildTime = new AtomicLong();
+    private static volatile long lastBuildTime;
+
+    /** Serializes index builds: two builders of the same document would mix their pages. */
+    private static final Object build = new Object();
+
+    private LmdbIndexer() { }
+
+    /**
+     * Sets the maximum number of documents waiting to be indexed, taking effect on next start.
+     * zero disables background indexing.
+     * @param size number of documents
+     */
+    public static void capacity(final int size) {
+        capacity = size;
+    }
+
+    /**
+     * Sets if the indexes of documents created from now on are maintained by updates, see
+     * {@link UpdatableLmdbValues} and {@link UpdatableLmdbFTIndex}. Indexes of other documents are built
+     * again after every update.
+     * @param updatable updatable indexes
+     */
+    public static void updatable(final boolean updatable) {
+        LmdbIndexer.updatable = updatable;
+    }
+
+    static boolean updatable() {
+        return updatable;
+    }
+
+    /**
+     * Sets if the value indexes built from now on store numeric and date values as typed keys, see {@link LmdbValues}.
+     * @param ranges typed keys
+     */
+    public static void ranges(final boolean ranges) {
+        LmdbIndexer.ranges = ranges;
+    }
+
+    static boolean ranges() {
+        return ranges;
+    }
+
+    /**
+     * Sets if the values of documents indexed from now on are added to the index of their collection, see
+     * {@link LmdbCollectionIndex}.
+     * @param collections collection index
+     */
+    public static void collections(final boolean collections) {
+        LmdbIndexer.collections = collections;
+    }
+
+    static synchronized void start() {
+        if(capacity <= 0 || running) return;
+        queue = new ArrayBlockingQueue<String>(capacity);
+        running = true;
+        worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                work();
+            }
+        }, "lmdb-indexer");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Stops the service after the current build. Queued documents stay unindexed.
+     */
+    static synchronized void stop() {
+        if(!running) return;
+        running = false;
+        worker.interrupt();
+        try {
+            worker.join();
+        } catch(InterruptedException ignored) {
+        }
+        if(!queue.isEmpty()) logger.info("indexer: " + queue.size() + " documents left unindexed");
+        queue.clear();
+        queued.clear();
+        logger.info(stats());
+    }
+
+    /**
+     * Queues a document for indexing.
+     * @param name document name
+     * @return {@code false} if the service is not running or the queue is full
+     */
+    public static boolean submit(final String name) {
+        final BlockingQueue<String> q = queue;
+        if(!running || q == null) return false;
+        if(!queued.add(name)) return true;
+        if(q.offer(name)) return true;
+        queued.remove(name);
+        rejected.incrementAndGet();
+        logger.warn("indexer: queue full, " + name + " is not indexed");
+        return false;
+    }
+
+    /**
+     * Number of documents waiting to be indexed, including the one being indexed.
+     * @return backlog
+     */
+    public static int backlog() {
+        final BlockingQueue<String> q = queue;
+        return (q == null ? 0 : q.size()) + (busy ? 1 : 0);
+    }
+
+    public static long built() { return built.get(); }
+
+    public static long failed() { return failed.get(); }
+
+    public static long rejected() { return rejected.get(); }
+
+    /**
+     * Average time spent indexing a document.
+     * @return milliseconds
+     */
+    public static long averageBuildTime() {
+        final long b = built.get();
+        return b == 0 ? 0 : buildTime.get() / b / 1000000;
+    }
+
+    /**
+     * Time spent indexing the last document.
+     * @return milliseconds
+     */
+    public static long lastBuildTime() {
+        return lastBuildTime / 1000000;
+    }
+
+    public static String stats() {
+        return "indexer: backlog=" + backlog() + " built=" + built() + " failed=" + failed() + " rejected=" +
+               rejected() + " avg=" + averageBuildTime() + "ms last=" + lastBuildTime() + "ms";
+    }
+
+    /**
+     * Waits until no document is waiting to be indexed.
+     * @param timeout milliseconds
+     * @return {@code true} if the backlog is empty
+     */
+    static boolean await(final long timeout) throws InterruptedException {
+        final long end = System.currentTimeMillis() + timeout;
+        while(backlog() > 0 || !queued.isEmpty()) {
+            if(System.currentTimeMillis() > end) return false;
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    private static void work() {
+        while(running) {
+            final String name;
+            try {
+                name = queue.poll(1, TimeUnit.SECONDS);
+            } catch(InterruptedException ie) {
+                continue;
+            }
+            if(name == null) continue;
+            busy = true;
+            queued.remove(name);
+            try {
+                final long start = System.nanoTime();
+                if(index(name, false)) {
+                    lastBuildTime = System.nanoTime() - start;
+                    buildTime.addAndGet(lastBuildTime);
+                    built.incrementAndGet();
+                }
+            } catch(Exception e) {
+                failed.incrementAndGet();
+                logger.warn("indexer: " + name + ": " + e.getMessage());
+                if(logger.isDebugEnabled()) logger.debug("", e);
+            } finally {
+                busy = false;
+            }
+        }
+    }
+
+    /**
+     * Builds and publishes the indexes of a document.
+     * @param name document name
+     * @param force rebuild indexes which are up to date
+     * @return {@code true} if indexes were built
+     * @throws IOException I/O exception
+     */
+    static boolean index(final String name, final boolean force) throws IOException {
+        synchronized(build) {
+            final MainOptions opt = new MainOptions();
+            final long time;
+            final int size, lastid;
+            final boolean indexes;
+            // readers must not see the flags while the old indexes are replaced
+            if(force) unpublish(name, opt);
+            try(Transaction tx = env.createReadTransaction();
+                LmdbData data = (LmdbData) LmdbDataManager.openDocument(name, opt, tx, false)) {
+                indexes = force || !data.meta.textindex || !data.meta.attrindex || !data.meta.ftindex;
+                // the path summary of updated documents is rebuilt as well
+                if(!indexes && data.meta.uptodate) return false;
+                time = data.meta.time;
+                size = data.meta.size;
+                lastid = data.meta.lastid;
+                if(indexes) {
+                    data.createIndex(IndexType.TEXT, opt);
+                    data.createIndex(IndexType.ATTRIBUTE, opt);
+                    data.createIndex(IndexType.FULLTEXT, opt);
+                }
+            }
+
+            try(Transaction wtx = env.createWriteTransaction()) {
+                final LmdbData data = (LmdbData) LmdbDataManager.openDocument(name, opt, wtx, false);
+                final MetaData meta = data.meta;
+                if(meta.time != time || meta.size != size || meta.lastid != lastid) {
+                    // updated while indexing: these indexes are stale already
+                    submit(name);
+                    return false;
+                }
+                if(!meta.uptodate) Optimize.optimize(data, opt, null);
+                LmdbCollectionPaths.register(data);
+                if(collections && indexes) LmdbCollectionIndex.register(data);
+                flags(data, true);
+                LmdbDurability.commit(wtx);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Unpublishes and drops the indexes of a document.
+     * @param name document name
+     * @throws IOException I/O exception
+     */
+    static void drop(final String name) throws IOException {
+        synchronized(build) {
+            final MainOptions opt = new MainOptions();
+            unpublish(name, opt);
+            try(Transaction tx = env.createReadTransaction();
+                LmdbData data = (LmdbData) LmdbDataManager.openDocument(name, opt, tx, false)) {
+                data.dropIndex(IndexType.TEXT);
+                data.dropIndex(IndexType.ATTRIBUTE);
+                data.dropIndex(IndexType.FULLTEXT);
+            }
+        }
+    }
+
+    private static void unpublish(final String name, final MainOptions opt) throws IOException {
+        try(Transaction wtx = env.createWriteTransaction()) {
+            final LmdbData data = (LmdbData) LmdbDataManager.openDocument(name, opt, wtx, false);
+            if(!data.meta.textindex && !data.meta.attrindex && !data.meta.ftindex) return;
+            LmdbCollectionIndex.unregister(data);
+            flags(data, false);
+            LmdbDurability.commit(wtx);
+        }
+    }
+
+    private static void flags(final LmdbData data, final boolean available) {
+        data.meta.textindex = available;
+        data.meta.attrindex = available;
+        data.meta.ftindex = available;
+        data.close();
+    }
+}
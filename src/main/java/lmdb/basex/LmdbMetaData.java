@@ -93,6 +93,17 @@ public class LmdbMetaData extends MetaData {
         }
     }
 
+    /**
+     * Notifies the meta structures of an update. Unlike the file-based full-text index, the full-text index
+     * of a document is maintained by updates if {@link #updindex} is set, see {@link UpdatableLmdbFTIndex}.
+     */
+    @Override
+    public void update() {
+        final boolean ft = ftindex;
+        super.update();
+        if(updindex) ftindex = ft;
+    }
+
     @Override
     public IOFile dbfile(final String filename) {
         return file(path, "bxl." + name.replace('/','.') + "." + filename);
@@ -0,0 +1,257 @@
+package lmdb.basex;
+
+import lmdb.util.Byte;
+import org.fusesource.lmdbjni.Database;
+import org.fusesource.lmdbjni.Transaction;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static lmdb.util.Byte.lmdbkey;
+
+/**
+ * Process wide, byte bounded LRU cache of the 4 KB pages stored under {@code lmdbkey(docid, page)}
+ * in the table and index databases. Cached pages are shared between all readers and must never be modified.
+ * The cache is split in {@link #STRIPES} stripes by page, each an LRU of its own with a share of the budget,
+ * so concurrent readers rarely wait for the same lock.
+ *
+ * Consistency with LMDB snapshots is kept with transaction ids: writers stamp the document with the id of
+ * their write transaction ({@link #invalidate}), which is the snapshot id readers see once it commits.
+ * A reader only uses or fills the cache when its snapshot and the snapshot the page was loaded with are
+ * both at or after that stamp; older readers bypass it.
+ *
+ * Stamps which no running query can see past are dropped by {@link #prune(long)}: documents without a stamp
+ * count as modified by the snapshot passed last, which only readers of older snapshots have to bypass.
+ */
+public final class LmdbPageCache {
+
+    private static final int STRIPES = 16;
+
+    private static volatile long budget = 64L * 1024 * 1024;
+
+    private static final Stripe[] stripes = new Stripe[STRIPES];
+    static {
+        for(int s = 0; s < STRIPES; s++) stripes[s] = new Stripe();
+    }
+    private static final ConcurrentHashMap<Integer, Long> modified = new ConcurrentHashMap<Integer, Long>();
+    /** Stamp of documents without an entry in {@link #modified}. */
+    private static final AtomicLong floor = new AtomicLong();
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong evictions = new AtomicLong();
+
+    private LmdbPageCache() { }
+
+    /**
+     * Sets the cache size. zero disables the cache.
+     * @param size maximum number of bytes held in cache
+     */
+    public static void budget(final long size) {
+        budget = size;
+        for(final Stripe s : stripes) {
+            synchronized(s) {
+                s.evict();
+            }
+        }
+    }
+
+    public static boolean enabled() {
+        return budget > 0;
+    }
+
+    /**
+     * Returns a page, reading it from the database on a cache miss.
+     * @param db database
+     * @param docid document id
+     * @param page page number
+     * @param tx read transaction
+     * @return page contents (shared, read only) or {@code null} if the page does not exist
+     */
+    static byte[] get(final Database db, final byte[] docid, final int page, final Transaction tx) {
+        final long snapshot = tx.getId();
+        final long stamp = stamp(docid);
+        if(!enabled() || snapshot < stamp) return db.get(tx, lmdbkey(docid, page));
+
+        final PageKey key = new PageKey(db, Byte.getInt(docid), page);
+        final Stripe s = stripes[(key.hashCode() & 0x7FFFFFFF) % STRIPES];
+        synchronized(s) {
+            final Page p = s.pages.get(key);
+            if(p != null) {
+                if(p.snapshot >= stamp) {
+                    hits.incrementAndGet();
+                    return p.data;
+                }
+                s.remove(key);
+            }
+        }
+
+        misses.incrementAndGet();
+        final byte[] data = db.get(tx, lmdbkey(docid, page));
+        if(data == null) return null;
+        synchronized(s) {
+            final Page old = s.pages.put(key, new Page(data, snapshot));
+            if(old != null) s.bytes -= old.data.length;
+            s.bytes += data.length;
+            s.evict();
+        }
+        return data;
+    }
+
+    /**
+     * Marks all cached pages and the cached structure ({@link LmdbStructCache}) of a document as stale for
+     * readers of any snapshot following the given write transaction. To be called by every writer of table
+     * or index pages and of document structures, before commit.
+     * @param docid document id
+     * @param wtx write transaction
+     */
+    static void invalidate(final byte[] docid, final Transaction wtx) {
+        if(wtx.isReadOnly()) return;
+        modified.put(Byte.getInt(docid), wtx.getId());
+    }
+
+    /**
+     * Returns the id of the last write transaction which modified a document.
+     * @param docid document id
+     * @return transaction id, or the snapshot of the last {@link #prune(long)} if the stamp was dropped
+     */
+    static long stamp(final byte[] docid) {
+        final Long m = modified.get(Byte.getInt(docid));
+        return m == null ? floor.get() : m;
+    }
+
+    /**
+     * Drops the stamps of documents which were last modified at or before the given snapshot. To be called
+     * with the oldest snapshot of running queries, see {@link LmdbReaders#snapshot()}.
+     * @param snapshot transaction id
+     */
+    static void prune(final long snapshot) {
+        long f;
+        while((f = floor.get()) < snapshot && !floor.compareAndSet(f, snapshot)) { }
+        final long max = floor.get();
+        for(final Map.Entry<Integer, Long> e : modified.entrySet()) {
+            if(e.getValue() <= max) modified.remove(e.getKey(), e.getValue());
+        }
+    }
+
+    /**
+     * Number of documents with a stamp.
+     * @return documents
+     */
+    static int stamps() {
+        return modified.size();
+    }
+
+    /**
+     * Drops every cached page and stamp, after the environment was closed: transaction ids start again.
+     */
+    static void clear() {
+        for(final Stripe s : stripes) {
+            synchronized(s) {
+                s.pages.clear();
+                s.bytes = 0;
+            }
+        }
+        modified.clear();
+        floor.set(0);
+    }
+
+    /**
+     * Drops every cached page of a document, for documents which are gone for good.
+     * @param docid document id
+     */
+    static void purge(final byte[] docid) {
+        final int d = Byte.getInt(docid);
+        for(final Stripe s : stripes) {
+            synchronized(s) {
+                for(Iterator<Map.Entry<PageKey, Page>> i = s.pages.entrySet().iterator(); i.hasNext();) {
+                    final Map.Entry<PageKey, Page> e = i.next();
+                    if(e.getKey().docid != d) continue;
+                    s.bytes -= e.getValue().data.length;
+                    i.remove();
+                }
+            }
+        }
+        modified.remove(d);
+    }
+
+    public static long hits() { return hits.get(); }
+
+    public static long misses() { return misses.get(); }
+
+    public static long evictions() { return evictions.get(); }
+
+    public static long size() {
+        long bytes = 0;
+        for(final Stripe s : stripes) {
+            synchronized(s) {
+                bytes += s.bytes;
+            }
+        }
+        return bytes;
+    }
+
+    public static String stats() {
+        return "page cache: " + size() + "/" + budget + " bytes, hits=" + hits() + " misses=" + misses() +
+               " evictions=" + evictions() + " stamps=" + stamps();
+    }
+
+    /**
+     * LRU of a part of the pages, guarded by its own monitor.
+     */
+    private static final class Stripe {
+        final LinkedHashMap<PageKey, Page> pages = new LinkedHashMap<PageKey, Page>(64, 0.75f, true);
+        long bytes;
+
+        void remove(final PageKey key) {
+            final Page p = pages.remove(key);
+            if(p != null) bytes -= p.data.length;
+        }
+
+        void evict() {
+            final long max = budget / STRIPES;
+            final Iterator<Page> i = pages.values().iterator();
+            while(bytes > max && i.hasNext()) {
+                bytes -= i.next().data.length;
+                i.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    private static final class Page {
+        final byte[] data;
+        final long snapshot;
+        Page(final byte[] data, final long snapshot) {
+            this.data = data;
+            this.snapshot = snapshot;
+        }
+    }
+
+    private static final class PageKey {
+        final Database db;
+        final int docid;
+        final int page;
+
+        PageKey(final Database db, final int docid, final int page) {
+            this.db = db;
+            this.docid = docid;
+            this.page = page;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if(!(o instanceof PageKey)) return false;
+            final PageKey k = (PageKey) o;
+            return page == k.page && docid == k.docid && db == k.db;
+        }
+
+        @Override
+        public int hashCode() {
+            return (31 * docid + page) * 31 + System.identityHashCode(db);
+        }
+    }
+}
@@ -1,8 +1,10 @@
 package lmdb.basex;
 
+import org.apache.log4j.Logger;
 import org.basex.build.json.JsonOptions;
 import org.basex.build.json.JsonSerialOptions;
 import org.basex.core.MainOptions;
+import org.basex.data.Data;
 import org.basex.io.IOContent;
 import org.basex.io.serial.SerialMethod;
 import org.basex.io.serial.Serializer;
@@ -10,10 +12,12 @@ import org.basex.io.serial.SerializerOptions;
 import org.basex.query.QueryContext;
 import org.basex.query.QueryException;
 import org.basex.query.iter.Iter;
+import org.basex.query.up.Updates;
 import org.basex.query.value.item.Item;
 import org.basex.query.value.node.DBNode;
 import org.basex.query.value.type.NodeType;
 import org.basex.query.value.type.SeqType;
+import org.basex.util.Token;
 import org.basex.util.options.Options;
 import org.fusesource.lmdbjni.Transaction;
 
@@ -22,11 +26,33 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class LmdbQueryContext extends QueryContext implements Closeable {
 
+    private static final Logger logger = Logger.getLogger(LmdbQueryContext.class);
+
     private Transaction tx = null;
+    /** Set if the transaction is committed by {@link LmdbWriteCoordinator}. */
+    private boolean grouped;
+    /** Set if the query is evaluated on a read snapshot and only its updates are applied in a write transaction. */
+    private final boolean optimistic;
+    /** Set if the read transaction was acquired from {@link LmdbReaders}, and is returned on close. */
+    private boolean pooled;
+    /** Set for streamed results, see {@link #queryStream(String, String, Map, String)}. */
+    private volatile boolean streaming;
+    /** Held while a streamed result is read or closed. */
+    private final ReentrantLock reading = new ReentrantLock();
+    private final String query;
+
+    /** Evaluations of optimistic updating queries before they are evaluated in the write transaction. */
+    private static volatile int attempts = 3;
+    private static final AtomicLong conflicts = new AtomicLong();
 
     public LmdbQueryContext(final String query) throws QueryException {
         this(query, null, null, new MainOptions(), null);
@@ -54,9 +80,15 @@ public class LmdbQueryContext extends QueryContext implements Closeable {
     }
 
     public LmdbQueryContext(final String query, final String context, final Map<String,Object> var, final MainOptions opt, Transaction tx) throws QueryException {
+        this(query, context, var, opt, tx, false);
+    }
+
+    private LmdbQueryContext(final String query, final String context, final Map<String,Object> var, final MainOptions opt, Transaction tx, boolean optimistic) throws QueryException {
         super(opt, null);
         resources = new LmdbQueryResources(this);
         this.tx = tx;
+        this.optimistic = optimistic;
+        this.query = query;
         try {
             parse(query);
             if (context != null) context(new DBNode(new IOContent(context)));
@@ -80,16 +112,52 @@ public class LmdbQueryContext extends QueryContext implements Closeable {
     public Transaction tx() {
         if(tx != null) return tx;
         if(LmdbDataManager.env == null) return null;
-        tx = updating ? LmdbDataManager.env.createWriteTransaction() : LmdbDataManager.env.createReadTransaction();
+        if(updating && !optimistic) {
+            tx = LmdbDataManager.env.createWriteTransaction();
+        } else {
+            tx = LmdbReaders.acquire(this);
+            pooled = true;
+        }
         return tx;
     }
 
+    /**
+     * Query string, for logging.
+     * @return query
+     */
+    String query() {
+        return query;
+    }
+
+    /**
+     * Stops the query, as its snapshot is too old, see {@link LmdbReaders#maxAge(long)}. A streamed result which is
+     * not being read is closed, which releases its snapshot: further reads fail.
+     */
+    void expire() {
+        stop();
+        if(!streaming || !reading.tryLock()) return;
+        try {
+            close();
+        } catch(IOException ioe) {
+            logger.warn(ioe.getMessage());
+        } finally {
+            reading.unlock();
+        }
+    }
+
     @Override
     public void close() throws IOException {
         super.close();
-        if(tx == null) return;
-        if(!tx.isReadOnly()) tx.commit();
-        else tx.close();
+        if(tx == null || grouped) return;
+        if(!tx.isReadOnly()) {
+            LmdbDurability.commit(tx);
+            ((LmdbQueryResources) resources).reindex();
+        } else if(pooled) {
+            LmdbReaders.release(tx);
+            pooled = false;
+        } else {
+            tx.close();
+        }
         tx = null;
     }
 
@@ -131,6 +199,167 @@ public class LmdbQueryContext extends QueryContext implements Closeable {
         }
     }
 
+    /**
+     * Sets how often an updating query is evaluated on a read snapshot, before it is evaluated in the write
+     * transaction if the documents it updates keep changing. 0 always evaluates updating queries in the write
+     * transaction.
+     * @param attempts number of evaluations
+     */
+    public static void attempts(final int attempts) {
+        LmdbQueryContext.attempts = Math.max(0, attempts);
+    }
+
+    /**
+     * Number of optimistic evaluations of updating queries which were repeated, as a document they update was
+     * changed in the meantime.
+     * @return conflicts
+     */
+    public static long conflicts() {
+        return conflicts.get();
+    }
+
+    @Override
+    protected void apply(final Updates updates, final HashSet<Data> datas) throws QueryException {
+        if(!optimistic) {
+            super.apply(updates, datas);
+            return;
+        }
+        try {
+            LmdbWriteCoordinator.execute(new Apply(this, updates, datas));
+        } catch(IOException ioe) {
+            throw new QueryException(ioe);
+        }
+    }
+
+    /**
+     * Runs an updating query. The query is evaluated on a read snapshot, and its updates are applied by
+     * {@link LmdbWriteCoordinator}, committed together with the updates of concurrent queries: the write
+     * transaction is only taken for applying the updates. If a document to be updated was changed since the
+     * snapshot, the query is evaluated again, and finally in the write transaction, see {@link #attempts(int)}.
+     * The result is written once the updates are committed.
+     * @param query query
+     * @param opt main options
+     * @param result output stream
+     * @param method serialization method
+     * @return {@code false} if the query is not updating: its result is not written
+     * @throws QueryException query exception, or failed commit
+     */
+    public static boolean update(final String query, final MainOptions opt, final OutputStream result,
+                                 final String method) throws QueryException {
+        for(int a = 0; a < attempts; a++) {
+            final ByteArrayOutputStream bos = new ByteArrayOutputStream(512);
+            try(LmdbQueryContext ctx = new LmdbQueryContext(query, null, null, opt, null, true)) {
+                if(!ctx.updating) return false;
+                ctx.run(bos, method, false);
+            } catch(Conflict c) {
+                conflicts.incrementAndGet();
+                continue;
+            } catch(IOException ioe) {
+                throw new QueryException(ioe);
+            }
+            try {
+                bos.writeTo(result);
+            } catch(IOException ioe) {
+                throw new QueryException(ioe);
+            }
+            return true;
+        }
+        final Update update = new Update(query, opt, method);
+        try {
+            LmdbWriteCoordinator.execute(update);
+            if(!update.ctx.updating) return false;
+            update.result.writeTo(result);
+            return true;
+        } catch(IOException ioe) {
+            throw new QueryException(ioe);
+        }
+    }
+
+    /**
+     * Signals that a document to be updated by an optimistic query was changed since its read snapshot.
+     */
+    private static final class Conflict extends QueryException {
+        private static final long serialVersionUID = 1L;
+
+        Conflict(final String name) {
+            super("document " + name + " was changed by another update");
+        }
+    }
+
+    /**
+     * Updates of a query evaluated on a read snapshot, applied by the writer thread of
+     * {@link LmdbWriteCoordinator} if the updated documents are unchanged.
+     */
+    private static final class Apply extends LmdbWriteCoordinator.Job {
+        private final LmdbQueryContext ctx;
+        private final Updates updates;
+        private final HashSet<Data> datas;
+
+        Apply(final LmdbQueryContext ctx, final Updates updates, final HashSet<Data> datas) {
+            this.ctx = ctx;
+            this.updates = updates;
+            this.datas = datas;
+        }
+
+        @Override
+        void run(final Transaction wtx) throws QueryException, IOException {
+            final Transaction rtx = ctx.tx;
+            final ArrayList<LmdbData> docs = new ArrayList<LmdbData>(datas.size());
+            for(final Data d : datas) if(d instanceof LmdbData) docs.add((LmdbData) d);
+            for(final LmdbData d : docs) {
+                // written after the snapshot, or removed and created again
+                if(LmdbPageCache.stamp(d.docid) > rtx.getId() ||
+                   !Arrays.equals(d.docid, LmdbDataManager.coldb.get(wtx, Token.token(d.meta.name)))) {
+                    throw new Conflict(d.meta.name);
+                }
+            }
+            boolean applied = false;
+            try {
+                for(final LmdbData d : docs) d.beginWrite(wtx);
+                updates.apply(ctx);
+                applied = true;
+            } finally {
+                for(final LmdbData d : docs) d.endWrite(rtx, applied);
+            }
+        }
+
+        @Override
+        void committed() {
+            ((LmdbQueryResources) ctx.resources).reindex();
+        }
+    }
+
+    /**
+     * Updating query run by the writer thread of {@link LmdbWriteCoordinator}.
+     */
+    private static final class Update extends LmdbWriteCoordinator.Job {
+        private final String query;
+        private final MainOptions opt;
+        private final String method;
+        private final ByteArrayOutputStream result = new ByteArrayOutputStream(512);
+        private LmdbQueryContext ctx;
+
+        Update(final String query, final MainOptions opt, final String method) {
+            this.query = query;
+            this.opt = opt;
+            this.method = method;
+        }
+
+        @Override
+        void run(final Transaction tx) throws QueryException, IOException {
+            try(LmdbQueryContext c = new LmdbQueryContext(query, null, null, opt, tx)) {
+                c.grouped = true;
+                ctx = c;
+                if(c.updating) c.run(result, method, false);
+            }
+        }
+
+        @Override
+        void committed() {
+            ((LmdbQueryResources) ctx.resources).reindex();
+        }
+    }
+
     public static String queryString(final String query) throws QueryException {
         return queryString(query,null);
     }
@@ -145,9 +374,10 @@ public class LmdbQueryContext extends QueryContext implements Closeable {
         }
     }
 
-    public InputStream queryStream(final String query, final String context, final Map<String,Object> var, final String method) throws QueryException {
+    public static InputStream queryStream(final String query, final String context, final Map<String,Object> var, final String method) throws QueryException {
         final ByteArrayOutputStream result = new ByteArrayOutputStream();
         final LmdbQueryContext ctx = new LmdbQueryContext(query, context, var);
+        ctx.streaming = true;
         try {
             return new InputStream() {
                 private Serializer s = Serializer.get(result, getSerializerOptions(method));
@@ -156,15 +386,23 @@ public class LmdbQueryContext extends QueryContext implements Closeable {
                 private byte[] b = null;
                 private int off = -1;
                 public void close() throws IOException {
-                    s.close();
-                    ctx.close();
+                    ctx.reading.lock();
+                    try {
+                        s.close();
+                        ctx.close();
+                    } finally {
+                        ctx.reading.unlock();
+                    }
                 }
                 public int read() throws IOException {
                     if((b == null || off >= b.length) && !next()) return -1;
                     return (int)b[off++];
                 }
                 private boolean next() throws IOException {
+                    ctx.reading.lock();
                     try {
+                        // closed if the snapshot expired
+                        ctx.checkStop();
                         if((i = iter.next()) == null) return false;
                         result.reset();
                         if(i.type == NodeType.ATT || i.type == NodeType.NSP || i.type.instanceOf(SeqType.ANY_ARRAY)) {
@@ -178,6 +416,8 @@ public class LmdbQueryContext extends QueryContext implements Closeable {
                         return true;
                     } catch(QueryException qe) {
                         throw new IOException(qe);
+                    } finally {
+                        ctx.reading.unlock();
                     }
                 }
             };
@@ -7,9 +7,11 @@ import org.basex.build.xml.XMLParser;
 import org.basex.core.MainOptions;
 import org.basex.data.Data;
 import org.basex.io.IO;
+import org.basex.index.query.IndexToken;
 import org.basex.io.IOStream;
 import org.basex.query.QueryException;
 import org.basex.query.QueryResources;
+import org.basex.query.expr.path.Step;
 import org.basex.query.value.Value;
 import org.basex.query.value.item.QNm;
 import org.basex.query.value.node.ANode;
@@ -18,6 +20,7 @@ import org.basex.query.value.node.FElem;
 import org.basex.query.value.seq.Empty;
 import org.basex.util.InputInfo;
 import org.basex.util.QueryInput;
+import org.fusesource.lmdbjni.Transaction;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.support.rowset.SqlRowSet;
 import org.springframework.jdbc.support.rowset.SqlRowSetMetaData;
@@ -30,28 +33,80 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 
 @SuppressWarnings("unchecked")
 public class LmdbQueryResources extends QueryResources {
 
     ArrayList<Data> data = new ArrayList<Data>();
+    /** Documents opened by an updating query, see {@link #open(String)}. */
+    private final HashMap<String, Data> updated = new HashMap<String, Data>();
 
     LmdbQueryResources(final LmdbQueryContext qc) {
         super(qc);
     }
 
-    // TODO: basex-lmdb: accept document wildcard in collection for lmdb range search like 'col/doc*'
+    /**
+     * Returns the documents of a collection, or the documents selected by a name pattern or range, such as
+     * {@code col/doc*} or {@code col/2015-01..2015-03}, see {@link LmdbDataManager#listDocuments(String, boolean,
+     * Transaction)}.
+     */
     @Override
     public Value collection(final QueryInput qi, final IO baseIO, final InputInfo info) throws QueryException {
-        List col = null;
-        try {
-            col = LmdbDataManager.listDocuments(qi.original.trim(), true);
-            docs.addAll(col);
-        } catch (IOException e) {
-            throw new QueryException(e);
+        String name = qi.original.trim();
+        List<String> col = LmdbDataManager.listDocuments(name, true, tx());
+        docs.addAll(col);
+        int i = name.indexOf('/');
+        return col.isEmpty() ? Empty.SEQ : new LazyDBNodeSeq(i == -1 ? name : name.substring(0, i), col, this);
+    }
+
+    Transaction tx() {
+        return ((LmdbQueryContext) qc).tx();
+    }
+
+    boolean updating() {
+        return qc.updating;
+    }
+
+    /**
+     * Opens a document. The documents of updating queries are opened once, and closed with the query, so that
+     * their updates are written; other documents are not referenced by the query.
+     * @param name document name
+     * @return document
+     * @throws IOException I/O exception
+     */
+    Data open(final String name) throws IOException {
+        if(!updating()) return LmdbDataManager.openDocument(name, qc.options, tx());
+        Data d = updated.get(name);
+        if(d == null) {
+            d = LmdbDataManager.openDocument(name, qc.options, tx());
+            updated.put(name, d);
+            data.add(d);
         }
-        return docs.isEmpty() ? Empty.SEQ : new LazyDBNodeSeq(col, qc.options, ((LmdbQueryContext)qc).tx());
+        return d;
+    }
+
+    /**
+     * Skips documents with the path summary and the value index of the collection, see
+     * {@link LmdbCollectionPaths} and {@link LmdbCollectionIndex}.
+     */
+    @Override
+    public Value docs(final Value docs, final ArrayList<Step> steps, final ArrayList<IndexToken[]> tokens) {
+        if(!(docs instanceof LazyDBNodeSeq)) return null;
+        final Value paths = LmdbCollectionPaths.docs((LazyDBNodeSeq) docs, steps);
+        final Value seq = paths == null ? docs : paths;
+        if(tokens.isEmpty() || !(seq instanceof LazyDBNodeSeq)) return paths;
+        final Value values = LmdbCollectionIndex.docs((LazyDBNodeSeq) seq, tokens);
+        return values == null ? paths : values;
+    }
+
+    /**
+     * Counts results with the path summary of the collection, see {@link LmdbCollectionPaths}.
+     */
+    @Override
+    public long size(final Value docs, final ArrayList<Step> steps) {
+        return docs instanceof LazyDBNodeSeq ? LmdbCollectionPaths.size((LazyDBNodeSeq) docs, steps) : -1;
     }
 
     @Override
@@ -61,9 +116,9 @@ public class LmdbQueryResources extends QueryResources {
         // TODO: basex-lmdb: review
         if (uri.startsWith("bxl://")) {
             String docURI = uri.substring(6);
-            Data d = LmdbDataManager.openDocument(docURI, qc.options, ((LmdbQueryContext)qc).tx());
+            Data d = open(docURI);
             if(d == null) throw new IOException("error opening document " + uri);
-            data.add(d);
+            if(!updating()) data.add(d);
             return new DBNode(d);
         }
 
@@ -112,6 +167,13 @@ public class LmdbQueryResources extends QueryResources {
 
     }
 
+    /**
+     * Queues updated documents for indexing, once their updates are committed.
+     */
+    void reindex() {
+        for(Data d: data) if(d instanceof LmdbData && ((LmdbData) d).updated) LmdbIndexer.submit(d.meta.name);
+    }
+
     @Override
     protected void close() {
         for(Data d: data) d.close();
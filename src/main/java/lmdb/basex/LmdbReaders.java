@@ -0,0 +1,320 @@
+package lmdb.basex;
+
+import org.apache.log4j.Logger;
+import org.fusesource.lmdbjni.Database;
+import org.fusesource.lmdbjni.LMDBException;
+import org.fusesource.lmdbjni.Stat;
+import org.fusesource.lmdbjni.Transaction;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static lmdb.basex.LmdbDataManager.attrangesdb;
+import static lmdb.basex.LmdbDataManager.attributevaldb;
+import static lmdb.basex.LmdbDataManager.attvaluesdb;
+import static lmdb.basex.LmdbDataManager.coldb;
+import static lmdb.basex.LmdbDataManager.colpathsdb;
+import static lmdb.basex.LmdbDataManager.colvaluesdb;
+import static lmdb.basex.LmdbDataManager.env;
+import static lmdb.basex.LmdbDataManager.ftindexdb;
+import static lmdb.basex.LmdbDataManager.structdb;
+import static lmdb.basex.LmdbDataManager.tableaccessdb;
+import static lmdb.basex.LmdbDataManager.textdatadb;
+import static lmdb.basex.LmdbDataManager.txtrangesdb;
+import static lmdb.basex.LmdbDataManager.txtvaluesdb;
+
+/**
+ * Read transactions of queries. Finished transactions are reset ({@code mdb_txn_reset}) and kept in a pool, and
+ * renewed ({@code mdb_txn_renew}) for the next query: a renewed transaction reads the latest snapshot, and keeps
+ * its slot in the reader table, so short queries don't allocate a transaction and a slot each time. The
+ * environment is opened with {@code MDB_NOTLS}: transactions are not bound to the thread which created them, a
+ * query may be closed by another thread, and a thread may have several read transactions.
+ *
+ * Pooled transactions take slots of the reader table (126 by default): at most {@link #capacity(int)} are kept.
+ *
+ * The transactions of running queries are registered with their query. A snapshot pins the pages freed after it,
+ * which can't be reused while it is read, and the file grows with the following writes: every
+ * {@link #check(long)}, queries whose snapshot is older than {@link #maxAge(long)} are stopped, and streamed
+ * results which are not read are closed, see {@link LmdbQueryContext#expire()}. Slots of crashed processes are
+ * cleared with {@code mdb_reader_check}, and stamps of {@link LmdbPageCache} older than every snapshot are
+ * dropped.
+ */
+public final class LmdbReaders {
+
+    private static final Logger logger = Logger.getLogger(LmdbReaders.class);
+
+    private static volatile int capacity = 32;
+    private static volatile long maxAge = 300000;
+    private static volatile long check = 10000;
+
+    /** Reset transactions, the last returned is renewed first. */
+    private static final ConcurrentLinkedDeque<Transaction> pool = new ConcurrentLinkedDeque<Transaction>();
+    private static final AtomicInteger pooled = new AtomicInteger();
+    /** Transactions of running queries. */
+    private static final ConcurrentHashMap<Transaction, Reader> readers = new ConcurrentHashMap<Transaction, Reader>();
+
+    private static Thread reaper;
+    private static volatile boolean running;
+    private static final Object signal = new Object();
+
+    private static final AtomicLong acquired = new AtomicLong();
+    private static final AtomicLong renewed = new AtomicLong();
+    private static final AtomicLong expired = new AtomicLong();
+    private static final AtomicLong stale = new AtomicLong();
+
+    private LmdbReaders() { }
+
+    /**
+     * Transaction of a running query.
+     */
+    private static final class Reader {
+        final LmdbQueryContext query;
+        final long snapshot;
+        final long started = System.currentTimeMillis();
+        final String thread = Thread.currentThread().getName();
+        boolean expired;
+
+        Reader(final LmdbQueryContext query, final long snapshot) {
+            this.query = query;
+            this.snapshot = snapshot;
+        }
+    }
+
+    /**
+     * Sets the maximum number of pooled transactions. 0 disables the pool.
+     * @param transactions number of transactions
+     */
+    public static void capacity(final int transactions) {
+        capacity = Math.max(0, transactions);
+    }
+
+    /**
+     * Sets the maximum age of the snapshot of a query. 0 never stops queries.
+     * @param millis milliseconds
+     */
+    public static void maxAge(final long millis) {
+        maxAge = Math.max(0, millis);
+        wake();
+    }
+
+    /**
+     * Sets the time between two checks of the snapshots of queries and the reader table.
+     * @param millis milliseconds
+     */
+    public static void check(final long millis) {
+        check = Math.max(1, millis);
+        wake();
+    }
+
+    private static void wake() {
+        synchronized(signal) {
+            signal.notifyAll();
+        }
+    }
+
+    static synchronized void start() {
+        if(running) return;
+        running = true;
+        reaper = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                work();
+            }
+        }, "lmdb-readers");
+        reaper.setDaemon(true);
+        reaper.start();
+    }
+
+    /**
+     * Stops the checks and closes the pooled transactions, before the environment is closed.
+     */
+    static synchronized void stop() {
+        if(running) {
+            running = false;
+            reaper.interrupt();
+            try {
+                reaper.join();
+            } catch(InterruptedException ignored) {
+            }
+        }
+        // free pages are counted with a walk of every database: not on stop
+        logger.info(counters());
+        Transaction tx;
+        while((tx = pool.pollFirst()) != null) {
+            pooled.decrementAndGet();
+            tx.abort();
+        }
+    }
+
+    /** Acquired read transactions. */
+    public static long acquired() { return acquired.get(); }
+
+    /** Acquired read transactions which were renewed from the pool. */
+    public static long renewed() { return renewed.get(); }
+
+    /** Pooled read transactions. */
+    public static int pooled() { return pooled.get(); }
+
+    /** Read transactions of running queries. */
+    public static int readers() { return readers.size(); }
+
+    /** Queries stopped as their snapshot was too old. */
+    public static long expired() { return expired.get(); }
+
+    /** Slots of crashed processes cleared from the reader table. */
+    public static long stale() { return stale.get(); }
+
+    /**
+     * Age of the oldest snapshot of a running query.
+     * @return milliseconds, or 0 if no query is running
+     */
+    public static long oldest() {
+        long started = Long.MAX_VALUE;
+        for(final Reader r : readers.values()) started = Math.min(started, r.started);
+        return started == Long.MAX_VALUE ? 0 : System.currentTimeMillis() - started;
+    }
+
+    /**
+     * Number of write transactions committed since the oldest snapshot of a running query: the pages they freed
+     * can't be reused yet.
+     * @return transactions
+     */
+    public static long lag() {
+        long snapshot = Long.MAX_VALUE;
+        for(final Reader r : readers.values()) snapshot = Math.min(snapshot, r.snapshot);
+        return snapshot == Long.MAX_VALUE || env == null ? 0 : env.info().getLastTxnId() - snapshot;
+    }
+
+    /**
+     * Oldest snapshot of a running query.
+     * @return transaction id, or the id of the last committed transaction if no query is running
+     */
+    static long snapshot() {
+        long snapshot = env.info().getLastTxnId();
+        for(final Reader r : readers.values()) snapshot = Math.min(snapshot, r.snapshot);
+        return snapshot;
+    }
+
+    /**
+     * Used slots of the reader table, including the slots of pooled transactions.
+     * @return slots
+     */
+    public static long slots() {
+        return env == null ? 0 : env.info().getNumReaders();
+    }
+
+    /**
+     * Pages of the file which are not used by any database: pages in the freelist, which are reused by the
+     * following writes once no snapshot needs them, and the pages of the freelist itself.
+     * @return pages
+     */
+    public static long freePages() {
+        if(env == null) return 0;
+        final long last = env.info().getLastPgNo();
+        long used = 2 + pages(env.stat());
+        try(Transaction tx = env.createReadTransaction()) {
+            for(final Database db : new Database[] { coldb, structdb, tableaccessdb, textdatadb, attributevaldb,
+                    txtvaluesdb, attvaluesdb, txtrangesdb, attrangesdb, ftindexdb, colvaluesdb, colpathsdb }) {
+                used += pages(db.stat(tx));
+            }
+        }
+        return Math.max(0, last + 1 - used);
+    }
+
+    public static String stats() {
+        return counters() + " lag=" + lag() + " slots=" + slots() + " free=" + freePages();
+    }
+
+    private static String counters() {
+        return "readers: acquired=" + acquired() + " renewed=" + renewed() + " pooled=" + pooled() + " running=" +
+               readers() + " oldest=" + oldest() + "ms expired=" + expired() + " stale=" + stale();
+    }
+
+    /**
+     * Returns a read transaction on the latest snapshot for a query, renewed from the pool if possible.
+     * @param query query
+     * @return read transaction, to be returned with {@link #release(Transaction)}
+     */
+    static Transaction acquire(final LmdbQueryContext query) {
+        final Transaction tx = acquire();
+        readers.put(tx, new Reader(query, tx.getId()));
+        return tx;
+    }
+
+    private static Transaction acquire() {
+        acquired.incrementAndGet();
+        Transaction tx;
+        while((tx = pool.pollFirst()) != null) {
+            pooled.decrementAndGet();
+            try {
+                tx.renew();
+                renewed.incrementAndGet();
+                return tx;
+            } catch(LMDBException e) {
+                logger.warn("readers: renew failed: " + e.getMessage());
+                tx.abort();
+            }
+        }
+        return env.createReadTransaction();
+    }
+
+    /**
+     * Returns a read transaction: it is reset, which releases its snapshot, and pooled, or closed if the pool is
+     * full.
+     * @param tx read transaction
+     */
+    static void release(final Transaction tx) {
+        readers.remove(tx);
+        if(capacity > 0 && env != null) {
+            if(pooled.incrementAndGet() <= capacity) {
+                tx.reset();
+                pool.addFirst(tx);
+                return;
+            }
+            pooled.decrementAndGet();
+        }
+        tx.abort();
+    }
+
+    private static void work() {
+        while(running) {
+            try {
+                synchronized(signal) {
+                    signal.wait(check);
+                }
+            } catch(InterruptedException ie) {
+                continue;
+            }
+            try {
+                final int cleared = env.readerCheck();
+                if(cleared > 0) {
+                    stale.addAndGet(cleared);
+                    logger.warn("readers: cleared " + cleared + " slots of crashed processes");
+                }
+                LmdbPageCache.prune(snapshot());
+                if(logger.isDebugEnabled()) logger.debug(stats());
+                final long age = maxAge;
+                if(age == 0) continue;
+                final long now = System.currentTimeMillis();
+                for(final Reader r : readers.values()) {
+                    if(now - r.started <= age) continue;
+                    if(!r.expired) {
+                        r.expired = true;
+                        expired.incrementAndGet();
+                        logger.warn("readers: stopping query of " + r.thread + " after " + (now - r.started) +
+                                    "ms: " + r.query.query());
+                    }
+                    r.query.expire();
+                }
+            } catch(RuntimeException e) {
+                logger.warn("readers: " + e.getMessage());
+            }
+        }
+    }
+
+    private static long pages(final Stat stat) {
+        return stat.ms_branch_pages + stat.ms_leaf_pages + stat.ms_overflow_pages;
+    }
+}
@@ -0,0 +1,108 @@
+package lmdb.basex;
+
+import lmdb.util.Byte;
+import org.basex.data.Namespaces;
+import org.basex.index.IdPreMap;
+import org.basex.index.name.Names;
+import org.basex.index.path.PathSummary;
+import org.fusesource.lmdbjni.Transaction;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Decoded document structures (path summary, names, namespaces and id/pre map) per docid, shared by all
+ * read-only {@link LmdbData} instances. Entries are never modified: writers decode their own copy and stamp
+ * the document in {@link LmdbPageCache#invalidate}, which makes the cached version stale for every snapshot
+ * following the write. The same snapshot rules as for cached pages apply.
+ */
+final class LmdbStructCache {
+
+    private static volatile int capacity = 1024;
+
+    private static final LinkedHashMap<Integer, Struct> structs = new LinkedHashMap<Integer, Struct>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Integer, Struct> eldest) {
+            return size() > capacity;
+        }
+    };
+
+    private LmdbStructCache() { }
+
+    /**
+     * Sets the maximum number of cached documents. zero disables the cache.
+     * @param size number of documents
+     */
+    static void capacity(final int size) {
+        capacity = size;
+        synchronized(structs) {
+            if(size == 0) structs.clear();
+        }
+    }
+
+    /**
+     * Returns the cached structure of a document, if it is valid for the snapshot of the given transaction.
+     * @param docid document id
+     * @param tx read transaction
+     * @return structure or {@code null}
+     */
+    static Struct get(final byte[] docid, final Transaction tx) {
+        final long stamp = LmdbPageCache.stamp(docid);
+        if(capacity == 0 || tx.getId() < stamp) return null;
+        synchronized(structs) {
+            final Struct s = structs.get(Byte.getInt(docid));
+            if(s == null || s.version >= stamp) return s;
+            structs.remove(Byte.getInt(docid));
+            return null;
+        }
+    }
+
+    /**
+     * Caches the structure decoded from the snapshot of the given transaction.
+     * @param docid document id
+     * @param tx read transaction
+     * @param s structure
+     */
+    static void put(final byte[] docid, final Transaction tx, final Struct s) {
+        if(capacity == 0 || tx.getId() < LmdbPageCache.stamp(docid)) return;
+        synchronized(structs) {
+            structs.put(Byte.getInt(docid), s);
+        }
+    }
+
+    static void clear() {
+        synchronized(structs) {
+            structs.clear();
+        }
+    }
+
+    static void purge(final byte[] docid) {
+        synchronized(structs) {
+            structs.remove(Byte.getInt(docid));
+        }
+    }
+
+    static final class Struct {
+        /** Serialized meta data: meta data carries per query options and is decoded for each instance. */
+        final byte[] meta;
+        /** Path summary without data reference, see {@link PathSummary#copy}. */
+        final PathSummary paths;
+        final Namespaces nspaces;
+        final Names elemNames;
+        final Names attrNames;
+        final IdPreMap idmap;
+        /** Snapshot (transaction id) the structure was read from. */
+        final long version;
+
+        Struct(final byte[] meta, final PathSummary paths, final Namespaces nspaces, final Names elemNames,
+               final Names attrNames, final IdPreMap idmap, final long version) {
+            this.meta = meta;
+            this.paths = paths;
+            this.nspaces = nspaces;
+            this.elemNames = elemNames;
+            this.attrNames = attrNames;
+            this.idmap = idmap;
+            this.version = version;
+        }
+    }
+}
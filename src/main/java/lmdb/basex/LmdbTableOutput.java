@@ -1,17 +1,22 @@
 package lmdb.basex;
 
 import org.apache.commons.io.output.ByteArrayOutputStream;
+import org.basex.io.IO;
 import org.basex.io.out.DataOutput;
 import org.basex.io.out.TableOutput;
 
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
 
 import static lmdb.basex.LmdbDataManager.tableaccessdb;
+import static lmdb.util.Byte.lmdbkey;
 
 public class LmdbTableOutput extends TableOutput {
 
     private byte[] docid;
+    private byte[] struct;
 
     public LmdbTableOutput(LmdbMetaData md, String fn, byte[] did) throws IOException {
         super(md);
@@ -20,6 +25,66 @@ public class LmdbTableOutput extends TableOutput {
         docid = did;
     }
 
+    /**
+     * Writes each page straight into the table database as it fills.
+     * @param md meta data
+     * @param batch write batch
+     * @param did document id
+     */
+    LmdbTableOutput(LmdbMetaData md, final LmdbWriteBatch batch, byte[] did) {
+        super(md);
+        docid = did;
+        os = new OutputStream() {
+            /** Current page, filled by single bytes and partial writes. */
+            private final byte[] buffer = new byte[IO.BLOCKSIZE];
+            private int pos;
+            private int page;
+
+            @Override
+            public void write(final int b) {
+                buffer[pos++] = (byte) b;
+                if(pos == buffer.length) flushPage();
+            }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) {
+                // whole pages, as written by the table output, are stored without copy
+                if(pos == 0 && len == buffer.length) {
+                    batch.append(tableaccessdb, lmdbkey(docid, page++),
+                            off == 0 && len == b.length ? b : Arrays.copyOfRange(b, off, off + len));
+                    return;
+                }
+                for(int o = off, end = off + len; o < end;) {
+                    final int n = Math.min(end - o, buffer.length - pos);
+                    System.arraycopy(b, o, buffer, pos, n);
+                    pos += n;
+                    o += n;
+                    if(pos == buffer.length) flushPage();
+                }
+            }
+
+            @Override
+            public void close() {
+                if(pos > 0) flushPage();
+            }
+
+            private void flushPage() {
+                // pages are read at fixed offsets: a partial last page is padded
+                Arrays.fill(buffer, pos, buffer.length, (byte) 0);
+                batch.append(tableaccessdb, lmdbkey(docid, page++), buffer.clone());
+                pos = 0;
+            }
+        };
+    }
+
+    /**
+     * Returns the table directory to be stored under {@link TableLmdbAccess#getStructKey}, available after close.
+     * @return serialized directory
+     */
+    byte[] struct() {
+        return struct;
+    }
+
     @Override
     public void close() throws IOException {
         // store at least one page on disk
@@ -32,7 +97,7 @@ public class LmdbTableOutput extends TableOutput {
             out.writeNum(pages);
             out.writeNum(empty ? 0 : Integer.MAX_VALUE);
             out.flush();
-            tableaccessdb.put(TableLmdbAccess.getStructKey(docid), bos.toByteArray());
+            struct = bos.toByteArray();
         }
     }
 }
@@ -0,0 +1,142 @@
+package lmdb.basex;
+
+import lmdb.util.Byte;
+import org.basex.index.query.EntryIterator;
+import org.basex.util.Num;
+import org.basex.util.list.IntList;
+import org.basex.util.list.TokenList;
+import org.fusesource.lmdbjni.Cursor;
+import org.fusesource.lmdbjni.Database;
+import org.fusesource.lmdbjni.Entry;
+import org.fusesource.lmdbjni.GetOp;
+import org.fusesource.lmdbjni.SeekOp;
+import org.fusesource.lmdbjni.Transaction;
+
+import java.util.Arrays;
+
+import static org.basex.util.Token.diff;
+import static org.basex.util.Token.startsWith;
+
+/**
+ * Iterator over the terms of a document in an index database with one key per term, {@code docid + term},
+ * mapped to a list starting with its number of entries in the {@link Num} format; the number of terms is
+ * stored under {@link #sizeKey}. Terms are returned in ascending or descending order, reading {@link #CHUNK}
+ * keys per cursor positioning: the cursor is closed before the terms are returned, as callers don't close
+ * iterators.
+ */
+final class LmdbTerms implements EntryIterator {
+
+    /** Number of keys read per cursor positioning. */
+    private static final int CHUNK = 256;
+
+    private final Database db;
+    private final Transaction tx;
+    private final byte[] docid;
+    private final boolean descending;
+    /** Prefix of the returned terms, or {@code null}. */
+    private final byte[] prefix;
+    private final TokenList keys = new TokenList(CHUNK);
+    private final IntList counts = new IntList(CHUNK);
+    private final IntList sizes = new IntList(CHUNK);
+    /** Key to continue from, or {@code null} when all keys were read. */
+    private byte[] from;
+    /** {@link #from} was returned already. */
+    private boolean skip;
+    private int k;
+    /** Number of entries of the last returned term. */
+    int count = -1;
+    /** Size of the list of the last returned term. */
+    int bytes;
+
+    /**
+     * Constructor.
+     * @param db index database
+     * @param tx transaction
+     * @param docid document id
+     * @param from first key: descending iterators start with the key before it
+     * @param descending descending order
+     * @param prefix prefix of all returned terms, or {@code null}
+     */
+    LmdbTerms(final Database db, final Transaction tx, final byte[] docid, final byte[] from,
+              final boolean descending, final byte[] prefix) {
+        this.db = db;
+        this.tx = tx;
+        this.docid = docid;
+        this.from = from;
+        this.descending = descending;
+        this.prefix = prefix;
+    }
+
+    /**
+     * Returns the key of the number of terms of a document, which sorts after every term since UTF-8 never
+     * contains {@code 0xff}.
+     * @param docid document id
+     * @return key
+     */
+    static byte[] sizeKey(final byte[] docid) {
+        return new byte[] { docid[0], docid[1], docid[2], docid[3], (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff };
+    }
+
+    /**
+     * Checks if a database key is a term of a document, and not its {@link #sizeKey}.
+     * @param docid document id
+     * @param key key
+     * @return result of check
+     */
+    static boolean term(final byte[] docid, final byte[] key) {
+        return key.length >= 4 && Byte.getInt(key) == Byte.getInt(docid) && (key.length == 4 || key[4] != (byte) 0xff);
+    }
+
+    /**
+     * Returns the term of a key.
+     * @param key key
+     * @return term
+     */
+    static byte[] term(final byte[] key) {
+        return Arrays.copyOfRange(key, 4, key.length);
+    }
+
+    @Override
+    public byte[] next() {
+        if(k == keys.size()) read();
+        if(k == keys.size()) {
+            count = -1;
+            return null;
+        }
+        count = counts.get(k);
+        bytes = sizes.get(k);
+        return keys.get(k++);
+    }
+
+    @Override
+    public int count() {
+        return count;
+    }
+
+    private void read() {
+        keys.reset();
+        counts.reset();
+        sizes.reset();
+        k = 0;
+        if(from == null) return;
+        try(Cursor c = db.openCursor(tx)) {
+            Entry e = c.seek(SeekOp.RANGE, from);
+            if(descending) {
+                // continue with the key before the first key at or after the start key
+                e = c.get(e == null ? GetOp.LAST : GetOp.PREV);
+            } else if(skip && e != null && diff(e.getKey(), from) == 0) {
+                e = c.get(GetOp.NEXT);
+            }
+            skip = true;
+            for(; e != null && term(docid, e.getKey()) && keys.size() < CHUNK; e = c.get(descending ? GetOp.PREV : GetOp.NEXT)) {
+                final byte[] term = term(e.getKey());
+                if(prefix != null && !startsWith(term, prefix)) break;
+                keys.add(term);
+                counts.add(Num.get(e.getValue(), 0));
+                sizes.add(e.getValue().length);
+                from = e.getKey();
+            }
+            if(keys.size() < CHUNK) from = null;
+        }
+    }
+}
@@ -1,9 +1,8 @@
 package lmdb.basex;
 
+import lmdb.util.Byte;
 import org.basex.core.MainOptions;
 import org.basex.data.Data;
-import org.basex.index.IndexCache;
-import org.basex.index.IndexEntry;
 import org.basex.index.query.EntryIterator;
 import org.basex.index.query.IndexEntries;
 import org.basex.index.query.IndexIterator;
@@ -12,22 +11,31 @@ import org.basex.index.query.NumericRange;
 import org.basex.index.query.StringRange;
 import org.basex.index.stats.IndexStats;
 import org.basex.index.value.ValueIndex;
+import org.basex.query.QueryException;
+import org.basex.query.value.item.ADate;
+import org.basex.query.value.item.Dat;
+import org.basex.query.value.item.Dtm;
+import org.basex.query.value.type.AtomType;
 import org.basex.util.Num;
 import org.basex.util.Performance;
 import org.basex.util.TokenBuilder;
 import org.basex.util.Util;
-import org.basex.util.hash.IntObjMap;
 import org.basex.util.hash.TokenObjMap;
 import org.basex.util.list.IntList;
+import org.fusesource.lmdbjni.Cursor;
+import org.fusesource.lmdbjni.Database;
+import org.fusesource.lmdbjni.Entry;
+import org.fusesource.lmdbjni.GetOp;
+import org.fusesource.lmdbjni.SeekOp;
 import org.fusesource.lmdbjni.Transaction;
 
 import java.io.IOException;
 import java.util.concurrent.atomic.AtomicInteger;
 
-import static lmdb.basex.LmdbDataManager.attindexldb;
-import static lmdb.basex.LmdbDataManager.attindexrdb;
-import static lmdb.basex.LmdbDataManager.txtindexldb;
-import static lmdb.basex.LmdbDataManager.txtindexrdb;
+import static lmdb.basex.LmdbDataManager.attrangesdb;
+import static lmdb.basex.LmdbDataManager.attvaluesdb;
+import static lmdb.basex.LmdbDataManager.txtrangesdb;
+import static lmdb.basex.LmdbDataManager.txtvaluesdb;
 
 import static org.basex.core.Text.LI_NAMES;
 import static org.basex.core.Text.LI_SIZE;
@@ -36,32 +44,67 @@ import static org.basex.core.Text.NL;
 import static org.basex.core.Text.SORTED_LIST;
 import static org.basex.data.DataText.DATAATV;
 import static org.basex.data.DataText.DATATXT;
+import static org.basex.util.Token.INF;
+import static org.basex.util.Token.NINF;
+import static org.basex.util.Token.concat;
+import static org.basex.util.Token.contains;
 import static org.basex.util.Token.diff;
-import static org.basex.util.Token.startsWith;
+import static org.basex.util.Token.digit;
+import static org.basex.util.Token.eq;
+import static org.basex.util.Token.toDouble;
 import static org.basex.util.Token.token;
-
+import static org.basex.util.Token.trim;
+
+/**
+ * Text or attribute value index of a document. Every distinct value is a key of its own, {@code docid + value},
+ * mapped to the compressed list of the ids of its nodes (see {@link #ids(int[])}); the number of keys is stored
+ * under {@link LmdbTerms#sizeKey}. Lookups are a single get, prefix and range queries walk a cursor, and the
+ * values are read from the keys instead of the main table. Readers share no mutable state: every lookup reads
+ * from the transaction of the document with a cursor of its own.
+ *
+ * If enabled with {@link LmdbIndexer#ranges(boolean)}, numeric values and xs:date/xs:dateTime values are also
+ * stored as typed keys, {@code docid + kind + number} (see {@link #typed(byte[])}), in the order of their values,
+ * and range queries seek to the first matching key instead of checking all values. Dates are stored as their
+ * seconds in UTC; dates without timezone are stored in local time under kinds of their own, and their ranges are
+ * shifted by the implicit timezone when queried, as in the comparisons of the query.
+ */
 public class LmdbValues extends ValueIndex {
 
-    /** ID references. */
-    final LmdbDataAccess idxr;
-    /** ID lists. */
-    final LmdbDataAccess idxl;
-    /** Cached index entries: mapping between keys and index entries. */
-    final IndexCache cache = new IndexCache();
-    /** Cached texts: mapping between key positions and indexed texts. */
-    final IntObjMap<byte[]> ctext = new IntObjMap<>();
+    /** Kinds of typed keys: numbers, dates and dateTimes with timezone, dates and dateTimes without. */
+    static final byte NUMBER = 'n', DATE = 'd', DATE_TIME = 't', LOCAL_DATE = 'D', LOCAL_DATE_TIME = 'T';
+
+    /** Index database. */
+    final Database db;
+    /** Database of typed keys. */
+    final Database rdb;
+    /** Numeric and date values are stored as typed keys. */
+    final boolean ranges;
+    final byte[] docid;
+    final Transaction tx;
     /** Number of current index entries. */
     final AtomicInteger size = new AtomicInteger();
 
-    /** Synchronization object. */
-    private final Object monitor = new Object();
-
-
     public LmdbValues(final Data data, final boolean text, final byte[] docid, final Transaction tx) throws IOException {
         super(data, text);
-        idxl = new LmdbDataAccess(docid, text ? txtindexldb : attindexldb, tx);
-        idxr = new LmdbDataAccess(docid, text ? txtindexrdb : attindexrdb, tx);
-        size.set(idxl.read4());
+        this.docid = docid;
+        this.tx = tx;
+        db = text ? txtvaluesdb : attvaluesdb;
+        rdb = text ? txtrangesdb : attrangesdb;
+        ranges = rdb.get(tx, LmdbTerms.sizeKey(docid)) != null;
+        final byte[] sz = db.get(tx, LmdbTerms.sizeKey(docid));
+        if(sz == null) throw new IOException((text ? "text" : "attribute") + " index of " + data.meta.name + " not found");
+        size.set(Byte.getInt(sz));
+    }
+
+    /**
+     * Checks if the index of a document exists, documents indexed by older versions have none.
+     * @param docid document id
+     * @param text text or attribute index
+     * @param tx transaction
+     * @return result of check
+     */
+    static boolean exists(final byte[] docid, final boolean text, final Transaction tx) {
+        return (text ? txtvaluesdb : attvaluesdb).get(tx, LmdbTerms.sizeKey(docid)) != null;
     }
 
     @Override
@@ -71,16 +114,13 @@ public class LmdbValues extends ValueIndex {
         tb.add(LI_NAMES).add(text ? data.meta.textinclude : data.meta.attrinclude).add(NL);
 
         final IndexStats stats = new IndexStats(options.get(MainOptions.MAXSTAT));
-        synchronized(monitor) {
-            final long l = idxl.length() + idxr.length();
-            tb.add(LI_SIZE).add(Performance.format(l, true)).add(NL);
-            final int s = size();
-            for(int m = 0; m < s; ++m) {
-                final long pos = idxr.read5(m * 5L);
-                final int oc = idxl.readNum(pos);
-                if(stats.adding(oc)) stats.add(data.text(pre(idxl.readNum()), text), oc);
-            }
+        long l = 0;
+        final LmdbTerms terms = new LmdbTerms(db, tx, docid, docid, false, null);
+        for(byte[] key; (key = terms.next()) != null;) {
+            l += key.length + terms.bytes;
+            if(stats.adding(terms.count)) stats.add(key, terms.count);
         }
+        tb.add(LI_SIZE).add(Performance.format(l, true)).add(NL);
         stats.print(tb);
         return tb.finish();
     }
@@ -93,16 +133,24 @@ public class LmdbValues extends ValueIndex {
     @Override
     public final int costs(final IndexToken it) {
         if(it instanceof StringRange) return Math.max(1, data.meta.size / 10);
-        if(it instanceof NumericRange) return Math.max(1, data.meta.size / 3);
-        return entry(it.get()).size;
+        if(it instanceof NumericRange) return ranges ? range((NumericRange) it, null) : Math.max(1, data.meta.size / 3);
+        final byte[] ids = db.get(tx, key(it.get()));
+        return ids == null ? 0 : Num.get(ids, 0);
     }
 
     @Override
     public final IndexIterator iter(final IndexToken it) {
         if(it instanceof StringRange) return idRange((StringRange) it);
         if(it instanceof NumericRange) return idRange((NumericRange) it);
-        final IndexEntry e = entry(it.get());
-        return iter(e.size, e.offset);
+        final IntList pres = new IntList();
+        final byte[] ids = db.get(tx, key(it.get()));
+        if(ids != null) pres(ids, pres);
+        return iter(pres.sort());
+    }
+
+    @Override
+    public final boolean ranges() {
+        return ranges;
     }
 
     @Override
@@ -112,10 +160,6 @@ public class LmdbValues extends ValueIndex {
 
     @Override
     public final void close() {
-        synchronized(monitor) {
-            idxl.close();
-            idxr.close();
-        }
     }
 
     @Override
@@ -131,15 +175,13 @@ public class LmdbValues extends ValueIndex {
     @Override
     public final EntryIterator entries(final IndexEntries input) {
         final byte[] key = input.get();
-        if(key.length == 0) return allKeys(input.descending);
-        if(input.prefix) return keysWithPrefix(key);
-        return keysFrom(key, input.descending);
+        if(key.length == 0) return new LmdbTerms(db, tx, docid, input.descending ? LmdbTerms.sizeKey(docid) : docid, input.descending, null);
+        if(input.prefix) return new LmdbTerms(db, tx, docid, key(key), false, key);
+        return new LmdbTerms(db, tx, docid, key(key), input.descending, null);
     }
 
     @Override
     public final void flush() {
-        idxl.flush();
-        idxr.flush();
     }
 
     /**
@@ -152,288 +194,223 @@ public class LmdbValues extends ValueIndex {
     }
 
     /**
-     * Binary search for key in the {@code idxr} reference file.
-     * <p><em>Important:</em> This method is thread-safe.</p>
-     * @param key token to be found
-     * @return index of the key, or (-(insertion point) - 1)
+     * Returns the key of a value.
+     * @param value value
+     * @return key
      */
-    protected final int get(final byte[] key) {
-        return get(key, 0, size());
+    protected final byte[] key(final byte[] value) {
+        return concat(docid, value);
     }
 
     /**
-     * Binary search for key in the {@code #idxr} reference file.
-     * <p><em>Important:</em> This method is thread-safe.</p>
-     * @param key token to be found
-     * @param first begin of the search interval (inclusive)
-     * @param last end of the search interval (exclusive)
-     * @return index of the key, or (-(insertion point) - 1)
+     * Compresses a sorted id list: the number of ids, followed by the first id and the distances to the
+     * previous ids, in the {@link Num} format.
+     * @param ids sorted ids
+     * @return compressed list
      */
-    protected final int get(final byte[] key, final int first, final int last) {
-        int l = first, h = last - 1;
-        synchronized(monitor) {
-            while(l <= h) {
-                final int m = l + h >>> 1;
-                final byte[] txt = indexEntry(m).key;
-                final int d = diff(txt, key);
-                if(d == 0) return m;
-                if(d < 0) l = m + 1;
-                else h = m - 1;
-            }
+    static byte[] ids(final int[] ids) {
+        final int is = ids.length;
+        int l = Num.length(is);
+        for(int i = 0, o = 0; i < is; o = ids[i++]) l += Num.length(ids[i] - o);
+        final byte[] list = new byte[l];
+        Num.set(list, is, 0);
+        for(int i = 0, o = 0, p = Num.length(is); i < is; o = ids[i++]) {
+            Num.set(list, ids[i] - o, p);
+            p += Num.length(ids[i] - o);
         }
-        return -(l + 1);
+        return list;
     }
 
-    // PRIVATE METHODS ==============================================================================
-
     /**
-     * Returns a cache entry.
-     * <p><em>Important:</em> This method is thread-safe.</p>
-     * @param tok token to be found or cached
-     * @return cache entry
+     * Returns the typed key of a numeric or date value, without the document id.
+     * @param value value
+     * @return typed key, or {@code null} if the value is neither numeric nor a date
      */
-    private IndexEntry entry(final byte[] tok) {
-        final IndexEntry e = cache.get(tok);
-        if(e != null) return e;
-
-        final long p = get(tok);
-        if(p < 0) return new IndexEntry(tok, 0, 0);
-
-        final int count;
-        final long offset;
-
-        synchronized(monitor) {
-            // get position in heap file
-            final long pos = idxr.read5(p * 5L);
-            // the first heap entry represents the number of hits
-            count = idxl.readNum(pos);
-            offset = idxl.cursor();
-        }
-
-        return cache.add(tok, count, offset);
+    static byte[] typed(final byte[] value) {
+        final byte[] number = number(value);
+        return number != null ? number : date(value);
     }
 
     /**
-     * Returns all index entries.
-     * @param reverse return in a reverse order
-     * @return entries
+     * Returns the typed key of a numeric value, without the document id: the kind {@link #NUMBER}, followed by
+     * the bits of the double value, with the sign bit flipped for positive and all bits flipped for negative
+     * numbers, so that the keys sort in the order of the values.
+     * @param value value
+     * @return typed key, or {@code null} if the value is not numeric
      */
-    private EntryIterator allKeys(final boolean reverse) {
-        final int s = size() - 1;
-        return reverse ? keysWithinReverse(0, s) : keysWithin(0, s);
+    static byte[] number(final byte[] value) {
+        double d = toDouble(value);
+        if(d != d) {
+            // infinite values, as accepted by xs:double
+            final byte[] v = trim(value);
+            d = eq(v, INF) ? Double.POSITIVE_INFINITY : eq(v, NINF) ? Double.NEGATIVE_INFINITY : d;
+        }
+        return d != d ? null : number(d);
     }
 
     /**
-     * Returns all index entries, starting from the specified key.
-     * @param key key
-     * @param reverse return in a reverse order
-     * @return entries
+     * Returns the typed key of a number, see {@link #number(byte[])}.
+     * @param d number
+     * @return typed key
      */
-    private EntryIterator keysFrom(final byte[] key, final boolean reverse) {
-        final int s = size() - 1;
-        int i = get(key);
-        if(i < 0) i = -i - 1;
-        return reverse ? keysWithinReverse(0, i - 1) : keysWithin(i, s);
+    static byte[] number(final double d) {
+        return typed(NUMBER, d);
     }
 
     /**
-     * Returns all index entries with the given prefix.
-     * @param prefix prefix
-     * @return entries
+     * Returns the typed key of an xs:date or xs:dateTime value, without the document id: the kind of the
+     * date, followed by its seconds (see {@link ADate#local()}) in the encoding of {@link #number(byte[])}.
+     * @param value value
+     * @return typed key, or {@code null} if the value is no date
      */
-    private EntryIterator keysWithPrefix(final byte[] prefix) {
-        final int i = get(prefix);
-        return new EntryIterator() {
-            final int s = size();
-            int ix = (i < 0 ? -i - 1 : i) - 1; // -1 in order to use the faster ++ix operator
-            int count = -1;
-
-            @Override
-            public byte[] next() {
-                if(++ix < s) {
-                    synchronized(monitor) {
-                        final IndexEntry entry = indexEntry(ix);
-                        if(startsWith(entry.key, prefix)) {
-                            count = entry.size;
-                            return entry.key;
-                        }
-                    }
-                }
-                count = -1;
-                return null;
-            }
-
-            @Override
-            public int count() {
-                return count;
-            }
-        };
+    static byte[] date(final byte[] value) {
+        // cheap check before parsing: a date starts with a year of at least four digits, followed by a dash
+        final byte[] v = trim(value);
+        final int start = v.length > 0 && v[0] == '-' ? 1 : 0;
+        int i = start;
+        while(i < v.length && digit(v[i])) i++;
+        if(i - start < 4 || i == v.length || v[i] != '-') return null;
+        final boolean time = contains(v, 'T');
+        final ADate date;
+        try {
+            date = time ? new Dtm(v, null) : new Dat(v, null);
+        } catch(final QueryException ex) {
+            return null;
+        }
+        final byte kind = date.tzDefined() ? time ? DATE_TIME : DATE : time ? LOCAL_DATE_TIME : LOCAL_DATE;
+        return typed(kind, date.local().doubleValue());
     }
 
     /**
-     * Returns all index entries within the given range.
-     * @param first first entry to be returned
-     * @param last last entry to be returned
-     * @return entries
+     * Returns a typed key, see {@link #number(byte[])}.
+     * @param kind kind of the key
+     * @param d number
+     * @return typed key
      */
-    private EntryIterator keysWithin(final int first, final int last) {
-        return new EntryIterator() {
-            int ix = first - 1;
-            int count = -1;
-
-            @Override
-            public byte[] next() {
-                if(++ix <= last) {
-                    synchronized(monitor) {
-                        final IndexEntry entry = indexEntry(ix);
-                        count = entry.size;
-                        return entry.key;
-                    }
-                }
-                count = -1;
-                return null;
-            }
-
-            @Override
-            public int count() {
-                return count;
-            }
-        };
+    private static byte[] typed(final byte kind, final double d) {
+        // positive and negative zero share a key
+        long bits = Double.doubleToLongBits(d == 0 ? 0d : d);
+        bits = bits < 0 ? ~bits : bits ^ Long.MIN_VALUE;
+        final byte[] key = new byte[9];
+        key[0] = kind;
+        for(int i = 8; i > 0; i--, bits >>>= 8) key[i] = (byte) bits;
+        return key;
     }
 
     /**
-     * Returns all index entries within the given range in a reverse order.
-     * @param first first entry to be returned
-     * @param last last entry to be returned
-     * @return entries
+     * Decompresses an id list.
+     * @param list compressed list
+     * @return sorted ids
      */
-    private EntryIterator keysWithinReverse(final int first, final int last) {
-        return new EntryIterator() {
-            int ix = last + 1;
-            int count = -1;
-
-            @Override
-            public byte[] next() {
-                if(--ix >= first) {
-                    synchronized(monitor) {
-                        final IndexEntry entry = indexEntry(ix);
-                        count = entry.size;
-                        return entry.key;
-                    }
-                }
-                count = -1;
-                return null;
-            }
-
-            @Override
-            public int count() {
-                return count;
-            }
-        };
+    static int[] ids(final byte[] list) {
+        final int[] ids = new int[Num.get(list, 0)];
+        for(int i = 0, id = 0, p = Num.length(list, 0); i < ids.length; i++) {
+            id += Num.get(list, p);
+            p += Num.length(list, p);
+            ids[i] = id;
+        }
+        return ids;
     }
 
+    // PRIVATE METHODS ==============================================================================
+
     /**
-     * Read a key at the given position.
-     * <p><em>Important:</em> This method is NOT thread-safe, since it is used in loops.</p>
-     * @param index key position
-     * @return index entry
+     * Adds the pre values of a compressed id list.
+     * @param list compressed id list
+     * @param pres pre values
      */
-    private IndexEntry indexEntry(final int index) {
-        // try the cache first
-        byte[] key = ctext.get(index);
-        if(key != null) {
-            final IndexEntry entry = cache.get(key);
-            if(entry != null) return entry;
-        }
-
-        // read text and cache result
-        final long pos = idxr.read5(index * 5L);
-        final int sz = idxl.readNum(pos);
-        final long off = pos + Num.length(sz);
-        if(key == null) {
-            key = data.text(pre(idxl.readNum()), text);
-            ctext.put(index, key);
-        }
-        return cache.add(key, sz, off);
+    private void pres(final byte[] list, final IntList pres) {
+        for(final int id : ids(list)) pres.add(pre(id));
     }
 
     /**
-     * Iterator method.
-     * <p><em>Important:</em> This method is thread-safe.</p>
-     * @param sz number of values
-     * @param offset offset
-     * @return iterator
+     * Performs a string-based range query.
+     * @param tok index term
+     * @return results
      */
-    private IndexIterator iter(final int sz, final long offset) {
-        final IntList pres = new IntList(sz);
-        synchronized(monitor) {
-            idxl.cursor(offset);
-            for(int i = 0, id = 0; i < sz; i++) {
-                id += idxl.readNum();
-                pres.add(pre(id));
+    private IndexIterator idRange(final StringRange tok) {
+        final IntList pres = new IntList();
+        try(Cursor c = db.openCursor(tx)) {
+            for(Entry e = c.seek(SeekOp.RANGE, key(tok.min)); e != null && LmdbTerms.term(docid, e.getKey()); e = c.get(GetOp.NEXT)) {
+                final byte[] value = LmdbTerms.term(e.getKey());
+                if(!tok.mni && diff(value, tok.min) == 0) continue;
+                // value is too large: skip traversal
+                final int d = diff(value, tok.max);
+                if(d > 0 || !tok.mxi && d == 0) break;
+                pres(e.getValue(), pres);
             }
         }
         return iter(pres.sort());
     }
 
     /**
-     * Performs a string-based range query.
-     * <p><em>Important:</em> This method is thread-safe.</p>
+     * Performs a range query on the typed keys.
      * @param tok index term
-     * @return results
+     * @param pres pre values of the results, or {@code null} if only the number of results is needed
+     * @return number of results
      */
-    private IndexIterator idRange(final StringRange tok) {
-        // check if min and max are positive integers with the same number of digits
-        final IntList pres = new IntList();
-        synchronized(monitor) {
-            final int i = get(tok.min);
-            final int s = size();
-            for(int l = i < 0 ? -i - 1 : tok.mni ? i : i + 1; l < s; l++) {
-                final int ps = idxl.readNum(idxr.read5(l * 5L));
-                int id = idxl.readNum();
-                final int pre = pre(id);
+    private int range(final NumericRange tok, final IntList pres) {
+        if(tok.type == null) return range(tok, NUMBER, tok.min, tok.max, pres);
+        // dates without timezone are compared in the implicit timezone
+        final boolean time = tok.type == AtomType.DTM;
+        final double zone = ADate.implicitZone() * 60;
+        return range(tok, time ? DATE_TIME : DATE, tok.min, tok.max, pres) +
+            range(tok, time ? LOCAL_DATE_TIME : LOCAL_DATE, tok.min + zone, tok.max + zone, pres);
+    }
 
-                // value is too large: skip traversal
-                final int d = diff(data.text(pre, text), tok.max);
+    /**
+     * Performs a range query on the typed keys of one kind.
+     * @param tok index term
+     * @param kind kind of the keys
+     * @param min minimum value
+     * @param max maximum value
+     * @param pres pre values of the results, or {@code null} if only the number of results is needed
+     * @return number of results
+     */
+    private int range(final NumericRange tok, final byte kind, final double min, final double max,
+                      final IntList pres) {
+        final byte[] from = concat(docid, typed(kind, min)), to = concat(docid, typed(kind, max));
+        int n = 0;
+        try(Cursor c = rdb.openCursor(tx)) {
+            for(Entry e = c.seek(SeekOp.RANGE, from); e != null; e = c.get(GetOp.NEXT)) {
+                final byte[] key = e.getKey();
+                // all values are compared with the upper bound, which belongs to the same document
+                final int d = diff(key, to);
                 if(d > 0 || !tok.mxi && d == 0) break;
-                // add pre values
-                for(int p = 0; p < ps; ++p) {
-                    pres.add(pre(id));
-                    id += idxl.readNum();
-                }
+                // skip the number of typed keys and an excluded lower bound
+                if(key.length != to.length || !tok.mni && diff(key, from) == 0) continue;
+                n += Num.get(e.getValue(), 0);
+                if(pres != null) pres(e.getValue(), pres);
             }
         }
-        return iter(pres.sort());
+        return n;
     }
 
     /**
      * Performs a range query. All index values must be numeric.
-     * <p><em>Important:</em> This method is thread-safe.</p>
      * @param tok index term
      * @return results
      */
     private IndexIterator idRange(final NumericRange tok) {
+        final IntList pres = new IntList();
+        if(ranges) {
+            range(tok, pres);
+            return iter(pres.sort());
+        }
+
         // check if min and max are positive integers with the same number of digits
         final double min = tok.min, max = tok.max;
         final int len = max > 0 && (long) max == max ? token(max).length : 0;
         final boolean simple = len != 0 && min > 0 && (long) min == min && token(min).length == len;
 
-        final IntList pres = new IntList();
-        synchronized(monitor) {
-            final int s = size();
-            for(int l = 0; l < s; ++l) {
-                final int ds = idxl.readNum(idxr.read5(l * 5L));
-                int id = idxl.readNum();
-                final int pre = pre(id);
-
-                final double v = data.textDbl(pre, text);
-                if(v >= min && v <= max) {
+        try(Cursor c = db.openCursor(tx)) {
+            for(Entry e = c.seek(SeekOp.RANGE, docid); e != null && LmdbTerms.term(docid, e.getKey()); e = c.get(GetOp.NEXT)) {
+                final byte[] value = LmdbTerms.term(e.getKey());
+                final double v = toDouble(value);
+                if(tok.contains(v)) {
                     // value is in range
-                    for(int d = 0; d < ds; ++d) {
-                        pres.add(pre(id));
-                        id += idxl.readNum();
-                    }
-                } else if(simple && v > max && data.textLen(pre, text) == len) {
+                    pres(e.getValue(), pres);
+                } else if(simple && v > max && value.length == len) {
                     // if limits are integers, if min, max and current value have the same
                     // string length, and if current value is larger than max, test can be
                     // skipped, as all remaining values will be bigger
@@ -468,26 +445,21 @@ public class LmdbValues extends ValueIndex {
      * @return string
      */
     public final String toString(final boolean all) {
-        final int sz = size();
         final TokenBuilder tb = new TokenBuilder();
         tb.add(text ? "TEXT" : "ATTRIBUTE").add(" INDEX, '").add(data.meta.name).add("':\n");
-        if(sz != 0) {
-            for(int m = 0; m < sz; m++) {
-                final long pos = idxr.read5(m * 5L);
-                final int oc = idxl.readNum(pos);
-                int id = idxl.readNum();
-                final int pre = all ? pre(id) : 0;
-                tb.add("  ").addInt(m).add(". offset: ").addLong(pos);
-                if(all) tb.add(", key: \"").add(data.text(pre, text)).add('"');
+        try(Cursor c = db.openCursor(tx)) {
+            int m = 0;
+            for(Entry e = c.seek(SeekOp.RANGE, docid); e != null && LmdbTerms.term(docid, e.getKey()); e = c.get(GetOp.NEXT)) {
+                tb.add("  ").addInt(m++);
+                if(all) tb.add(", key: \"").add(LmdbTerms.term(e.getKey())).add('"');
                 tb.add(", ids");
                 if(all) tb.add("/pres");
                 tb.add(": ");
-                tb.addInt(id);
-                if(all) tb.add('/').addInt(pre);
-                for(int n = 1; n < oc; n++) {
-                    id += idxl.readNum();
-                    tb.add(",").addInt(id);
-                    if(all) tb.add('/').addInt(pre(id));
+                final int[] ids = ids(e.getValue());
+                for(int n = 0; n < ids.length; n++) {
+                    if(n > 0) tb.add(",");
+                    tb.addInt(ids[n]);
+                    if(all) tb.add('/').addInt(pre(ids[n]));
                 }
                 tb.add("\n");
             }
@@ -1,76 +1,127 @@
 package lmdb.basex;
 
-import org.apache.commons.io.IOUtils;
+import lmdb.util.Byte;
 import org.basex.core.MainOptions;
 import org.basex.data.Data;
-import org.basex.index.value.DiskValues;
-import org.basex.index.value.DiskValuesBuilder;
-import org.basex.io.IO;
+import org.basex.index.IndexTree;
+import org.basex.index.ValuesBuilder;
+import org.basex.index.value.ValueIndex;
+import org.basex.util.Num;
+import org.basex.util.list.IntList;
 import org.fusesource.lmdbjni.Database;
-import org.fusesource.lmdbjni.Transaction;
 
-import java.io.BufferedInputStream;
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 
-import static lmdb.basex.LmdbDataManager.attindexldb;
-import static lmdb.basex.LmdbDataManager.attindexrdb;
-import static lmdb.basex.LmdbDataManager.env;
-import static lmdb.basex.LmdbDataManager.txtindexldb;
-import static lmdb.basex.LmdbDataManager.txtindexrdb;
-import static lmdb.util.Byte.lmdbkey;
-import static org.basex.data.DataText.DATAATV;
-import static org.basex.data.DataText.DATATXT;
+import static lmdb.basex.LmdbDataManager.attrangesdb;
+import static lmdb.basex.LmdbDataManager.attvaluesdb;
+import static lmdb.basex.LmdbDataManager.txtrangesdb;
+import static lmdb.basex.LmdbDataManager.txtvaluesdb;
+import static org.basex.util.Token.concat;
 
+/**
+ * Builds the value index of a document in the layout read by {@link LmdbValues}. Values are collected in
+ * an {@link IndexTree} and written in key order; when memory runs out the tree is written and the id lists of
+ * later parts are merged into the stored ones, no partial structures are written to files. If enabled with
+ * {@link LmdbIndexer#ranges(boolean)}, numeric and date values are collected in a second tree of typed keys.
+ */
+public class LmdbValuesBuilder extends ValuesBuilder {
 
-public class LmdbValuesBuilder extends DiskValuesBuilder {
-
-    private byte[] docid;
+    private final byte[] docid;
+    private final Database db;
+    /** Database of typed keys. */
+    private final Database rdb;
+    private IndexTree index = new IndexTree();
+    /** Typed keys of numeric and date values, or {@code null}. */
+    private IndexTree ranges;
+    private LmdbWriteBatch batch;
+    /** Number of index entries. */
+    private int entries;
+    /** Number of typed keys. */
+    private int rentries;
 
     public LmdbValuesBuilder(final byte[] docid, final Data data, final MainOptions options, final boolean text) {
         super(data, options, text);
         this.docid = docid;
+        this.db = text ? txtvaluesdb : attvaluesdb;
+        this.rdb = text ? txtrangesdb : attrangesdb;
+        if(LmdbIndexer.ranges()) ranges = new IndexTree();
     }
 
     @Override
-    public DiskValues build() throws IOException {
-        _build();
-        final String f = text ? DATATXT : DATAATV;
-        copyIndex(data.meta.dbfile(f + 'l').file(), text ? txtindexldb : attindexldb, docid);
-        copyIndex(data.meta.dbfile(f + 'r').file(), text ? txtindexrdb : attindexrdb, docid);
+    public ValueIndex build() throws IOException {
+        try(LmdbWriteBatch b = new LmdbWriteBatch()) {
+            batch = b;
+            for(pre = 0; pre < size; ++pre) {
+                if((pre & 0x0FFF) == 0) check();
+                if(indexEntry() && data.textLen(pre, text) <= data.meta.maxlen) {
+                    final byte[] value = data.text(pre, text);
+                    final int id = data.meta.updindex ? data.id(pre) : pre;
+                    index.add(value, id);
+                    if(ranges != null) {
+                        final byte[] typed = LmdbValues.typed(value);
+                        if(typed != null) ranges.add(typed, id);
+                    }
+                    count++;
+                }
+            }
+            write();
+            batch.append(db, LmdbTerms.sizeKey(docid), Byte.getBytes(entries));
+            // the number of typed keys marks the index as typed, even if no value is numeric or a date
+            if(ranges != null) batch.put(rdb, LmdbTerms.sizeKey(docid), Byte.getBytes(rentries));
+            batch.commit();
+        }
+        finishIndex();
         return null;
     }
 
-    static void copyIndex(final File file, Database db, byte[] did) throws IOException {
-
-        Transaction tx = env.createWriteTransaction();
-
-        byte[] b = new byte[IO.BLOCKSIZE];
-        BufferedInputStream idx = new BufferedInputStream(new FileInputStream(file), 1024*16);
+    @Override
+    protected void check() throws IOException {
+        super.check();
+        // check if main memory is exhausted
+        if(split()) {
+            write();
+            index = new IndexTree();
+            if(ranges != null) ranges = new IndexTree();
+            finishSplit();
+        }
+    }
 
-        int actual = -1;
-        int ref = 0;
-        int txcount = 0;
-        int tot = 0;
+    /**
+     * Writes the current index trees.
+     */
+    private void write() {
+        entries += write(index, db);
+        if(ranges != null) rentries += write(ranges, rdb);
+        splits++;
+    }
 
-        while((actual = IOUtils.read(idx, b)) > 0) {
-            tot += actual;
-            if(actual < b.length) {
-                byte[] nb = new byte[actual];
-                System.arraycopy(b,0,nb,0,actual);
-                b = nb;
+    /**
+     * Writes an index tree. Values of the first tree are appended, values of later trees are merged with the
+     * stored ones.
+     * @param tree index tree
+     * @param d index database
+     * @return number of new keys
+     */
+    private int write(final IndexTree tree, final Database d) {
+        int n = 0;
+        tree.init();
+        while(tree.more()) {
+            final int t = tree.next();
+            final IntList il = new IntList();
+            final byte[] key = concat(docid, tree.keys.get(t));
+            if(splits > 0) {
+                final byte[] stored = d.get(batch.tx(), key);
+                if(stored != null) il.add(LmdbValues.ids(stored));
             }
-            db.put(tx, lmdbkey(did,ref++), b);
-            if(++txcount > 10000) {
-                tx.commit();
-                tx = env.createWriteTransaction();
-                txcount = 0;
-            }
-        }
-        db.put(tx, LmdbDataAccess.getLenKey(did), lmdb.util.Byte.getBytes(tot));
-        tx.commit();
+            if(il.isEmpty()) n++;
 
-        file.delete();
+            final byte[] values = tree.values.get(t);
+            final int vs = Num.size(values);
+            for(int ip = 4; ip < vs; ip += Num.length(values, ip)) il.add(Num.get(values, ip));
+            final byte[] ids = LmdbValues.ids(il.sort().finish());
+            if(splits > 0) batch.put(d, key, ids);
+            else batch.append(d, key, ids);
+        }
+        return n;
     }
 }
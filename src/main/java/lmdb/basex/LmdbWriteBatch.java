@@ -0,0 +1,158 @@
+package lmdb.basex;
+
+import org.fusesource.lmdbjni.Database;
+import org.fusesource.lmdbjni.LMDBException;
+import org.fusesource.lmdbjni.Transaction;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static lmdb.basex.LmdbDataManager.env;
+import static org.fusesource.lmdbjni.Constants.APPEND;
+import static org.fusesource.lmdbjni.Constants.APPENDDUP;
+
+/**
+ * Bulk loader: a write transaction which is committed every {@code size} writes and renewed on demand, for
+ * loads which are too large for a single transaction. Ascending keys are appended ({@code MDB_APPEND}/
+ * {@code MDB_APPENDDUP}), which fills pages sequentially instead of splitting pages in half for every write.
+ * Nothing is committed on {@link #close()}: pending writes are aborted.
+ */
+public class LmdbWriteBatch implements AutoCloseable {
+
+    private static volatile int defaultSize = 10000;
+    /** Use appending writes at all, for comparison in benchmarks. */
+    static volatile boolean appending = true;
+
+    private final int size;
+    private Transaction tx;
+    private int count;
+    private int commits;
+    /** Databases in which an append failed: later keys of the same load can't be appended either. */
+    private final Set<Database> unordered = new HashSet<Database>();
+    /** Documents stamped in the page cache by every transaction of this batch. */
+    private final List<byte[]> modified = new ArrayList<byte[]>(1);
+
+    /**
+     * Sets the number of writes per transaction of batches created without explicit size.
+     * @param size number of writes
+     */
+    public static void defaultSize(final int size) {
+        defaultSize = Math.max(1, size);
+    }
+
+    LmdbWriteBatch() {
+        this(defaultSize);
+    }
+
+    LmdbWriteBatch(final int size) {
+        this.size = size;
+    }
+
+    /**
+     * Returns the current write transaction, starting a new one if needed.
+     * @return write transaction
+     */
+    Transaction tx() {
+        if(tx == null) {
+            tx = env.createWriteTransaction();
+            for(byte[] docid : modified) LmdbPageCache.invalidate(docid, tx);
+        }
+        return tx;
+    }
+
+    /**
+     * Invalidates cached pages of an existing document with each transaction of this batch,
+     * see {@link LmdbPageCache#invalidate}.
+     * @param docid document id
+     */
+    void invalidate(final byte[] docid) {
+        modified.add(docid);
+        if(tx != null) LmdbPageCache.invalidate(docid, tx);
+    }
+
+    void put(final Database db, final byte[] key, final byte[] value) {
+        db.put(tx(), key, value);
+        count();
+    }
+
+    /**
+     * Writes a key expected to be greater than every key in the database. Falls back to a regular put if it is not.
+     */
+    void append(final Database db, final byte[] key, final byte[] value) {
+        append(db, key, value, APPEND);
+    }
+
+    /**
+     * Writes a value of a sorted duplicates database, expected to be greater than every value of the key.
+     * Falls back to a regular put if it is not.
+     */
+    void appendDup(final Database db, final byte[] key, final byte[] value) {
+        append(db, key, value, APPENDDUP);
+    }
+
+    /**
+     * Counts a write done directly on {@link #tx()}, committing when the batch is full.
+     * @return {@code true} if the batch was committed and holders of the old transaction must switch to {@link #tx()}
+     */
+    boolean count() {
+        if(++count < size) return false;
+        commit();
+        return true;
+    }
+
+    /**
+     * Number of writes since the last commit.
+     * @return pending writes
+     */
+    int pending() {
+        return count;
+    }
+
+    /**
+     * Number of commits of this batch, including the commits of full batches.
+     * @return commits
+     */
+    int commits() {
+        return commits;
+    }
+
+    void commit() {
+        if(tx == null) return;
+        LmdbDurability.commit(tx);
+        tx = null;
+        count = 0;
+        commits++;
+    }
+
+    /**
+     * Drops the writes since the last commit. The batch can be used again.
+     */
+    void abort() {
+        if(tx == null) return;
+        tx.close();
+        tx = null;
+        count = 0;
+    }
+
+    @Override
+    public void close() {
+        abort();
+    }
+
+    private void append(final Database db, final byte[] key, final byte[] value, final int flags) {
+        if(appending && !unordered.contains(db)) {
+            try {
+                // a cursor put ignores the result code: keys which are not appended would be lost silently
+                db.put(tx(), key, value, flags);
+                count();
+                return;
+            } catch(LMDBException e) {
+                if(e.getErrorCode() != LMDBException.KEYEXIST) throw e;
+                unordered.add(db);
+            }
+        }
+        put(db, key, value);
+    }
+}
@@ -0,0 +1,233 @@
+package lmdb.basex;
+
+import org.apache.log4j.Logger;
+import org.basex.query.QueryException;
+import org.fusesource.lmdbjni.Transaction;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static lmdb.basex.LmdbDataManager.env;
+import static org.fusesource.lmdbjni.Constants.WRITEMAP;
+
+/**
+ * Group commit of concurrent writers. LMDB has a single writer, so a writer thread of its own applies the
+ * submitted jobs one after the other, each in a nested transaction of a shared write transaction, which is
+ * committed (and synced) once for all jobs queued in the meantime, up to {@link #batch(int)} jobs. A failing
+ * job aborts its nested transaction only: every job gets its own result, and the jobs of a group only fail
+ * together if the commit of the group fails. Callers wait until their job is committed.
+ *
+ * Jobs must not start write transactions of their own: the writer thread holds the write lock while they run.
+ * Nested transactions are not available with {@code MDB_WRITEMAP}: every job is then committed on its own. A
+ * group is synced if one of its jobs was submitted with strict durability, see {@link LmdbDurability}.
+ */
+public final class LmdbWriteCoordinator {
+
+    private static final Logger logger = Logger.getLogger(LmdbWriteCoordinator.class);
+
+    private static volatile int batch = 64;
+
+    private static final BlockingQueue<Job> queue = new LinkedBlockingQueue<Job>();
+    private static Thread writer;
+    private static volatile boolean running;
+    private static boolean nested;
+
+    private static final AtomicLong jobs = new AtomicLong();
+    private static final AtomicLong failed = new AtomicLong();
+    private static final AtomicLong commits = new AtomicLong();
+
+    private LmdbWriteCoordinator() { }
+
+    /**
+     * Writes of a job, applied by the writer thread.
+     */
+    abstract static class Job {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final LmdbDurability.Mode durability = LmdbDurability.mode();
+        private Throwable error;
+
+        /**
+         * Applies the writes of the job.
+         * @param tx nested write transaction, committed by the coordinator
+         * @throws QueryException query exception
+         * @throws IOException I/O exception
+         */
+        abstract void run(Transaction tx) throws QueryException, IOException;
+
+        /**
+         * Called by the submitting thread once the writes of the job are committed.
+         */
+        void committed() { }
+    }
+
+    /**
+     * Sets the maximum number of jobs committed together. 1 commits every job on its own.
+     * @param jobs number of jobs
+     */
+    public static void batch(final int jobs) {
+        batch = Math.max(1, jobs);
+    }
+
+    static synchronized void start() {
+        if(running) return;
+        running = true;
+        nested = (env.getFlags() & WRITEMAP) == 0;
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                work();
+            }
+        }, "lmdb-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Stops the writer thread after the jobs queued so far.
+     */
+    static synchronized void stop() {
+        if(!running) return;
+        running = false;
+        writer.interrupt();
+        try {
+            writer.join();
+        } catch(InterruptedException ignored) {
+        }
+        logger.info(stats());
+    }
+
+    public static long jobs() { return jobs.get(); }
+
+    public static long failed() { return failed.get(); }
+
+    public static long commits() { return commits.get(); }
+
+    /** Jobs waiting for the writer thread. */
+    public static int queued() { return queue.size(); }
+
+    public static String stats() {
+        return "writer: jobs=" + jobs() + " failed=" + failed() + " commits=" + commits() + " queued=" + queued();
+    }
+
+    /**
+     * Applies the writes of a job and waits until they are committed. Without writer thread, the job is
+     * committed on its own in the calling thread.
+     * @param job job
+     * @throws QueryException query exception of the job
+     * @throws IOException I/O exception of the job
+     */
+    static void execute(final Job job) throws QueryException, IOException {
+        if(running) {
+            queue.add(job);
+            boolean interrupted = false;
+            while(true) {
+                try {
+                    job.done.await();
+                    break;
+                } catch(InterruptedException ie) {
+                    // the job is applied anyway
+                    interrupted = true;
+                }
+            }
+            if(interrupted) Thread.currentThread().interrupt();
+        } else {
+            try(Transaction tx = env.createWriteTransaction()) {
+                job.run(tx);
+                LmdbDurability.commit(tx);
+            } catch(QueryException | IOException | RuntimeException | Error ex) {
+                job.error = ex;
+            }
+        }
+        final Throwable e = job.error;
+        if(e == null) {
+            job.committed();
+            return;
+        }
+        if(e instanceof QueryException) throw (QueryException) e;
+        if(e instanceof IOException) throw (IOException) e;
+        if(e instanceof RuntimeException) throw (RuntimeException) e;
+        throw (Error) e;
+    }
+
+    private static void work() {
+        final ArrayList<Job> group = new ArrayList<Job>();
+        while(running || !queue.isEmpty()) {
+            Job job;
+            try {
+                job = queue.poll(1, TimeUnit.SECONDS);
+            } catch(InterruptedException ie) {
+                continue;
+            }
+            if(job == null) continue;
+            try(Transaction tx = env.createWriteTransaction()) {
+                LmdbDurability.Mode durability = job.durability;
+                // jobs queued while the previous group was committed join this one
+                while(job != null) {
+                    group.add(job);
+                    if(job.durability.compareTo(durability) < 0) durability = job.durability;
+                    if(!nested) {
+                        run(job, tx);
+                        break;
+                    }
+                    apply(job, tx);
+                    job = group.size() < batch ? queue.poll() : null;
+                }
+                // without nested transactions, a failed job is aborted with the write transaction
+                if(nested || group.get(0).error == null) {
+                    final long changes = LmdbDurability.changes();
+                    tx.commit();
+                    commits.incrementAndGet();
+                    LmdbDurability.committed(durability, changes);
+                }
+            } catch(RuntimeException | Error ex) {
+                logger.warn("writer: commit of " + group.size() + " jobs failed: " + ex.getMessage());
+                for(final Job j : group) if(j.error == null) j.error = ex;
+            }
+            for(final Job j : group) {
+                jobs.incrementAndGet();
+                if(j.error != null) failed.incrementAndGet();
+                j.done.countDown();
+            }
+            group.clear();
+        }
+    }
+
+    /**
+     * Applies a job in the write transaction, without nested transaction.
+     * @param job job
+     * @param tx write transaction, aborted if the job fails
+     */
+    private static void run(final Job job, final Transaction tx) {
+        try {
+            job.run(tx);
+        } catch(QueryException | IOException | RuntimeException | Error ex) {
+            job.error = ex;
+        }
+    }
+
+    /**
+     * Applies a job in a nested transaction.
+     * @param job job
+     * @param parent write transaction of the group
+     */
+    private static void apply(final Job job, final Transaction parent) {
+        final Transaction tx = env.createTransaction(parent, false);
+        try {
+            job.run(tx);
+        } catch(QueryException | IOException | RuntimeException | Error ex) {
+            job.error = ex;
+            tx.abort();
+            return;
+        }
+        try {
+            tx.commit();
+        } catch(RuntimeException ex) {
+            job.error = ex;
+        }
+    }
+}
@@ -12,9 +12,12 @@ import org.basex.io.random.TableAccess;
 import org.basex.util.Array;
 import org.basex.util.BitArray;
 import org.basex.util.Util;
+import org.fusesource.lmdbjni.DirectBuffer;
 import org.fusesource.lmdbjni.Transaction;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Arrays;
 
 import static lmdb.basex.LmdbDataManager.tableaccessdb;
@@ -28,6 +31,28 @@ public class TableLmdbAccess extends TableAccess {
     private final Buffers bm = new Buffers();
     private BitArray usedPages;
 
+    /**
+     * How pages are read.
+     * BUFFERED: copied into the private clock buffers, the only mode allowing writes.
+     * DIRECT: read in place from the memory map of the read transaction, nothing is copied.
+     * SHARED: read from the process wide {@link LmdbPageCache}. Every page is copied once, and looked up under a
+     * lock: it only pays off if pages of the memory map are often not resident.
+     */
+    public enum ReadMode { BUFFERED, DIRECT, SHARED }
+
+    /** Mode of read transactions, see {@link #readMode(ReadMode)}. */
+    private static volatile ReadMode readMode = ReadMode.DIRECT;
+
+    private final ReadMode mode;
+    /** Key of the current page (direct mode). */
+    private DirectBuffer dkey;
+    /** Current page, pointing into the memory map (direct mode). */
+    private DirectBuffer dpage;
+    /** Current page (shared mode). */
+    private byte[] spage;
+    /** Position of the current page (direct and shared mode). */
+    private int rpos = -1;
+
     private int[] fpres;
     private int[] pages;
     private int size;
@@ -37,11 +62,41 @@ public class TableLmdbAccess extends TableAccess {
     private int firstPre = -1;
     private int nextPre = -1;
 
+    /**
+     * Sets how read transactions read pages: {@link ReadMode#DIRECT} by default, {@link ReadMode#SHARED} reads
+     * through the {@link LmdbPageCache} if it is enabled. Write transactions always use {@link ReadMode#BUFFERED}.
+     * @param mode DIRECT or SHARED
+     */
+    public static void readMode(final ReadMode mode) {
+        if(mode == ReadMode.BUFFERED) throw new IllegalArgumentException("read mode " + mode);
+        readMode = mode;
+    }
+
     public TableLmdbAccess(final MetaData md, final Transaction tx, byte[] docid) throws IOException {
+        this(md, tx, docid, !tx.isReadOnly() ? ReadMode.BUFFERED :
+                readMode == ReadMode.SHARED && LmdbPageCache.enabled() ? ReadMode.SHARED : ReadMode.DIRECT);
+    }
+
+    /**
+     * Constructor.
+     * @param md meta data
+     * @param tx transaction
+     * @param docid document id
+     * @param mode page read mode. DIRECT and SHARED are only valid for read transactions
+     * @throws IOException I/O exception
+     */
+    public TableLmdbAccess(final MetaData md, final Transaction tx, byte[] docid, final ReadMode mode) throws IOException {
         super(md);
 
         this.tx = tx;
         this.docid = docid;
+        this.mode = tx.isReadOnly() ? mode : ReadMode.BUFFERED;
+
+        if(this.mode == ReadMode.DIRECT) {
+            dkey = new DirectBuffer(ByteBuffer.allocateDirect(8));
+            dkey.putBytes(0, docid, 0, 4);
+            dpage = new DirectBuffer();
+        }
 
         // read meta and index data
         try(final DataInput in = new DataInput(new IOContent(tableaccessdb.get(tx,getStructKey())))) {
@@ -101,21 +156,24 @@ public class TableLmdbAccess extends TableAccess {
     @Override
     public synchronized int read1(final int pre, final int off) {
         final int o = off + cursor(pre);
-        final byte[] b = bm.current().data;
+        if(mode == ReadMode.DIRECT) return dpage.getByte(o) & 0xFF;
+        final byte[] b = mode == ReadMode.SHARED ? spage : bm.current().data;
         return b[o] & 0xFF;
     }
 
     @Override
     public synchronized int read2(final int pre, final int off) {
         final int o = off + cursor(pre);
-        final byte[] b = bm.current().data;
+        if(mode == ReadMode.DIRECT) return dpage.getShort(o, ByteOrder.BIG_ENDIAN) & 0xFFFF;
+        final byte[] b = mode == ReadMode.SHARED ? spage : bm.current().data;
         return ((b[o] & 0xFF) << 8) + (b[o + 1] & 0xFF);
     }
 
     @Override
     public synchronized int read4(final int pre, final int off) {
         final int o = off + cursor(pre);
-        final byte[] b = bm.current().data;
+        if(mode == ReadMode.DIRECT) return dpage.getInt(o, ByteOrder.BIG_ENDIAN);
+        final byte[] b = mode == ReadMode.SHARED ? spage : bm.current().data;
         return ((b[o] & 0xFF) << 24) + ((b[o + 1] & 0xFF) << 16) +
                 ((b[o + 2] & 0xFF) << 8) + (b[o + 3] & 0xFF);
     }
@@ -123,7 +181,8 @@ public class TableLmdbAccess extends TableAccess {
     @Override
     public synchronized long read5(final int pre, final int off) {
         final int o = off + cursor(pre);
-        final byte[] b = bm.current().data;
+        if(mode == ReadMode.DIRECT) return ((long) (dpage.getByte(o) & 0xFF) << 32) + (dpage.getInt(o + 1, ByteOrder.BIG_ENDIAN) & 0xFFFFFFFFL);
+        final byte[] b = mode == ReadMode.SHARED ? spage : bm.current().data;
         return ((long) (b[o] & 0xFF) << 32) + ((long) (b[o + 1] & 0xFF) << 24) +
                 ((b[o + 2] & 0xFF) << 16) + ((b[o + 3] & 0xFF) << 8) + (b[o + 4] & 0xFF);
     }
@@ -466,6 +525,14 @@ public class TableLmdbAccess extends TableAccess {
      * @param p page to fetch
      */
     private void read(final int p) {
+        if(mode == ReadMode.DIRECT) {
+            readDirect(p);
+            return;
+        }
+        if(mode == ReadMode.SHARED) {
+            readShared(p);
+            return;
+        }
         if(!bm.cursor(p)) return;
 
         final Buffer bf = bm.current();
@@ -482,6 +549,29 @@ public class TableLmdbAccess extends TableAccess {
         }
     }
 
+    /**
+     * Points the current page to the memory mapped LMDB value of the page. No bytes are copied:
+     * the address stays valid as long as the read transaction is open.
+     * @param p page to fetch
+     */
+    private void readDirect(final int p) {
+        if(p == rpos) return;
+        dkey.putInt(4, p, ByteOrder.BIG_ENDIAN);
+        if(tableaccessdb.get(tx, dkey, dpage) != 0) throw Util.notExpected("page " + p + " not found");
+        rpos = p;
+    }
+
+    /**
+     * Fetches a page through the shared page cache.
+     * @param p page to fetch
+     */
+    private void readShared(final int p) {
+        if(p == rpos) return;
+        spage = LmdbPageCache.get(tableaccessdb, docid, p, tx);
+        if(spage == null) throw Util.notExpected("page " + p + " not found");
+        rpos = p;
+    }
+
     /**
      * Moves the cursor to a free page (either new or existing empty one).
      */
@@ -499,6 +589,7 @@ public class TableLmdbAccess extends TableAccess {
      * @throws IOException I/O exception
      */
     private void write(final Buffer bf) throws IOException {
+        LmdbPageCache.invalidate(docid, tx);
         tableaccessdb.put(tx, lmdbkey(docid, (int)bf.pos), bf.data);
         bf.dirty = false;
     }
@@ -0,0 +1,133 @@
+package lmdb.basex;
+
+import lmdb.util.Byte;
+import org.basex.data.Data;
+import org.basex.data.MetaData;
+import org.basex.io.IO;
+import org.basex.util.ft.FTCase;
+import org.basex.util.ft.FTFlag;
+import org.basex.util.ft.FTLexer;
+import org.basex.util.ft.FTOpt;
+import org.basex.util.ft.StopWords;
+import org.basex.util.hash.TokenObjMap;
+import org.basex.util.list.IntList;
+import org.basex.util.list.LongList;
+import org.fusesource.lmdbjni.Transaction;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Full-text index of a document that is maintained by updates: the texts passed to {@link #add} and
+ * {@link #delete} are tokenized with the full-text options of the document, as done by {@link LmdbFTBuilder},
+ * and the postings of their tokens are patched in place.
+ */
+public class UpdatableLmdbFTIndex extends LmdbFTIndex {
+
+    /** Word parser, created on first update. */
+    private FTLexer lexer;
+
+    public UpdatableLmdbFTIndex(final Data data, final byte[] docid, final Transaction tx) throws IOException {
+        super(data, docid, tx);
+    }
+
+    @Override
+    protected int pre(final int id) {
+        return data.pre(id);
+    }
+
+    @Override
+    public synchronized void add(final TokenObjMap<IntList> map) {
+        final TokenObjMap<LongList> tokens = tokens(map);
+        int sz = size();
+        for(final byte[] token : tokens) {
+            final byte[] key = key(token);
+            final LongList postings = tokens.get(token);
+            final byte[] stored = db.get(tx, key);
+            if(stored != null) postings.add(postings(stored));
+            else sz++;
+            db.put(tx, key, postings(postings.sort().finish()));
+        }
+        size(sz);
+    }
+
+    @Override
+    public synchronized void delete(final TokenObjMap<IntList> map) {
+        final TokenObjMap<LongList> tokens = tokens(map);
+        int sz = size();
+        for(final byte[] token : tokens) {
+            final byte[] key = key(token);
+            final byte[] stored = db.get(tx, key);
+            if(stored == null) continue;
+
+            // skip the postings that should be deleted
+            final long[] postings = postings(stored), del = tokens.get(token).sort().finish();
+            final LongList ll = new LongList(postings.length);
+            for(final long p : postings) {
+                if(Arrays.binarySearch(del, p) < 0) ll.add(p);
+            }
+            if(ll.isEmpty()) {
+                db.delete(tx, key);
+                sz--;
+            } else {
+                db.put(tx, key, postings(ll.finish()));
+            }
+        }
+        size(sz);
+    }
+
+    /**
+     * Tokenizes texts.
+     * @param map texts and the ids of their nodes
+     * @return tokens and their postings
+     */
+    private TokenObjMap<LongList> tokens(final TokenObjMap<IntList> map) {
+        if(lexer == null) lexer = lexer(data.meta);
+        final StopWords sw = lexer.ftOpt().sw;
+        final TokenObjMap<LongList> tokens = new TokenObjMap<>();
+        for(final byte[] text : map) {
+            final IntList ids = map.get(text);
+            lexer.init(text);
+            int pos = -1;
+            while(lexer.hasNext()) {
+                final byte[] tok = lexer.nextToken();
+                ++pos;
+                // skip too long and stopword tokens
+                if(tok.length > data.meta.maxlen || !sw.isEmpty() && sw.contains(tok)) continue;
+                LongList postings = tokens.get(tok);
+                if(postings == null) {
+                    postings = new LongList();
+                    tokens.put(tok, postings);
+                }
+                for(int i = 0; i < ids.size(); i++) postings.add((long) ids.get(i) << 32 | pos);
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Creates a word parser with the full-text options the index was built with.
+     * @param meta meta data
+     * @return word parser
+     */
+    private static FTLexer lexer(final MetaData meta) {
+        final FTOpt fto = new FTOpt();
+        fto.set(FTFlag.DC, meta.diacritics);
+        fto.set(FTFlag.ST, meta.stemming);
+        fto.cs = meta.casesens ? FTCase.SENSITIVE : FTCase.INSENSITIVE;
+        fto.sw = new StopWords();
+        if(!meta.stopwords.isEmpty()) fto.sw.read(IO.get(meta.stopwords), false);
+        fto.ln = meta.language;
+        return new FTLexer(fto);
+    }
+
+    /**
+     * Assigns the number of index entries.
+     * @param sz number of index entries
+     */
+    private void size(final int sz) {
+        if(sz == size()) return;
+        size.set(sz);
+        db.put(tx, LmdbTerms.sizeKey(docid), Byte.getBytes(sz));
+    }
+}
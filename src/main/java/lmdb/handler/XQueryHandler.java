@@ -1,6 +1,7 @@
 package lmdb.handler;
 
 import lmdb.basex.LmdbDataManager;
+import lmdb.basex.LmdbDurability;
 import lmdb.basex.LmdbQueryContext;
 import org.apache.commons.io.IOUtils;
 import org.apache.log4j.Logger;
@@ -19,11 +20,14 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.List;
+import java.util.zip.ZipInputStream;
 
 @SuppressWarnings("unchecked")
 public class XQueryHandler extends AbstractHandler {
 
     private static final Logger logger = Logger.getLogger(XQueryHandler.class);
+    private static final String DURABILITY = "X-Durability";
     private MainOptions options = new MainOptions();
 
     public XQueryHandler(String home) {
@@ -33,6 +37,26 @@ public class XQueryHandler extends AbstractHandler {
     }
 
     public void handle(String target, Request basereq, HttpServletRequest req, HttpServletResponse resp) throws IOException, ServletException {
+        // durability of the writes of the request: strict, group or async
+        final LmdbDurability.Mode durability;
+        try {
+            durability = LmdbDurability.mode(req.getHeader(DURABILITY));
+        } catch (IllegalArgumentException iae) {
+            resp.setContentType("text/plain");
+            resp.setStatus(400);
+            resp.getWriter().print("unknown durability " + req.getHeader(DURABILITY));
+            basereq.setHandled(true);
+            return;
+        }
+        final LmdbDurability.Request request = LmdbDurability.request(durability);
+        try {
+            handle(basereq, req, resp);
+        } finally {
+            request.close();
+        }
+    }
+
+    private void handle(Request basereq, HttpServletRequest req, HttpServletResponse resp) throws IOException {
 
         //
         // DELETE
@@ -87,6 +111,11 @@ public class XQueryHandler extends AbstractHandler {
                 } else {
                     logger.info("create collection " + path);
                     LmdbDataManager.createCollection(path);
+                    String ct = req.getContentType();
+                    if (ct != null && ct.contains("zip")) {
+                        List<String> docs = LmdbDataManager.importDocuments(path, new ZipInputStream(req.getInputStream()));
+                        logger.info("imported " + docs.size() + " documents into collection " + path);
+                    }
                 }
                 resp.setStatus(HttpServletResponse.SC_OK);
             } catch (LMDBException lmdbe) {
@@ -159,9 +188,10 @@ public class XQueryHandler extends AbstractHandler {
         //
         if (basereq.getMethod().equals("POST")) {
             resp.setContentType("text/plain");
-            try(LmdbQueryContext ctx = new LmdbQueryContext(IOUtils.toString(req.getInputStream()), options)) {
-                if (!ctx.updating) throw new HttpException(405, "xquery is not updating. use get instead.");
-                ctx.run(resp.getOutputStream(), "text/plain", false);
+            try {
+                // committed together with concurrent updates
+                if (!LmdbQueryContext.update(IOUtils.toString(req.getInputStream()), options, resp.getOutputStream(), "text/plain"))
+                    throw new HttpException(405, "xquery is not updating. use get instead.");
                 resp.setStatus(HttpServletResponse.SC_OK);
             } catch (LMDBException lmdbe) {
                 logger.warn(lmdbe.getMessage());
@@ -1,7 +1,15 @@
 package lmdb.server;
 
+import lmdb.basex.LmdbCleaner;
 import lmdb.basex.LmdbDataManager;
+import lmdb.basex.LmdbDurability;
+import lmdb.basex.LmdbIndexer;
+import lmdb.basex.LmdbPageCache;
 import lmdb.basex.LmdbQueryContext;
+import lmdb.basex.LmdbReaders;
+import lmdb.basex.LmdbWriteBatch;
+import lmdb.basex.LmdbWriteCoordinator;
+import lmdb.basex.TableLmdbAccess;
 import lmdb.db.JdbcDataManager;
 import lmdb.handler.XQueryHandler;
 import org.apache.commons.io.IOUtils;
@@ -37,6 +45,7 @@ import java.io.IOException;
 import java.io.StringReader;
 import java.net.URISyntaxException;
 import java.nio.file.Paths;
+import java.util.Locale;
 
 public class XQueryServer {
 
@@ -91,7 +100,24 @@ public class XQueryServer {
         logger.info("start");
         logger.debug("home=" + home);
 
+        LmdbDurability.mode(getDurability());
+        LmdbDurability.interval(getSyncInterval());
+        LmdbDurability.flags(getEnvFlags());
+        LmdbDataManager.maxDbs(getMaxDbs());
         LmdbDataManager.config(System.getProperty("org.basex.path", home + "/db"), Long.parseLong(getConfig("//dbsize/text()")));
+        LmdbPageCache.budget(getPageCacheSize() * 1024 * 1024);
+        TableLmdbAccess.readMode(getTableReadMode());
+        LmdbWriteBatch.defaultSize(getWriteBatchSize());
+        LmdbIndexer.capacity(getIndexQueueSize());
+        LmdbIndexer.updatable(getUpdIndex());
+        LmdbIndexer.ranges(getRangeIndex());
+        LmdbIndexer.collections(getCollectionIndex());
+        LmdbCleaner.rate(getCleanerRate());
+        LmdbCleaner.transactionTime(getCleanerTransactionTime());
+        LmdbWriteCoordinator.batch(getGroupCommit());
+        LmdbReaders.capacity(getReadPoolSize());
+        LmdbReaders.maxAge(getMaxSnapshotAge());
+        LmdbReaders.check(getReaderCheck());
         JdbcDataManager.config(config);
         httpServerConfig();
     }
@@ -200,6 +226,122 @@ public class XQueryServer {
         }
     }
 
+    private long getPageCacheSize() {
+        try {
+            return Long.parseLong(getConfig("//pagecache/text()"));
+        } catch(Exception i) {
+            return 64;
+        }
+    }
+
+    private TableLmdbAccess.ReadMode getTableReadMode() {
+        String mode = getConfig("//tableread/text()");
+        return mode == null || mode.trim().isEmpty() ? TableLmdbAccess.ReadMode.DIRECT :
+                TableLmdbAccess.ReadMode.valueOf(mode.trim().toUpperCase(Locale.ROOT));
+    }
+
+    private int getWriteBatchSize() {
+        try {
+            return Integer.parseInt(getConfig("//writebatch/text()"));
+        } catch(Exception i) {
+            return 10000;
+        }
+    }
+
+    private int getIndexQueueSize() {
+        try {
+            return Integer.parseInt(getConfig("//indexqueue/text()"));
+        } catch(Exception i) {
+            return 1024;
+        }
+    }
+
+    private int getCleanerRate() {
+        try {
+            return Integer.parseInt(getConfig("//cleaner/rate/text()"));
+        } catch(Exception i) {
+            return 50000;
+        }
+    }
+
+    private long getCleanerTransactionTime() {
+        try {
+            return Long.parseLong(getConfig("//cleaner/txtime/text()"));
+        } catch(Exception i) {
+            return 50;
+        }
+    }
+
+    private int getGroupCommit() {
+        try {
+            return Integer.parseInt(getConfig("//groupcommit/text()"));
+        } catch(Exception i) {
+            return 64;
+        }
+    }
+
+    private LmdbDurability.Mode getDurability() {
+        LmdbDurability.Mode mode = LmdbDurability.mode(getConfig("//durability/mode/text()"));
+        return mode == null ? LmdbDurability.Mode.STRICT : mode;
+    }
+
+    private long getSyncInterval() {
+        try {
+            return Long.parseLong(getConfig("//durability/interval/text()"));
+        } catch(Exception i) {
+            return 100;
+        }
+    }
+
+    private String[] getEnvFlags() {
+        String flags = getConfig("//durability/flags/text()");
+        return flags == null ? new String[0] : flags.split("[,\\s]+");
+    }
+
+    private int getMaxDbs() {
+        try {
+            return Integer.parseInt(getConfig("//durability/maxdbs/text()"));
+        } catch(Exception i) {
+            return 16;
+        }
+    }
+
+    private int getReadPoolSize() {
+        try {
+            return Integer.parseInt(getConfig("//readpool/text()"));
+        } catch(Exception i) {
+            return 32;
+        }
+    }
+
+    private long getMaxSnapshotAge() {
+        try {
+            return Long.parseLong(getConfig("//readers/maxage/text()"));
+        } catch(Exception i) {
+            return 300000;
+        }
+    }
+
+    private long getReaderCheck() {
+        try {
+            return Long.parseLong(getConfig("//readers/check/text()"));
+        } catch(Exception i) {
+            return 10000;
+        }
+    }
+
+    private boolean getUpdIndex() {
+        return Boolean.parseBoolean(getConfig("//updindex/text()"));
+    }
+
+    private boolean getRangeIndex() {
+        return Boolean.parseBoolean(getConfig("//rangeindex/text()"));
+    }
+
+    private boolean getCollectionIndex() {
+        return Boolean.parseBoolean(getConfig("//colindex/text()"));
+    }
+
     private int getHttpsPort() {
         return Integer.parseInt(getConfig("//http/sslport/text()"));
     }
@@ -197,6 +197,16 @@ public abstract class Data {
     return index(token.type()).costs(token);
   }
 
+  /**
+   * Indicates if numeric ranges are answered from typed keys of the specified index structure.
+   * @param type index type
+   * @return result of check
+   */
+  public final boolean ranges(final IndexType type) {
+    final Index index = index(type);
+    return index instanceof ValueIndex && ((ValueIndex) index).ranges();
+  }
+
   /**
    * Returns info on the specified index structure.
    * @param type index type
@@ -525,18 +535,22 @@ public abstract class Data {
         if(nsFlag) table.write2(nsPre, 1, 1 << 15 | nameId(nsPre));
         if(!pres.isEmpty()) attrIndex.add(cache(pres, false));
       } else {
-        // update text index
-        if(meta.updindex && meta.textindex) {
+        // update text and full-text index
+        if(meta.updindex && (meta.textindex || meta.ftindex)) {
           final int last = pre + sz;
           for(int curr = pre + attSize(pre, kind); curr != last; curr += size(curr, kind(curr))) {
             if(kind(curr) == TEXT) pres.add(curr);
           }
-          textIndex.delete(cache(pres, true));
+          if(meta.textindex) textIndex.delete(cache(pres, true));
+          if(meta.ftindex) ftxtIndex.delete(ftcache(pres));
         }
         table.write1(pre, 3, uriId);
         final int nameId = elemNames.index(name, null, false);
         table.write2(nsPre, 1, (nsFlag || nsFlag(nsPre) ? 1 << 15 : 0) | nameId);
-        if(!pres.isEmpty()) textIndex.add(cache(pres, true));
+        if(!pres.isEmpty()) {
+          if(meta.textindex) textIndex.add(cache(pres, true));
+          if(meta.ftindex) ftxtIndex.add(ftcache(pres));
+        }
       }
     }
   }
@@ -1051,6 +1065,7 @@ public abstract class Data {
     if(meta.updindex) {
       if(meta.textindex) textIndex.delete(cache(pre, size, true));
       if(meta.attrindex) attrIndex.delete(cache(pre, size, false));
+      if(meta.ftindex) ftxtIndex.delete(ftcache(range(pre, size)));
       if(id != -1) idmap.delete(pre, id, -size);
     }
   }
@@ -1068,6 +1083,7 @@ public abstract class Data {
       if(id != -1) idmap.insert(pre, id, size);
       if(meta.textindex) textIndex.add(cache(pre, size, true));
       if(meta.attrindex) attrIndex.add(cache(pre, size, false));
+      if(meta.ftindex) ftxtIndex.add(ftcache(range(pre, size)));
     }
   }
 
@@ -1079,10 +1095,20 @@ public abstract class Data {
    * @return cached texts and ids
    */
   private TokenObjMap<IntList> cache(final int pre, final int size, final boolean text) {
+    return cache(range(pre, size), text);
+  }
+
+  /**
+   * Returns the pre values of the specified database range.
+   * @param pre pre value
+   * @param size size value
+   * @return pre values
+   */
+  private static IntList range(final int pre, final int size) {
     final IntList pres = new IntList(size);
     final int last = pre + size;
     for(int curr = pre; curr < last; ++curr) pres.add(curr);
-    return cache(pres, text);
+    return pres;
   }
 
   /**
@@ -1110,6 +1136,31 @@ public abstract class Data {
     return map;
   }
 
+  /**
+   * Caches the full-text indexed texts of the specified pre values.
+   * Texts are tokenized by the index, so their length is not limited.
+   * @param pres pre values
+   * @return cached texts and ids
+   */
+  private TokenObjMap<IntList> ftcache(final IntList pres) {
+    final TokenObjMap<IntList> map = new TokenObjMap<>();
+    final IndexNames in = new IndexNames(meta.ftinclude);
+    final int ps = pres.size();
+    for(int p = 0; p < ps; p++) {
+      final int pre = pres.get(p);
+      if(kind(pre) == TEXT && in.contains(this, pre, true)) {
+        final byte[] key = text(pre, true);
+        IntList ids = map.get(key);
+        if(ids == null) {
+          ids = new IntList(1);
+          map.put(key, ids);
+        }
+        ids.add(id(pre));
+      }
+    }
+    return map;
+  }
+
   // HELPER FUNCTIONS ===================================================================
 
   /**
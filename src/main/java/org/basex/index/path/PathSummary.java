@@ -75,6 +75,19 @@ public final class PathSummary implements Index {
     data = dt;
   }
 
+  /**
+   * Returns a summary sharing the nodes of this summary, with another data reference.
+   * The nodes must not be changed anymore.
+   * @param dt data reference (can be {@code null})
+   * @return summary
+   */
+  public PathSummary copy(final Data dt) {
+    final PathSummary ps = new PathSummary(dt);
+    ps.root = root;
+    ps.stack.set(0, root);
+    return ps;
+  }
+
   /**
    * Initializes the index.
    */
@@ -2,6 +2,7 @@ package org.basex.index.query;
 
 import org.basex.index.*;
 import org.basex.query.util.*;
+import org.basex.query.value.type.*;
 import org.basex.util.*;
 
 /**
@@ -11,12 +12,19 @@ import org.basex.util.*;
  * @author Christian Gruen
  */
 public final class NumericRange implements IndexToken {
-  /** Index info. */
-  private final IndexInfo ii;
+  /** Text index. */
+  private final boolean text;
   /** Minimum value. */
   public final double min;
+  /** Include minimum value. */
+  public final boolean mni;
   /** Maximum value. */
   public final double max;
+  /** Include maximum value. */
+  public final boolean mxi;
+  /** Type of the compared values: {@code null} for numbers, {@link AtomType#DAT} or {@link AtomType#DTM}
+   * for dates, whose bounds are their seconds in UTC (see {@link org.basex.query.value.item.ADate#utc()}). */
+  public final Type type;
 
   /**
    * Constructor.
@@ -25,14 +33,53 @@ public final class NumericRange implements IndexToken {
    * @param max maximum value
    */
   public NumericRange(final IndexInfo ii, final double min, final double max) {
-    this.ii = ii;
+    this(ii.text, min, true, max, true);
+  }
+
+  /**
+   * Constructor.
+   * @param text text index
+   * @param min minimum value
+   * @param mni include minimum value
+   * @param max maximum value
+   * @param mxi include maximum value
+   */
+  public NumericRange(final boolean text, final double min, final boolean mni, final double max,
+      final boolean mxi) {
+    this(text, min, mni, max, mxi, null);
+  }
+
+  /**
+   * Constructor.
+   * @param text text index
+   * @param min minimum value
+   * @param mni include minimum value
+   * @param max maximum value
+   * @param mxi include maximum value
+   * @param type type of the compared values ({@code null} for numbers)
+   */
+  public NumericRange(final boolean text, final double min, final boolean mni, final double max,
+      final boolean mxi, final Type type) {
+    this.text = text;
     this.min = min;
+    this.mni = mni;
     this.max = max;
+    this.mxi = mxi;
+    this.type = type;
+  }
+
+  /**
+   * Checks if a value is in the range.
+   * @param value value
+   * @return result of check
+   */
+  public boolean contains(final double value) {
+    return (mni ? value >= min : value > min) && (mxi ? value <= max : value < max);
   }
 
   @Override
   public IndexType type() {
-    return ii.text ? IndexType.TEXT : IndexType.ATTRIBUTE;
+    return text ? IndexType.TEXT : IndexType.ATTRIBUTE;
   }
 
   @Override
@@ -45,6 +45,15 @@ public abstract class ValueIndex implements Index {
    */
   public abstract void add(final TokenObjMap<IntList> map);
 
+  /**
+   * Indicates if numeric ranges are answered from keys in the order of their numeric values, so that ranges
+   * with any bounds only touch the matching entries.
+   * @return result of check
+   */
+  public boolean ranges() {
+    return false;
+  }
+
   /**
    * Flushes the buffered data.
    */
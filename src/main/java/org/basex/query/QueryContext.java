@@ -69,6 +69,7 @@ import static org.basex.core.Text.PLEASE_WAIT_D;
 import static org.basex.core.Text.SAVE;
 import static org.basex.query.QueryError.BASX_STACKOVERFLOW;
 import static org.basex.query.QueryError.BASX_VALUE_X_X;
+import static org.basex.query.QueryError.BXXQ_STOPPED;
 import static org.basex.query.QueryError.CIRCCTX;
 import static org.basex.query.QueryError.NOCTX_X;
 import static org.basex.query.QueryError.NOURI_X;
@@ -187,6 +188,8 @@ public class QueryContext implements Closeable {
   private boolean compiled;
   /** Indicates if the query context has been closed. */
   private boolean closed;
+  /** Indicates if the evaluation has been stopped. */
+  private volatile boolean stopped;
 
   public boolean updating = false;
 
@@ -425,7 +428,7 @@ public class QueryContext implements Closeable {
           copy(output, datas, dbs);
 
 //          if(context.data() != null) context.invalidate();
-          updates.apply(this);
+          apply(updates, datas);
 
           // append cached outputs
           if(output.size() != 0) {
@@ -442,6 +445,16 @@ public class QueryContext implements Closeable {
     }
   }
 
+  /**
+   * Applies the pending updates of the query.
+   * @param updates updates
+   * @param datas data references of the updated databases
+   * @throws QueryException query exception
+   */
+  protected void apply(final Updates updates, final HashSet<Data> datas) throws QueryException {
+    updates.apply(this);
+  }
+
   /**
    * Creates copies of nodes that will be affected by an update operation.
    * @param cache node cache
@@ -467,7 +480,7 @@ public class QueryContext implements Closeable {
    * @throws QueryException query exception
    */
   public Iter iter(final Expr expr) throws QueryException {
-//    checkStop();
+    checkStop();
     return expr.iter(this);
   }
 
@@ -478,7 +491,7 @@ public class QueryContext implements Closeable {
    * @throws QueryException query exception
    */
   public Value value(final Expr expr) throws QueryException {
-//    checkStop();
+    checkStop();
     return expr.value(this);
   }
 
@@ -662,6 +675,22 @@ public class QueryContext implements Closeable {
     updating = true;
   }
 
+  /**
+   * Stops the evaluation of the query: it is interrupted with an error at the next check.
+   * May be called by another thread.
+   */
+  public void stop() {
+    stopped = true;
+  }
+
+  /**
+   * Checks if the evaluation has been stopped.
+   * @throws QueryException query exception
+   */
+  public final void checkStop() throws QueryException {
+    if(stopped) throw BXXQ_STOPPED.get(null);
+  }
+
   @Override
   public void close() throws IOException {
     // close only once
@@ -716,7 +745,7 @@ public class QueryContext implements Closeable {
     if(defaultOutput && data != null) {
       final IntList pres = new IntList();
       while((it = ir.next()) != null && it.data() == data && pres.size() < mx) {
-//        checkStop();
+        checkStop();
         pres.add(((DBNode) it).pre());
       }
 
@@ -734,7 +763,7 @@ public class QueryContext implements Closeable {
 
     // use standard iterator
     while((it = ir.next()) != null && cache.size() < mx) {
-//      checkStop();
+      checkStop();
       cache.add(it.materialize(null));
     }
     return cache.value();
@@ -9,6 +9,8 @@ import org.basex.core.MainOptions;
 import org.basex.data.Data;
 import org.basex.io.IO;
 import org.basex.io.IOStream;
+import org.basex.index.query.IndexToken;
+import org.basex.query.expr.path.Step;
 import org.basex.query.up.Updates;
 import org.basex.query.util.list.ItemList;
 import org.basex.query.util.pkg.ModuleLoader;
@@ -298,6 +300,33 @@ public class QueryResources {
 //    return DBNodeSeq.get(dt.resources.docs(qi.path), dt, true, qi.path.isEmpty());
   }
 
+  /**
+   * Returns the documents of a collection which can contain results of the specified steps and nodes
+   * matching all specified predicates, as determined by the indexes of the collection.
+   * @param docs documents of a collection
+   * @param steps leading axis steps
+   * @param tokens index tokens of every predicate, one of which must occur in a matching document
+   * @return matching documents, or {@code null} if no index is available
+   * @throws QueryException query exception
+   */
+  @SuppressWarnings("unused")
+  public Value docs(final Value docs, final ArrayList<Step> steps, final ArrayList<IndexToken[]> tokens)
+      throws QueryException {
+    return null;
+  }
+
+  /**
+   * Returns the number of results of the specified steps in the documents of a collection, as determined
+   * by a path summary of the collection.
+   * @param docs documents of a collection
+   * @param steps axis steps
+   * @return number of results, or {@code -1} if it is not known
+   */
+  @SuppressWarnings("unused")
+  public long size(final Value docs, final ArrayList<Step> steps) {
+    return -1;
+  }
+
   /**
    * Returns a reference to the updates.
    * @return updates
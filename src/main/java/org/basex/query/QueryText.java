@@ -830,6 +830,8 @@ public interface QueryText {
   /** Optimization info. */
   String OPTNOINDEX = "removing path with no index results";
   /** Optimization info. */
+  String OPTDOCSINDEX = "applying collection index: % of % documents";
+  /** Optimization info. */
   String OPTCHILD = "converting % to child steps";
   /** Optimization info. */
   String OPTUNROLL = "unrolling %";
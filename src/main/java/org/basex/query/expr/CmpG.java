@@ -6,9 +6,11 @@ import static org.basex.query.QueryText.*;
 import java.util.*;
 
 import org.basex.data.*;
+import org.basex.index.*;
 import org.basex.index.query.*;
 import org.basex.query.*;
 import org.basex.query.expr.CmpV.OpV;
+import org.basex.query.expr.path.*;
 import org.basex.query.func.*;
 import org.basex.query.iter.*;
 import org.basex.query.util.*;
@@ -388,6 +390,23 @@ public final class CmpG extends Cmp {
     return true;
   }
 
+  @Override
+  public IndexToken[] indexTokens(final Step step, final QueryContext qc) throws QueryException {
+    // only equality comparisons of nodes with strings on default collation
+    final IndexType type = IndexInfo.type(step, exprs[0]);
+    if(op != OpG.EQ || coll != null || type == null || !exprs[1].isValue()) return null;
+
+    final ArrayList<IndexToken> tokens = new ArrayList<>();
+    final Iter ir = exprs[1].iter(qc);
+    for(Item it; (it = ir.next()) != null;) {
+      if(!it.type.isStringOrUntyped()) return null;
+      final byte[] string = it.string(info);
+      if(string.length == 0) return null;
+      tokens.add(new StringToken(type == IndexType.TEXT, string));
+    }
+    return tokens.toArray(new IndexToken[tokens.size()]);
+  }
+
   @Override
   public CmpG copy(final QueryContext qc, final VarScope scp, final IntObjMap<Var> vs) {
     return new CmpG(exprs[0].copy(qc, scp, vs), exprs[1].copy(qc, scp, vs), op, coll, sc, info);
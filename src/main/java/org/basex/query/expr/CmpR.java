@@ -4,6 +4,7 @@ import static org.basex.query.QueryText.*;
 import static org.basex.util.Token.*;
 
 import org.basex.data.*;
+import org.basex.index.*;
 import org.basex.index.name.*;
 import org.basex.index.query.*;
 import org.basex.index.stats.*;
@@ -21,7 +22,7 @@ import org.basex.util.*;
 import org.basex.util.hash.*;
 
 /**
- * Numeric range expression.
+ * Numeric range expression. Comparisons of dates are range expressions on the seconds of the dates.
  *
  * @author BaseX Team 2005-15, BSD License
  * @author Christian Gruen
@@ -35,6 +36,8 @@ public final class CmpR extends Single {
   final double max;
   /** Include maximum value. */
   final boolean mxi;
+  /** Type of compared dates ({@link AtomType#DAT}, {@link AtomType#DTM}), {@code null} for numbers. */
+  private final AtomType type;
   /** Flag for atomic evaluation. */
   private final boolean atomic;
 
@@ -45,16 +48,18 @@ public final class CmpR extends Single {
    * @param mni include minimum value
    * @param max maximum value
    * @param mxi include maximum value
+   * @param type type of compared dates ({@code null} for numbers)
    * @param info input info
    */
   private CmpR(final Expr expr, final double min, final boolean mni, final double max,
-      final boolean mxi, final InputInfo info) {
+      final boolean mxi, final AtomType type, final InputInfo info) {
 
     super(info, expr);
     this.min = min;
     this.mni = mni;
     this.max = max;
     this.mxi = mxi;
+    this.type = type;
     seqType = SeqType.BLN;
     final SeqType st = expr.seqType();
     atomic = st.zeroOrOne() && !st.mayBeArray();
@@ -76,11 +81,16 @@ public final class CmpR extends Single {
 
     if(e2 instanceof RangeSeq) {
       final RangeSeq rs = (RangeSeq) e2;
-      return get(cmp, rs.start(), rs.end());
+      return get(cmp, rs.start(), rs.end(), null);
     }
     if(e2 instanceof ANum) {
       final double d = ((ANum) e2).dbl();
-      return get(cmp, d, d);
+      return get(cmp, d, d, null);
+    }
+    if(e2 instanceof Dat || e2 instanceof Dtm) {
+      final ADate date = (ADate) e2;
+      final double d = date.utc().doubleValue();
+      return get(cmp, d, d, (AtomType) date.type);
     }
     return cmp;
   }
@@ -90,18 +100,22 @@ public final class CmpR extends Single {
    * @param cmp expression to be converted
    * @param start start
    * @param end end (must be larger than end)
+   * @param type type of compared dates ({@code null} for numbers)
    * @return new or original expression
    */
-  private static ParseExpr get(final CmpG cmp, final double start, final double end) {
+  private static ParseExpr get(final CmpG cmp, final double start, final double end,
+      final AtomType type) {
     final Expr e = cmp.exprs[0];
-    // type must be numeric
-    if(!e.seqType().type.isNumberOrUntyped()) return cmp;
+    // type must be numeric, or the type of the compared dates
+    final Type t = e.seqType().type;
+    if(type == null ? !t.isNumberOrUntyped() : t != type && !t.isUntyped()) return cmp;
+    final double inf = Double.POSITIVE_INFINITY;
     switch(cmp.op) {
-      case EQ: return new CmpR(e, start, true, end, true, cmp.info);
-      case GE: return new CmpR(e, start, true, Double.POSITIVE_INFINITY, true, cmp.info);
-      case GT: return new CmpR(e, start, false, Double.POSITIVE_INFINITY, true, cmp.info);
-      case LE: return new CmpR(e, Double.NEGATIVE_INFINITY, true, end, true, cmp.info);
-      case LT: return new CmpR(e, Double.NEGATIVE_INFINITY, true, end, false, cmp.info);
+      case EQ: return new CmpR(e, start, true, end, true, type, cmp.info);
+      case GE: return new CmpR(e, start, true, inf, true, type, cmp.info);
+      case GT: return new CmpR(e, start, false, inf, true, type, cmp.info);
+      case LE: return new CmpR(e, -inf, true, end, true, type, cmp.info);
+      case LT: return new CmpR(e, -inf, true, end, false, type, cmp.info);
       default: return cmp;
     }
   }
@@ -112,19 +126,30 @@ public final class CmpR extends Single {
     if(atomic) {
       final Item it = expr.item(qc, info);
       if(it == null) return Bln.FALSE;
-      final double d = it.dbl(info);
+      final double d = value(it);
       return Bln.get((mni ? d >= min : d > min) && (mxi ? d <= max : d < max));
     }
 
     // iterative evaluation
     final Iter ir = expr.atomIter(qc, info);
     for(Item it; (it = ir.next()) != null;) {
-      final double d = it.dbl(info);
+      final double d = value(it);
       if((mni ? d >= min : d > min) && (mxi ? d <= max : d < max)) return Bln.TRUE;
     }
     return Bln.FALSE;
   }
 
+  /**
+   * Returns the compared value of an item: a number, or the seconds of a date in UTC.
+   * @param it item
+   * @return value
+   * @throws QueryException query exception
+   */
+  private double value(final Item it) throws QueryException {
+    if(type == null) return it.dbl(info);
+    return ((ADate) (it.type == type ? it : type.cast(it, null, null, info))).utc().doubleValue();
+  }
+
   /**
    * Creates an intersection of the existing and the specified expressions.
    * @param c range comparison
@@ -132,7 +157,7 @@ public final class CmpR extends Single {
    */
   Expr intersect(final CmpR c) {
     // skip intersection if expressions to be compared are different
-    if(!c.expr.sameAs(expr)) return null;
+    if(!c.expr.sameAs(expr) || c.type != type) return null;
 
     // find common minimum and maximum value
     final double mn = Math.max(min, c.min);
@@ -141,23 +166,40 @@ public final class CmpR extends Single {
     // remove comparisons that will never yield results
     if(mn > mx) return Bln.FALSE;
     // do not rewrite checks for identical values (will be evaluated faster by index)
-    return new CmpR(c.expr, mn, mni && c.mni, mx, mxi && c.mxi, info);
+    return new CmpR(c.expr, mn, mni && c.mni, mx, mxi && c.mxi, type, info);
   }
 
   @Override
   public boolean indexAccessible(final IndexInfo ii) {
     // accept only location path, string and equality expressions
     final Data data = ii.ic.data;
+    // dates: the indexed values are compared with casts
+    final Expr path = type != null && expr instanceof Cast ? ((Cast) expr).expr : expr;
     // sequential main memory scan is assumed to be faster than range index access
-    if(!mni || !mxi || data.inMemory() || !ii.check(expr, false)) return false;
+    if(data.inMemory() || !ii.check(path, false)) return false;
+    // typed index keys: ranges with any bounds only touch the matching entries
+    final boolean typed = data.ranges(ii.text ? IndexType.TEXT : IndexType.ATTRIBUTE);
+    if(!typed && (!mni || !mxi)) return false;
+
+    if(type != null) {
+      // dates are only found by their typed keys; there are no statistics for them
+      if(!typed) return false;
+      final NumericRange nr = new NumericRange(ii.text, min, mni, max, mxi, type);
+      ii.costs = data.costs(nr);
+      if(ii.costs == -1) return false;
+      access(ii, nr);
+      return true;
+    }
 
     final Stats key = key(ii, ii.text);
     if(key == null) return false;
 
     // estimate costs for range access; all values out of range: no results
-    final NumericRange nr = new NumericRange(ii, Math.max(min, key.min), Math.min(max, key.max));
+    final NumericRange nr = new NumericRange(ii.text, Math.max(min, key.min), mni || min < key.min,
+        Math.min(max, key.max), mxi || max > key.max);
     // skip queries with no results
-    if(nr.min > nr.max || nr.max < key.min || nr.min > key.max) {
+    if(nr.min > nr.max || nr.max < key.min || nr.min > key.max ||
+        nr.min == nr.max && !(nr.mni && nr.mxi)) {
       ii.costs = 0;
       return true;
     }
@@ -166,19 +208,31 @@ public final class CmpR extends Single {
     ii.costs = data.costs(nr);
     if(ii.costs == -1) return false;
 
-    // skip if numbers are negative, doubles, or of different string length
-    final int mnl = min >= 0 && (long) min == min ? token(min).length : -1;
-    final int mxl = max >= 0 && (long) max == max ? token(max).length : -1;
-    if(mnl != mxl || mnl == -1) return false;
+    if(!typed) {
+      // skip if numbers are negative, doubles, or of different string length
+      final int mnl = min >= 0 && (long) min == min ? token(min).length : -1;
+      final int mxl = max >= 0 && (long) max == max ? token(max).length : -1;
+      if(mnl != mxl || mnl == -1) return false;
 
-    // don't use index if min/max values are infinite
-    if(min == Double.NEGATIVE_INFINITY && max == Double.POSITIVE_INFINITY ||
-        token((int) nr.min).length != token((int) nr.max).length) return false;
+      // don't use index if min/max values are infinite
+      if(min == Double.NEGATIVE_INFINITY && max == Double.POSITIVE_INFINITY ||
+          token((int) nr.min).length != token((int) nr.max).length) return false;
+    }
 
+    access(ii, nr);
+    return true;
+  }
+
+  /**
+   * Creates the range index access.
+   * @param ii index info
+   * @param nr index token
+   */
+  private void access(final IndexInfo ii, final NumericRange nr) {
     final TokenBuilder tb = new TokenBuilder();
+    if(type != null) tb.add(type.toString());
     tb.add(mni ? '[' : '(').addExt(min).add(',').addExt(max).add(mxi ? ']' : ')');
     ii.create(new RangeAccess(info, nr, ii.ic), info, Util.info(OPTRNGINDEX, tb), true);
-    return true;
   }
 
   /**
@@ -213,9 +267,17 @@ public final class CmpR extends Single {
         key.type == StatsType.DOUBLE ? key : null;
   }
 
+  @Override
+  public IndexToken[] indexTokens(final Step step, final QueryContext qc) {
+    // the collection index has no typed keys of dates
+    final IndexType it = type == null ? IndexInfo.type(step, expr) : null;
+    return it == null ? null :
+      new IndexToken[] { new NumericRange(it == IndexType.TEXT, min, mni, max, mxi) };
+  }
+
   @Override
   public Expr copy(final QueryContext qc, final VarScope scp, final IntObjMap<Var> vs) {
-    return new CmpR(expr.copy(qc, scp, vs), min, mni, max, mxi, info);
+    return new CmpR(expr.copy(qc, scp, vs), min, mni, max, mxi, type, info);
   }
 
   @Override
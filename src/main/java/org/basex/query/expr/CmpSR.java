@@ -4,9 +4,11 @@ import static org.basex.query.QueryError.*;
 import static org.basex.query.QueryText.*;
 
 import org.basex.data.*;
+import org.basex.index.*;
 import org.basex.index.query.*;
 import org.basex.query.*;
 import org.basex.query.expr.CmpG.OpG;
+import org.basex.query.expr.path.*;
 import org.basex.query.iter.*;
 import org.basex.query.util.*;
 import org.basex.query.util.collation.*;
@@ -164,6 +166,14 @@ final class CmpSR extends Single {
     return true;
   }
 
+  @Override
+  public IndexToken[] indexTokens(final Step step, final QueryContext qc) {
+    // only default collation is supported, and min/max values are required
+    final IndexType type = IndexInfo.type(step, expr);
+    return coll != null || min == null || max == null || type == null ? null :
+      new IndexToken[] { new StringRange(type == IndexType.TEXT, min, mni, max, mxi) };
+  }
+
   @Override
   public Expr copy(final QueryContext qc, final VarScope scp, final IntObjMap<Var> vs) {
     return new CmpSR(expr.copy(qc, scp, vs), min, mni, max, mxi, coll, info);
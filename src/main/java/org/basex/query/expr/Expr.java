@@ -3,6 +3,7 @@ package org.basex.query.expr;
 import java.util.*;
 
 import org.basex.data.*;
+import org.basex.index.query.*;
 import org.basex.query.*;
 import org.basex.query.expr.gflwor.*;
 import org.basex.query.expr.path.*;
@@ -344,6 +345,20 @@ public abstract class Expr extends ExprInfo {
     return false;
   }
 
+  /**
+   * Returns the index tokens of a predicate: documents in which this predicate yields {@code true} for any
+   * node of the specified step contain one of the tokens in their text or attribute index.
+   * This method will be called by {@link Path#index} for collections.
+   * @param step step with this predicate
+   * @param qc query context
+   * @return tokens or {@code null}
+   * @throws QueryException query exception
+   */
+  @SuppressWarnings("unused")
+  public IndexToken[] indexTokens(final Step step, final QueryContext qc) throws QueryException {
+    return null;
+  }
+
   /**
    * Compares the current and specified expression for equality.
    * @param cmp expression to be compared
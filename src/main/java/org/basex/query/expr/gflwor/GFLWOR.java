@@ -111,7 +111,7 @@ public final class GFLWOR extends ParseExpr {
       public Item next() throws QueryException {
         for(;;) {
           final Item it = sub.next();
-//          qc.checkStop();
+          qc.checkStop();
           if(it != null) return it;
           if(!ev.next(qc)) {
             sub = null;
@@ -624,7 +624,8 @@ public final class GFLWOR extends ParseExpr {
         final Where w = (Where) cl;
         if(!(w.expr instanceof CmpR)) continue;
         final CmpR cmp = (CmpR) w.expr;
-        if(!(cmp.expr instanceof VarRef)) continue;
+        // the range must refer to the positional variable (and not, e.g., compare dates)
+        if(!(cmp.expr instanceof VarRef) || !((VarRef) cmp.expr).var.is(pos.pos)) continue;
 
         // remove clause and ensure that the positional variable is only used once
         clauses.remove(i);
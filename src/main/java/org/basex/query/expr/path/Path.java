@@ -8,6 +8,7 @@ import java.util.*;
 import org.basex.core.locks.*;
 import org.basex.data.*;
 import org.basex.index.path.*;
+import org.basex.index.query.*;
 import org.basex.query.*;
 import org.basex.query.expr.constr.*;
 import org.basex.query.expr.*;
@@ -402,9 +403,11 @@ public abstract class Path extends ParseExpr {
     // skip computation if value is not a document node
     if(rt == null || rt.type != NodeType.DOC) return -1;
     final Data data = rt.data();
-    // skip computation if no database instance is available, is out-of-date or
+    // documents of a collection
+    if(data == null) return docsSize(qc, rt);
+    // skip computation if database instance is out-of-date or
     // if context does not contain all database nodes
-    if(data == null || !data.meta.uptodate || data.meta.ndocs != rt.size()) return -1;
+    if(!data.meta.uptodate || data.meta.ndocs != rt.size()) return -1;
 
     ArrayList<PathNode> nodes = data.paths.root();
     long m = 1;
@@ -427,6 +430,25 @@ public abstract class Path extends ParseExpr {
     return sz * m;
   }
 
+  /**
+   * Computes the number of results in the documents of a collection, as determined by a path summary of the
+   * collection (see {@link QueryResources#size}).
+   * @param qc query context (may be @code null)
+   * @param rt root value
+   * @return number of results, or {@code -1}
+   */
+  private long docsSize(final QueryContext qc, final Value rt) {
+    if(qc == null) return -1;
+    final int sl = steps.length;
+    final ArrayList<Step> stps = new ArrayList<>(sl);
+    for(int s = 0; s < sl; s++) {
+      final Step step = axisStep(s);
+      if(step == null) return -1;
+      stps.add(step);
+    }
+    return qc.resources.size(rt, stps);
+  }
+
   /**
    * Returns all summary path nodes for the specified location step or
    * {@code null} if nodes cannot be retrieved or are found on different levels.
@@ -624,10 +646,10 @@ public abstract class Path extends ParseExpr {
    * @throws QueryException query exception
    */
   public Expr index(final QueryContext qc, final Value rt) throws QueryException {
-    // only rewrite paths with data reference
+    // only rewrite paths with data reference, or skip documents of collections
     if(rt == null) return this;
     final Data data = rt.data();
-    if(data == null) return this;
+    if(data == null) return docs(qc, rt);
 
     // cache index access costs
     IndexInfo index = null;
@@ -735,6 +757,37 @@ public abstract class Path extends ParseExpr {
     return resultSteps.isEmpty() ? resultRoot : get(info, resultRoot, resultSteps.finish());
   }
 
+  /**
+   * Returns an equivalent expression on the documents of a collection which can contain results, as
+   * determined by the leading axis steps, their predicates and the indexes of the collection (see
+   * {@link QueryResources#docs}). Predicates of all axis steps are considered: they refer to nodes of the
+   * document of the root node. If the documents cannot be narrowed down, the original expression is returned.
+   * @param qc query context
+   * @param rt root value
+   * @return original or new expression
+   * @throws QueryException query exception
+   */
+  private Expr docs(final QueryContext qc, final Value rt) throws QueryException {
+    final ArrayList<Step> stps = new ArrayList<>();
+    final ArrayList<IndexToken[]> tokens = new ArrayList<>();
+    final int sl = steps.length;
+    for(int s = 0; s < sl; s++) {
+      final Step step = axisStep(s);
+      if(step == null) break;
+      stps.add(step);
+      for(final Expr pred : step.preds) {
+        final IndexToken[] it = pred.indexTokens(step, qc);
+        if(it != null) tokens.add(it);
+      }
+    }
+    if(stps.isEmpty()) return this;
+
+    final Value docs = qc.resources.docs(rt, stps, tokens);
+    if(docs == null || docs.size() == rt.size()) return this;
+    qc.compInfo(OPTDOCSINDEX, docs.size(), rt.size());
+    return get(info, docs, steps);
+  }
+
   /**
    * Checks if steps before index step need to be inverted and traversed.
    * @param data data reference
@@ -389,7 +389,7 @@ public abstract class StandardFunc extends Arr {
       throws QueryException {
 
     for(Item it; (it = iter.next()) != null;) {
-//      qc.checkStop();
+      qc.checkStop();
       if(it instanceof FItem) throw FISTRING_X.get(info, it.type);
       cache.add(it.materialize(info));
     }
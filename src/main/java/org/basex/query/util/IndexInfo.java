@@ -93,6 +93,33 @@ public final class IndexInfo {
     return last.test.type == NodeType.ATT && data.meta.attrindex;
   }
 
+  /**
+   * Returns the index type of the nodes compared by a predicate of a step, if they are text or attribute
+   * nodes of the document of the step. Unlike {@link #check}, no data reference is required.
+   * <ul>
+   *   <li> //x[text() = 'TEXT']    -> text </li>
+   *   <li> //x[y/@a = 'TEXT']      -> attribute </li>
+   *   <li> //@x[. = 'TEXT']        -> attribute </li>
+   *   <li> //x[y = 'TEXT']         -> {@code null} </li>
+   * </ul>
+   * @param step step
+   * @param pr predicate expression
+   * @return index type or {@code null}
+   */
+  public static IndexType type(final Step step, final Expr pr) {
+    final Step last;
+    if(pr instanceof ContextValue) {
+      last = step;
+    } else if(pr instanceof AxisPath && ((AxisPath) pr).root == null) {
+      final AxisPath path = (AxisPath) pr;
+      last = path.step(path.steps.length - 1);
+    } else {
+      return null;
+    }
+    final NodeType type = last.test.type;
+    return type == NodeType.TXT ? IndexType.TEXT : type == NodeType.ATT ? IndexType.ATTRIBUTE : null;
+  }
+
   /**
    * Creates an index expression with an inverted axis path.
    * @param root new root expression
@@ -26,6 +26,8 @@ public abstract class ADate extends ADateDur {
   static final long MIN_YEAR = -MAX_YEAR;
   /** Constant for counting negative years (divisible by 400). */
   private static final long ADD_NEG = (MAX_YEAR / 400 + 1) * 400;
+  /** Day count of 1970-01-01. */
+  private static final BigDecimal EPOCH = days(1970 + ADD_NEG, 0, 0);
 
   /** Pattern for two digits. */
   static final String DD = "(\\d{2})";
@@ -407,16 +409,46 @@ public abstract class ADate extends ADateDur {
    * @return seconds
    */
   final BigDecimal seconds() {
-    int z = tz;
-    if(z == Short.MAX_VALUE) {
-      // [CG] XQuery, DateTime: may be removed
-      final long n = System.currentTimeMillis();
-      z = Calendar.getInstance().getTimeZone().getOffset(n) / 60000;
-    }
+    return seconds(tz == Short.MAX_VALUE ? implicitZone() : tz);
+  }
+
+  /**
+   * Returns the date in seconds, adjusted with the specified timezone.
+   * @param z timezone in minutes
+   * @return seconds
+   */
+  private BigDecimal seconds(final int z) {
     return (sec == null ? BigDecimal.ZERO : sec).add(
         BigDecimal.valueOf(Math.max(0, hou) * 3600 + Math.max(0, min) * 60 - z * 60));
   }
 
+  /**
+   * Returns the seconds since 1970-01-01T00:00:00Z. Dates without timezone are adjusted with the
+   * implicit timezone.
+   * @return seconds
+   */
+  public final BigDecimal utc() {
+    return seconds().add(days().subtract(EPOCH).multiply(DAYSECONDS));
+  }
+
+  /**
+   * Returns the seconds since 1970-01-01T00:00:00. Only dates with timezone are adjusted to UTC.
+   * @return seconds
+   */
+  public final BigDecimal local() {
+    return seconds(tz == Short.MAX_VALUE ? 0 : tz).add(days().subtract(EPOCH).multiply(DAYSECONDS));
+  }
+
+  /**
+   * Returns the implicit timezone.
+   * @return timezone in minutes
+   */
+  public static int implicitZone() {
+    // [CG] XQuery, DateTime: may be removed
+    final long n = System.currentTimeMillis();
+    return Calendar.getInstance().getTimeZone().getOffset(n) / 60000;
+  }
+
   /**
    * Returns a day count.
    * @return days
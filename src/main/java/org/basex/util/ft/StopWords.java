@@ -34,7 +34,8 @@ public final class StopWords extends TokenSet {
    */
   public StopWords(final Data data, final MainOptions options) throws IOException {
     final String file = options.get(MainOptions.STOPWORDS);
-    if(!file.isEmpty()) read(IO.get(file), false);
+    if(file.isEmpty()) return;
+    read(IO.get(file), false);
     try(final DataOutput out = new DataOutput(data.meta.dbfile(DATASWL))) {
       write(out);
     }
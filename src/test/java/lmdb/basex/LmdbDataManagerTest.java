@@ -1,22 +1,54 @@
 package lmdb.basex;
 
+import lmdb.util.Byte;
 import org.apache.commons.io.FileUtils;
 import org.apache.log4j.Level;
 import org.apache.log4j.LogManager;
+import org.basex.core.MainOptions;
 import org.basex.query.QueryException;
+import org.basex.util.Token;
+import org.fusesource.lmdbjni.Database;
+import org.fusesource.lmdbjni.Entry;
+import org.fusesource.lmdbjni.EntryIterator;
+import org.fusesource.lmdbjni.Transaction;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
 
+import static org.basex.util.Token.token;
+import static org.fusesource.lmdbjni.Constants.NOSYNC;
+import static org.fusesource.lmdbjni.Constants.bytes;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class LmdbDataManagerTest {
 
@@ -97,4 +129,1015 @@ public class LmdbDataManagerTest {
         LmdbDataManager.removeCollection(TEST_COLLECTION);
         assertFalse(result.isEmpty());
     }
+
+    @Test
+    public void pageCacheInvalidationTest() throws IOException, QueryException, InterruptedException {
+        LmdbDataManager.createCollection(TEST_COLLECTION);
+        LmdbDataManager.createDocument(TEST_COLLECTION + "/books", new FileInputStream(XML_DIR + "books.xml"));
+        // indexing the document invalidates its cached pages
+        assertTrue(LmdbIndexer.await(60000));
+        String count = "count(doc('" + TEST_COLLECTION + "/books')//book)";
+        // pages are read in place by default
+        long hits = LmdbPageCache.hits();
+        assertEquals("12", LmdbQueryContext.queryString(count));
+        assertEquals("12", LmdbQueryContext.queryString(count));
+        assertEquals(hits, LmdbPageCache.hits());
+        TableLmdbAccess.readMode(TableLmdbAccess.ReadMode.SHARED);
+        try {
+            assertEquals("12", LmdbQueryContext.queryString(count));
+            hits = LmdbPageCache.hits();
+            assertEquals("12", LmdbQueryContext.queryString(count));
+            assertTrue(LmdbPageCache.hits() > hits);
+            try(LmdbQueryContext ctx = new LmdbQueryContext("insert node <book id='bk113'/> into doc('" + TEST_COLLECTION + "/books')/catalog")) {
+                ctx.run(new ByteArrayOutputStream());
+            }
+            assertEquals("13", LmdbQueryContext.queryString(count));
+            // stamps older than every snapshot are dropped: the document still counts as modified
+            assertTrue(LmdbIndexer.await(60000));
+            final byte[] docid;
+            try(Transaction tx = LmdbDataManager.env.createReadTransaction();
+                LmdbData data = (LmdbData) LmdbDataManager.openDocument(TEST_COLLECTION + "/books", new MainOptions(), tx)) {
+                docid = data.docid;
+            }
+            final long stamp = LmdbPageCache.stamp(docid);
+            assertTrue(stamp > 0);
+            LmdbPageCache.prune(LmdbReaders.snapshot());
+            assertEquals(0, LmdbPageCache.stamps());
+            assertTrue(LmdbPageCache.stamp(docid) >= stamp);
+            assertEquals("13", LmdbQueryContext.queryString(count));
+            hits = LmdbPageCache.hits();
+            assertEquals("13", LmdbQueryContext.queryString(count));
+            assertTrue(LmdbPageCache.hits() > hits);
+        } finally {
+            TableLmdbAccess.readMode(TableLmdbAccess.ReadMode.DIRECT);
+        }
+        LmdbDataManager.removeDocument(TEST_COLLECTION + "/books");
+    }
+
+    @Test
+    public void structCacheTest() throws IOException, QueryException, InterruptedException {
+        LmdbDataManager.createCollection(TEST_COLLECTION);
+        LmdbDataManager.createDocument(TEST_COLLECTION + "/books", new FileInputStream(XML_DIR + "books.xml"));
+        assertTrue(LmdbIndexer.await(60000));
+        final String name = TEST_COLLECTION + "/books";
+        try(Transaction tx = LmdbDataManager.env.createReadTransaction();
+            LmdbData first = (LmdbData) LmdbDataManager.openDocument(name, new MainOptions(), tx);
+            LmdbData second = (LmdbData) LmdbDataManager.openDocument(name, new MainOptions(), tx)) {
+            // the cached structure is shared, the path summary is bound to each reader
+            assertNotSame(first.paths, second.paths);
+            assertTrue(second.paths.desc(token("review")).isEmpty());
+        }
+        try(LmdbQueryContext ctx = new LmdbQueryContext("insert node <review/> into doc('" + name + "')/catalog")) {
+            ctx.run(new ByteArrayOutputStream());
+        }
+        // the path summary is rebuilt by the indexer
+        assertTrue(LmdbIndexer.await(60000));
+        try(Transaction tx = LmdbDataManager.env.createReadTransaction();
+            LmdbData data = (LmdbData) LmdbDataManager.openDocument(name, new MainOptions(), tx)) {
+            assertFalse(data.paths.desc(token("review")).isEmpty());
+        }
+        LmdbDataManager.removeDocument(name);
+    }
+
+    @Test
+    public void textRefPerDocumentTest() throws IOException, QueryException {
+        LmdbDataManager.createCollection(TEST_COLLECTION);
+        LmdbDataManager.createDocument(TEST_COLLECTION + "/books", new FileInputStream(XML_DIR + "books.xml"));
+        LmdbDataManager.createDocument(TEST_COLLECTION + "/employees", new FileInputStream(XML_DIR + "employees.xml"));
+        String books = "string(doc('" + TEST_COLLECTION + "/books')/catalog)";
+        String before = LmdbQueryContext.queryString(books);
+        try(LmdbQueryContext ctx = new LmdbQueryContext("insert node <note>new</note> as last into doc('" + TEST_COLLECTION + "/books')/catalog")) {
+            ctx.run(new ByteArrayOutputStream());
+        }
+        assertEquals(before + "new", LmdbQueryContext.queryString(books));
+        LmdbDataManager.removeDocument(TEST_COLLECTION + "/books");
+        LmdbDataManager.removeDocument(TEST_COLLECTION + "/employees");
+    }
+
+    @Test
+    public void reindexTest() throws IOException, QueryException {
+        LmdbDataManager.createCollection(TEST_COLLECTION);
+        LmdbDataManager.createDocument(TEST_COLLECTION + "/books", new FileInputStream(XML_DIR + "books.xml"));
+        LmdbDataManager.createDocument(TEST_COLLECTION + "/employees", new FileInputStream(XML_DIR + "employees.xml"));
+        LmdbDataManager.indexDocument(TEST_COLLECTION + "/employees");
+        // the keys of the first document sort before the keys of the second one and can't be appended
+        LmdbDataManager.indexDocument(TEST_COLLECTION + "/books");
+        try(Transaction tx = LmdbDataManager.env.createReadTransaction();
+            LmdbData data = (LmdbData) LmdbDataManager.openDocument(TEST_COLLECTION + "/books", new MainOptions(), tx)) {
+            assertTrue(LmdbValues.exists(data.docid, true, tx));
+            assertTrue(LmdbValues.exists(data.docid, false, tx));
+        }
+        assertEquals("1", LmdbQueryContext.queryString("count(doc('" + TEST_COLLECTION + "/books')//book[@id='bk101'])"));
+        LmdbDataManager.removeDocument(TEST_COLLECTION + "/books");
+        LmdbDataManager.removeDocument(TEST_COLLECTION + "/employees");
+    }
+
+    @Test
+    public void importDocumentsTest() throws IOException, QueryException {
+        String collection = "shakespeare";
+        LmdbDataManager.createCollection(collection);
+        List<String> created;
+        try(ZipInputStream zip = new ZipInputStream(new FileInputStream(HOME + "/xml/shakespeare.zip"))) {
+            created = LmdbDataManager.importDocuments(collection, zip);
+        }
+        List<String> docs = LmdbDataManager.listDocuments(collection);
+        assertEquals(created.size(), docs.size());
+        assertTrue(docs.contains("hamlet"));
+        assertEquals(String.valueOf(docs.size()), LmdbQueryContext.queryString("count(collection('" + collection + "'))"));
+        assertEquals("The Tragedy of Hamlet, Prince of Denmark", LmdbQueryContext.queryString("string(doc('" + collection + "/hamlet')/PLAY/TITLE)"));
+        LmdbDataManager.removeCollection(collection);
+    }
+
+    @Test
+    public void importAbortTest() throws IOException {
+        String collection = "broken";
+        LmdbDataManager.createCollection(collection);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] malformed = "<malformed/>".getBytes(StandardCharsets.UTF_8);
+        try(ZipOutputStream out = new ZipOutputStream(bos)) {
+            for(int d = 0; d < 8; d++) {
+                out.putNextEntry(new ZipEntry("d" + d + ".xml"));
+                out.write(("<d n='" + d + "'/>").getBytes(StandardCharsets.UTF_8));
+                out.closeEntry();
+            }
+            ZipEntry e = new ZipEntry("malformed.xml");
+            e.setMethod(ZipEntry.STORED);
+            e.setSize(malformed.length);
+            CRC32 crc = new CRC32();
+            crc.update(malformed);
+            e.setCrc(crc.getValue());
+            out.putNextEntry(e);
+            out.write(malformed);
+            out.closeEntry();
+        }
+        byte[] zip = bos.toByteArray();
+        // the stored entry fails its checksum once it is read
+        zip[new String(zip, StandardCharsets.ISO_8859_1).indexOf("<malformed/>") + 1] = 'M';
+        try(ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip))) {
+            LmdbDataManager.importDocuments(collection, in);
+            fail("malformed entry imported");
+        } catch(ZipException expected) {
+        }
+        for(Thread t : Thread.getAllStackTraces().keySet()) assertFalse(t.getName().equals("lmdb-import-" + collection));
+        assertTrue(LmdbDataManager.listDocuments(collection).isEmpty());
+        try(Transaction tx = LmdbDataManager.env.createReadTransaction()) {
+            assertEquals(0, LmdbCollections.info(collection, tx)[0]);
+        }
+        LmdbDataManager.removeCollection(collection);
+    }
+
+    @Test
+    public void importFailureTest() throws Exception {
+        final String collection = "failing";
+        LmdbDataManager.createCollection(collection);
+        // ids of the imported documents are leased before the write lock is taken below
+        final int first = leaseDocumentIds(collection, 16);
+        // a document of the same name is created while the import runs, holding the write lock until released
+        final CountDownLatch locked = new CountDownLatch(1), release = new CountDownLatch(1);
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        final Thread creator = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    // the document is parsed, and written, when the input of the parser is exhausted
+                    final StringBuilder head = new StringBuilder("<d n='3'>");
+                    for(int c = 0; c < 1 << 16; c++) head.append(' ');
+                    LmdbDataManager.createDocument(collection + "/d3", new InputStream() {
+                        private byte[] chunk = head.toString().getBytes(StandardCharsets.UTF_8);
+                        private int pos;
+                        @Override
+                        public int read() throws IOException {
+                            if(pos == chunk.length) {
+                                if(locked.getCount() == 0) return -1;
+                                locked.countDown();
+                                try {
+                                    release.await();
+                                } catch(InterruptedException e) {
+                                    throw new IOException(e);
+                                }
+                                chunk = "</d>".getBytes(StandardCharsets.UTF_8);
+                                pos = 0;
+                            }
+                            return chunk[pos++];
+                        }
+                    });
+                } catch(Throwable e) {
+                    errors.add(e);
+                }
+            }
+        };
+        creator.start();
+        locked.await();
+        // every document is stored with several transactions
+        LmdbImporter.batchSize(4);
+        try(LmdbImporter imp = new LmdbImporter(collection, 8)) {
+            for(int d = 0; d < 8; d++) imp.add("d" + d, ("<d n='" + d + "'>" + d + "</d>").getBytes(StandardCharsets.UTF_8));
+            release.countDown();
+            creator.join();
+            imp.finish();
+            fail("document imported twice");
+        } catch(IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains(collection + "/d3: document " + collection + "/d3 exists"));
+        } finally {
+            LmdbImporter.batchSize(100000);
+        }
+        assertTrue(errors.toString(), errors.isEmpty());
+        // the imported documents are removed again, and the keys of the failed one reclaimed
+        assertEquals(Collections.singletonList("d3"), LmdbDataManager.listDocuments(collection));
+        assertEquals("3", LmdbQueryContext.queryString("string(doc('" + collection + "/d3')/d/@n)"));
+        LmdbCleaner.start();
+        try {
+            assertTrue(LmdbCleaner.await(60000));
+        } finally {
+            LmdbCleaner.stop();
+        }
+        try(Transaction tx = LmdbDataManager.env.createReadTransaction()) {
+            final Set<Integer> live = new HashSet<Integer>();
+            try(EntryIterator ei = LmdbDataManager.coldb.iterate(tx)) {
+                while(ei.hasNext()) {
+                    final Entry e = ei.next();
+                    if(Token.contains(e.getKey(), '/') && e.getValue().length == 4) live.add(Byte.getInt(e.getValue()));
+                }
+            }
+            try(EntryIterator ei = LmdbDataManager.tableaccessdb.iterate(tx)) {
+                while(ei.hasNext()) {
+                    final int docid = Byte.getInt(ei.next().getKey());
+                    assertTrue(docid < first || live.contains(docid));
+                }
+            }
+        }
+        LmdbDataManager.removeCollection(collection);
+    }
+
+    /**
+     * Leases document ids, so that the given number of ids is handed out without write transaction.
+     * @param collection collection
+     * @param ids number of ids
+     * @return first id handed out by this call
+     */
+    private static int leaseDocumentIds(final String collection, final int ids) throws IOException {
+        final int first = Byte.getInt(LmdbDataManager.getNextDocumentId(collection + "/lease"));
+        int id = first;
+        while(Byte.getInt(LmdbDataManager.coldb.get(new byte[] { 0 })) - id < ids) {
+            id = Byte.getInt(LmdbDataManager.getNextDocumentId(collection + "/lease"));
+        }
+        return first;
+    }
+
+    @Test
+    public void backgroundIndexTest() throws Exception {
+        LmdbDataManager.createCollection(TEST_COLLECTION);
+        LmdbDataManager.createDocument(TEST_COLLECTION + "/factbook", new FileInputStream(XML_DIR + "factbook.xml"));
+        assertTrue(LmdbIndexer.await(60000));
+        String lake = "doc('" + TEST_COLLECTION + "/factbook')//lake[@id='f0_39401']/@name/string()";
+        try(Transaction tx = LmdbDataManager.env.createReadTransaction();
+            LmdbData data = (LmdbData) LmdbDataManager.openDocument(TEST_COLLECTION + "/factbook", new MainOptions(), tx)) {
+            assertTrue(data.meta.textindex && data.meta.attrindex && data.meta.ftindex);
+            assertNotNull(data.attrIndex);
+        }
+        String name = LmdbQueryContext.queryString(lake);
+        assertFalse(name.isEmpty());
+
+        try(LmdbQueryContext ctx = new LmdbQueryContext("replace value of node " + lake.replace("/string()", "") + " with 'Lake Test'")) {
+            ctx.run(new ByteArrayOutputStream());
+        }
+        assertTrue(LmdbIndexer.await(60000));
+        assertEquals("Lake Test", LmdbQueryContext.queryString(lake));
+        assertEquals("1", LmdbQueryContext.queryString("count(doc('" + TEST_COLLECTION + "/factbook')//lake[@name='Lake Test'])"));
+        LmdbDataManager.removeDocument(TEST_COLLECTION + "/factbook");
+    }
+
+    @Test
+    public void updatableFullTextIndexTest() throws Exception {
+        LmdbIndexer.updatable(true);
+        try {
+            LmdbDataManager.createCollection(TEST_COLLECTION);
+            LmdbDataManager.createDocument(TEST_COLLECTION + "/books", new FileInputStream(XML_DIR + "books.xml"));
+        } finally {
+            LmdbIndexer.updatable(false);
+        }
+        assertTrue(LmdbIndexer.await(60000));
+        String books = "doc('" + TEST_COLLECTION + "/books')";
+        try(LmdbQueryContext ctx = new LmdbQueryContext("replace value of node " + books + "//book[@id='bk102']/title with 'Morning Fog'")) {
+            ctx.run(new ByteArrayOutputStream());
+        }
+        try(LmdbQueryContext ctx = new LmdbQueryContext("insert node <book id='bk113'><title>Midnight Sun</title></book> into " + books + "/catalog")) {
+            ctx.run(new ByteArrayOutputStream());
+        }
+        // the index is maintained by the updates, not built again
+        try(Transaction tx = LmdbDataManager.env.createReadTransaction();
+            LmdbData data = (LmdbData) LmdbDataManager.openDocument(TEST_COLLECTION + "/books", new MainOptions(), tx)) {
+            assertTrue(data.meta.ftindex);
+            assertTrue(data.ftxtIndex instanceof UpdatableLmdbFTIndex);
+        }
+        assertEquals("bk102", LmdbQueryContext.queryString(books + "//book[title contains text 'fog']/@id/string()"));
+        assertEquals("bk113", LmdbQueryContext.queryString(books + "//book[title contains text 'midnight']/@id/string()"));
+        assertEquals("bk113", LmdbQueryContext.queryString(books + "//book[title contains text 'mid.*' using wildcards]/@id/string()"));
+        assertEquals("0", LmdbQueryContext.queryString("count(" + books + "//book[title contains text 'rain'])"));
+        LmdbDataManager.removeDocument(TEST_COLLECTION + "/books");
+    }
+
+    @Test
+    public void typedRangeIndexTest() throws Exception {
+        LmdbIndexer.ranges(true);
+        try {
+            LmdbDataManager.createCollection(TEST_COLLECTION);
+            LmdbDataManager.createDocument(TEST_COLLECTION + "/factbook", new FileInputStream(XML_DIR + "factbook.xml"));
+            assertTrue(LmdbIndexer.await(60000));
+        } finally {
+            LmdbIndexer.ranges(false);
+        }
+        try(Transaction tx = LmdbDataManager.env.createReadTransaction();
+            LmdbData data = (LmdbData) LmdbDataManager.openDocument(TEST_COLLECTION + "/factbook", new MainOptions(), tx)) {
+            assertTrue(data.textIndex.ranges() && data.attrIndex.ranges());
+        }
+        String factbook = "doc('" + TEST_COLLECTION + "/factbook')";
+        // exclusive and fractional bounds are answered by the index, compared with a scan of the converted values
+        String[] ranges = { "@population > 1000000 and @population < 2000000", "@infant_mortality >= 5.5 and @infant_mortality < 10" };
+        for(String range : ranges) {
+            String query = "count(" + factbook + "//country[" + range + "])";
+            try(LmdbQueryContext ctx = new LmdbQueryContext(query)) {
+                assertTrue(ctx.plan().serialize().toString().contains("RangeAccess"));
+            }
+            assertEquals(LmdbQueryContext.queryString(query.replaceAll("(@\\w+) ", "$1/number() ")), LmdbQueryContext.queryString(query));
+        }
+        LmdbDataManager.removeDocument(TEST_COLLECTION + "/factbook");
+    }
+
+    @Test
+    public void dateRangeIndexTest() throws Exception {
+        final String events = "<events><e id='1' d='2014-12-31'><t>2014-12-31T23:30:00Z</t></e>" +
+                "<e id='2' d='2015-01-01'><t>2015-01-01T00:30:00+01:00</t></e>" +
+                "<e id='3' d='2015-01-01Z'><t>2015-01-01T00:30:00</t></e>" +
+                "<e id='4' d='2015-03-01-05:00'><t>2015-06-30T23:00:00Z</t></e>" +
+                "<e id='5' d='2015-07-01+14:00'><t>2015-07-01T01:00:00+02:00</t></e>" +
+                "<e id='6' d=' 2016-02-29 '><t>2016-02-29T12:00:00.5</t></e></events>";
+        LmdbDataManager.createCollection(TEST_COLLECTION);
+        // the same values, with and without typed keys
+        LmdbIndexer.ranges(true);
+        try {
+            LmdbDataManager.createDocument(TEST_COLLECTION + "/typed", new ByteArrayInputStream(events.getBytes()));
+            assertTrue(LmdbIndexer.await(60000));
+        } finally {
+            LmdbIndexer.ranges(false);
+        }
+        LmdbDataManager.createDocument(TEST_COLLECTION + "/plain", new ByteArrayInputStream(events.getBytes()));
+        assertTrue(LmdbIndexer.await(60000));
+        // dates without timezone are compared in the implicit timezone
+        final TimeZone zone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("America/New_York"));
+        try {
+            String[] ranges = { "xs:date(@d) >= xs:date('2015-01-01')",
+                    "xs:date(@d) > xs:date('2015-01-01Z') and xs:date(@d) < xs:date('2015-07-01')",
+                    "@d = xs:date('2015-03-01-05:00')",
+                    "xs:dateTime(t) > xs:dateTime('2014-12-31T23:30:00Z') and xs:dateTime(t) <= xs:dateTime('2015-06-30T23:00:00Z')",
+                    "xs:dateTime(t) = xs:dateTime('2014-12-31T18:30:00-05:00')",
+                    "xs:dateTime(t) < xs:dateTime('2015-01-01T06:00:00Z')" };
+            for(String range : ranges) {
+                String query = "string-join(doc('" + TEST_COLLECTION + "/%s')//e[" + range + "]/@id, ',')";
+                try(LmdbQueryContext ctx = new LmdbQueryContext(String.format(query, "typed"))) {
+                    assertTrue(range, ctx.plan().serialize().toString().contains("RangeAccess"));
+                }
+                try(LmdbQueryContext ctx = new LmdbQueryContext(String.format(query, "plain"))) {
+                    assertFalse(range, ctx.plan().serialize().toString().contains("RangeAccess"));
+                }
+                assertEquals(range, LmdbQueryContext.queryString(String.format(query, "plain")),
+                        LmdbQueryContext.queryString(String.format(query, "typed")));
+            }
+            // 2015-01-01Z is before midnight in New York, 2015-07-01+14:00 is before 2015-07-01Z
+            assertEquals("2,4,5", LmdbQueryContext.queryString("string-join(doc('" + TEST_COLLECTION +
+                    "/typed')//e[xs:date(@d) >= xs:date('2015-01-01') and xs:date(@d) < xs:date('2015-07-01Z')]/@id, ',')"));
+        } finally {
+            TimeZone.setDefault(zone);
+        }
+        LmdbDataManager.removeDocument(TEST_COLLECTION + "/typed");
+        LmdbDataManager.removeDocument(TEST_COLLECTION + "/plain");
+    }
+
+    @Test
+    public void collectionIndexTest() throws Exception {
+        LmdbIndexer.collections(true);
+        try {
+            LmdbDataManager.createCollection(TEST_COLLECTION);
+            for(String doc : new String[] { "books", "employees", "orders" }) {
+                LmdbDataManager.createDocument(TEST_COLLECTION + "/" + doc, new FileInputStream(XML_DIR + doc + ".xml"));
+            }
+            // the registrations of the whole collection are read, those of a few documents are looked up
+            for(int n = 0; n < 64; n++) {
+                LmdbDataManager.createDocument(TEST_COLLECTION + "/n" + n, new ByteArrayInputStream(("<n v='" + n + "'/>").getBytes()));
+            }
+            assertTrue(LmdbIndexer.await(60000));
+        } finally {
+            LmdbIndexer.collections(false);
+        }
+        String collection = "collection('" + TEST_COLLECTION + "')";
+        String n = "collection('" + TEST_COLLECTION + "/n*')//n[@v = '7']/@v/string()";
+        try(LmdbQueryContext ctx = new LmdbQueryContext(n)) {
+            assertTrue(ctx.plan().serialize().toString().contains("LazyDBNodeSeq size=\"1\""));
+        }
+        assertEquals("7", LmdbQueryContext.queryString(n));
+        String book = collection + "//book[@id='bk102']/author/string()";
+        // only the documents containing the value are opened
+        try(LmdbQueryContext ctx = new LmdbQueryContext(book)) {
+            assertTrue(ctx.plan().serialize().toString().contains("LazyDBNodeSeq size=\"1\""));
+        }
+        assertEquals("Ralls, Kim", LmdbQueryContext.queryString(book));
+        // compared with a scan of the atomized values
+        String[][] queries = {
+            { "count(" + collection + "//id[text() = '174'])", "count(" + collection + "//id[string() = '174'])" },
+            { "count(" + collection + "//price[text() > 20])", "count(" + collection + "//price[number() > 20])" },
+            { "count(" + collection + "//book[@id >= 'bk105' and @id < 'bk108'])", "count(" + collection + "//book[data(@id) >= 'bk105' and data(@id) < 'bk108'])" },
+            { "count(" + collection + "//book[@id = 'bk999'])", "0" },
+        };
+        for(String[] query : queries) assertEquals(LmdbQueryContext.queryString(query[1]), LmdbQueryContext.queryString(query[0]));
+
+        // updated documents are evaluated until they are indexed again
+        try(LmdbQueryContext ctx = new LmdbQueryContext("replace value of node doc('" + TEST_COLLECTION + "/books')//book[@id='bk102']/@id with 'bk999'")) {
+            ctx.run(new ByteArrayOutputStream());
+        }
+        assertEquals("1", LmdbQueryContext.queryString("count(" + collection + "//book[@id = 'bk999'])"));
+        assertTrue(LmdbIndexer.await(60000));
+        assertEquals("1", LmdbQueryContext.queryString("count(" + collection + "//book[@id = 'bk999'])"));
+        assertEquals("", LmdbQueryContext.queryString(book));
+        for(String doc : LmdbDataManager.listDocuments(TEST_COLLECTION)) LmdbDataManager.removeDocument(TEST_COLLECTION + "/" + doc);
+    }
+
+    @Test
+    public void collectionPathsTest() throws Exception {
+        LmdbDataManager.createCollection(TEST_COLLECTION);
+        for(String doc : new String[] { "books", "employees", "orders" }) {
+            LmdbDataManager.createDocument(TEST_COLLECTION + "/" + doc, new FileInputStream(XML_DIR + doc + ".xml"));
+        }
+        String collection = "collection('" + TEST_COLLECTION + "')";
+        // only the documents containing the path are opened
+        try(LmdbQueryContext ctx = new LmdbQueryContext(collection + "//book/title/string()")) {
+            assertTrue(ctx.plan().serialize().toString().contains("LazyDBNodeSeq size=\"1\""));
+        }
+        // counts are computed from the path summary, compared with an evaluation of all documents
+        String[] paths = { "//book", "//book/@id", "/*", "//*", "//text()", "/descendant-or-self::node()", "//nothing" };
+        for(String path : paths) {
+            String count = "count(" + collection + path + ")";
+            try(LmdbQueryContext ctx = new LmdbQueryContext(count)) {
+                assertFalse(ctx.plan().serialize().toString().contains("Path"));
+            }
+            assertEquals(LmdbQueryContext.queryString("count(" + collection + "[random:double() >= 0]" + path + ")"),
+                    LmdbQueryContext.queryString(count));
+        }
+
+        // updated documents are evaluated until their path summary is rebuilt
+        try(LmdbQueryContext ctx = new LmdbQueryContext("insert node <book id='bk999'/> into doc('" + TEST_COLLECTION + "/employees')/*")) {
+            ctx.run(new ByteArrayOutputStream());
+        }
+        String books = LmdbQueryContext.queryString("count(" + collection + "[random:double() >= 0]//book)");
+        assertEquals(books, LmdbQueryContext.queryString("count(" + collection + "//book)"));
+        assertTrue(LmdbIndexer.await(60000));
+        assertEquals(books, LmdbQueryContext.queryString("count(" + collection + "//book)"));
+        try(LmdbQueryContext ctx = new LmdbQueryContext("count(" + collection + "//book)")) {
+            assertFalse(ctx.plan().serialize().toString().contains("Path"));
+        }
+        LmdbDataManager.removeDocument(TEST_COLLECTION + "/books");
+        assertEquals("1", LmdbQueryContext.queryString("count(" + collection + "//book)"));
+        LmdbDataManager.removeDocument(TEST_COLLECTION + "/employees");
+        LmdbDataManager.removeDocument(TEST_COLLECTION + "/orders");
+    }
+
+    @Test
+    public void deepDocumentPathsTest() throws Exception {
+        LmdbDataManager.createCollection(TEST_COLLECTION);
+        // the paths of the document exceed the key size, it isn't registered
+        StringBuilder deep = new StringBuilder();
+        for(int l = 0; l < 30; l++) deep.append("<section_element_").append(l).append('>');
+        for(int l = 29; l >= 0; l--) deep.append("</section_element_").append(l).append('>');
+        LmdbDataManager.createDocument(TEST_COLLECTION + "/deep", new ByteArrayInputStream(deep.toString().getBytes()));
+        LmdbDataManager.createDocument(TEST_COLLECTION + "/books", new FileInputStream(XML_DIR + "books.xml"));
+        assertTrue(LmdbIndexer.await(60000));
+        String collection = "collection('" + TEST_COLLECTION + "')";
+        assertEquals("1", LmdbQueryContext.queryString("count(" + collection + "//section_element_29)"));
+        assertEquals("12", LmdbQueryContext.queryString("count(" + collection + "//book)"));
+        assertEquals(LmdbQueryContext.queryString("count(" + collection + "[random:double() >= 0]//*)"),
+                LmdbQueryContext.queryString("count(" + collection + "//*)"));
+        LmdbDataManager.removeDocument(TEST_COLLECTION + "/deep");
+        LmdbDataManager.removeDocument(TEST_COLLECTION + "/books");
+    }
+
+    @Test
+    public void lazyCollectionTest() throws Exception {
+        LmdbDataManager.createCollection(TEST_COLLECTION);
+        for(String doc : new String[] { "books", "employees", "orders" }) {
+            LmdbDataManager.createDocument(TEST_COLLECTION + "/" + doc, new FileInputStream(XML_DIR + doc + ".xml"));
+        }
+        String collection = "collection('" + TEST_COLLECTION + "')";
+        // positional access works on the names of the documents
+        try(LmdbQueryContext ctx = new LmdbQueryContext(collection + "[position() = 2 to 3]")) {
+            assertTrue(ctx.plan().serialize().toString().contains("LazyDBNodeSeq size=\"2\""));
+        }
+        assertEquals("3", LmdbQueryContext.queryString("count(" + collection + ")"));
+        assertEquals("catalog", LmdbQueryContext.queryString("name(head(" + collection + ")/*)"));
+        assertEquals("2", LmdbQueryContext.queryString("count(tail(" + collection + "))"));
+        assertEquals("orders employees catalog", LmdbQueryContext.queryString("string-join(reverse(" + collection + ")/*/name(), ' ')"));
+        assertEquals("employees", LmdbQueryContext.queryString("name(subsequence(" + collection + ", 2, 1)/*)"));
+        assertEquals("orders", LmdbQueryContext.queryString("name(" + collection + "[last()]/*)"));
+
+        // updates of documents of a collection are written
+        try(LmdbQueryContext ctx = new LmdbQueryContext("insert node <book id='bk999'/> into " + collection + "[2]/*")) {
+            ctx.run(new ByteArrayOutputStream());
+        }
+        assertEquals("1", LmdbQueryContext.queryString("count(doc('" + TEST_COLLECTION + "/employees')//book)"));
+        LmdbDataManager.removeDocument(TEST_COLLECTION + "/books");
+        LmdbDataManager.removeDocument(TEST_COLLECTION + "/employees");
+        LmdbDataManager.removeDocument(TEST_COLLECTION + "/orders");
+    }
+
+    @Test
+    public void collectionSelectionTest() throws Exception {
+        LmdbDataManager.createCollection(TEST_COLLECTION);
+        for(String day : new String[] { "2015-01-01", "2015-01-31", "2015-02-10", "2015-03-31", "2015-04-01" }) {
+            LmdbDataManager.createDocument(TEST_COLLECTION + "/" + day, new ByteArrayInputStream(("<day>" + day + "</day>").getBytes()));
+        }
+        LmdbDataManager.removeDocument(TEST_COLLECTION + "/2015-02-10");
+        String[][] selections = {
+            { "", "2015-01-01 2015-01-31 2015-03-31 2015-04-01" },
+            { "/2015-01*", "2015-01-01 2015-01-31" },
+            { "/2015-0?-31", "2015-01-31 2015-03-31" },
+            { "/2015-01..2015-03", "2015-01-01 2015-01-31 2015-03-31" },
+            { "/2015-01-15..", "2015-01-31 2015-03-31 2015-04-01" },
+            { "/2015-03-31", "2015-03-31" },
+            { "/2015-02-10", "" },
+        };
+        for(String[] selection : selections) {
+            assertEquals(selection[1], LmdbQueryContext.queryString("string-join(collection('" + TEST_COLLECTION + selection[0] + "'), ' ')"));
+        }
+        assertEquals(Arrays.asList("2015-01-01", "2015-01-31"), LmdbDataManager.listDocuments(TEST_COLLECTION + "/2015-01*"));
+        for(String day : LmdbDataManager.listDocuments(TEST_COLLECTION)) LmdbDataManager.removeDocument(TEST_COLLECTION + "/" + day);
+    }
+
+    @Test
+    public void collectionRegistryTest() throws Exception {
+        LmdbDataManager.createCollection(TEST_COLLECTION);
+        assertTrue(LmdbDataManager.existsCollection(TEST_COLLECTION));
+        assertEquals(0, LmdbDataManager.countDocuments(TEST_COLLECTION));
+        assertEquals(0, LmdbDataManager.collectionSize(TEST_COLLECTION));
+        assertTrue(LmdbDataManager.collectionCreated(TEST_COLLECTION) > 0);
+
+        LmdbDataManager.createDocument(TEST_COLLECTION + "/books", new FileInputStream(XML_DIR + "books.xml"));
+        LmdbDataManager.createDocument(TEST_COLLECTION + "/employees", new FileInputStream(XML_DIR + "employees.xml"));
+        assertEquals(2, LmdbDataManager.countDocuments(TEST_COLLECTION));
+        long size = LmdbDataManager.collectionSize(TEST_COLLECTION);
+        assertTrue(size > new File(XML_DIR + "books.xml").length() / 2);
+
+        try(LmdbQueryContext ctx = new LmdbQueryContext("insert node <note>new</note> into doc('" + TEST_COLLECTION + "/books')/catalog")) {
+            ctx.run(new ByteArrayOutputStream());
+        }
+        // two nodes and their value
+        assertEquals(size + 2 * 16 + 3, LmdbDataManager.collectionSize(TEST_COLLECTION));
+
+        LmdbDataManager.removeDocument(TEST_COLLECTION + "/books");
+        assertEquals(1, LmdbDataManager.countDocuments(TEST_COLLECTION));
+        assertTrue(LmdbDataManager.collectionSize(TEST_COLLECTION) < size);
+        LmdbDataManager.removeCollection(TEST_COLLECTION);
+        assertFalse(LmdbDataManager.existsCollection(TEST_COLLECTION));
+        assertFalse(LmdbDataManager.listCollections().contains(TEST_COLLECTION));
+        assertTrue(LmdbDataManager.listDocuments(TEST_COLLECTION).isEmpty());
+    }
+
+    @Test
+    public void cleanerTest() throws Exception {
+        LmdbDataManager.createCollection(TEST_COLLECTION);
+        LmdbDataManager.createDocument(TEST_COLLECTION + "/factbook", new FileInputStream(XML_DIR + "factbook.xml"));
+        byte[] docid = LmdbDataManager.coldb.get(bytes(TEST_COLLECTION + "/factbook"));
+        long documents = LmdbCleaner.documents(), reclaimed = LmdbCleaner.reclaimed();
+        // many short transactions
+        LmdbCleaner.transactionTime(1);
+        LmdbCleaner.start();
+        try {
+            LmdbDataManager.removeDocument(TEST_COLLECTION + "/factbook");
+            assertTrue(LmdbCleaner.await(60000));
+        } finally {
+            LmdbCleaner.stop();
+            LmdbCleaner.transactionTime(50);
+        }
+        assertTrue(LmdbCleaner.documents() > documents);
+        assertTrue(LmdbCleaner.reclaimed() - reclaimed > new File(XML_DIR + "factbook.xml").length() / 2);
+        try(Transaction tx = LmdbDataManager.env.createReadTransaction()) {
+            assertEquals(null, LmdbDataManager.structdb.get(tx, docid));
+            for(Database db : new Database[] { LmdbDataManager.tableaccessdb, LmdbDataManager.textdatadb,
+                    LmdbDataManager.attributevaldb }) {
+                try(EntryIterator ei = db.seek(tx, docid)) {
+                    assertTrue(!ei.hasNext() || !Arrays.equals(docid, Arrays.copyOf(ei.next().getKey(), 4)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void failedBuildTest() throws Exception {
+        LmdbDataManager.createCollection(TEST_COLLECTION);
+        final String name = TEST_COLLECTION + "/books";
+        LmdbDataManager.createDocument(name, new FileInputStream(XML_DIR + "books.xml"));
+        final byte[] removed = LmdbDataManager.coldb.get(bytes(name));
+        LmdbDataManager.removeDocument(name);
+        StringBuilder broken = new StringBuilder("<r>");
+        for(int e = 0; e < 100; e++) broken.append("<e>").append(e).append("</e>");
+        // nothing is committed before the document fails
+        try {
+            LmdbDataManager.createDocument(name, new ByteArrayInputStream(broken.toString().getBytes()));
+            fail("malformed document created");
+        } catch(IOException expected) {
+        }
+        assertTrue(failed(name).isEmpty());
+        // full batches are committed before the document fails
+        LmdbWriteBatch.defaultSize(10);
+        try {
+            LmdbDataManager.createDocument(name, new ByteArrayInputStream(broken.toString().getBytes()));
+            fail("malformed document created");
+        } catch(IOException expected) {
+        } finally {
+            LmdbWriteBatch.defaultSize(10000);
+        }
+        final List<byte[]> failed = failed(name);
+        assertEquals(1, failed.size());
+        // the marker of the removed document is kept
+        assertTrue(Arrays.equals(removed, LmdbDataManager.coldb.get(bytes(name + "/r"))));
+        LmdbCleaner.start();
+        try {
+            assertTrue(LmdbCleaner.await(60000));
+        } finally {
+            LmdbCleaner.stop();
+        }
+        try(Transaction tx = LmdbDataManager.env.createReadTransaction()) {
+            for(byte[] docid : new byte[][] { removed, failed.get(0) }) {
+                try(EntryIterator ei = LmdbDataManager.tableaccessdb.seek(tx, docid)) {
+                    assertTrue(!ei.hasNext() || !Arrays.equals(docid, Arrays.copyOf(ei.next().getKey(), 4)));
+                }
+            }
+        }
+        assertTrue(LmdbDataManager.listDocuments(TEST_COLLECTION).isEmpty());
+    }
+
+    /**
+     * Returns the ids of the documents of a name which failed to load, and whose keys are not deleted yet.
+     * @param name document name
+     * @return document ids
+     */
+    private static List<byte[]> failed(final String name) {
+        final List<byte[]> docids = new ArrayList<byte[]>();
+        try(Transaction tx = LmdbDataManager.env.createReadTransaction();
+            EntryIterator ei = LmdbDataManager.coldb.seek(tx, bytes(name + '/'))) {
+            while(ei.hasNext()) {
+                final Entry e = ei.next();
+                final String key = new String(e.getKey(), StandardCharsets.UTF_8);
+                if(!key.startsWith(name + '/')) break;
+                if(key.endsWith("/r") && !key.equals(name + "/r")) docids.add(e.getValue());
+            }
+        }
+        return docids;
+    }
+
+    @Test
+    public void documentIdLeaseTest() throws Exception {
+        LmdbDataManager.createCollection(TEST_COLLECTION);
+        final Set<Integer> ids = Collections.synchronizedSet(new HashSet<Integer>());
+        Thread[] threads = new Thread[8];
+        for(int t = 0; t < threads.length; t++) {
+            final int n = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for(int d = 0; d < 200; d++) {
+                            ids.add(Byte.getInt(LmdbDataManager.getNextDocumentId(TEST_COLLECTION + "/d" + n + "-" + d)));
+                        }
+                    } catch(IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for(Thread t : threads) t.join();
+        assertEquals(1600, ids.size());
+        // every handed out id is leased
+        int last = Byte.getInt(LmdbDataManager.coldb.get(new byte[] { 0 }));
+        for(int id : ids) assertTrue(id <= last);
+    }
+
+    @Test
+    public void concurrentCreateTest() throws Exception {
+        LmdbDataManager.createCollection(TEST_COLLECTION);
+        final String name = TEST_COLLECTION + "/books";
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger created = new AtomicInteger(), exists = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for(int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        LmdbDataManager.createDocument(name, new FileInputStream(XML_DIR + "books.xml"));
+                        created.incrementAndGet();
+                    } catch(IOException e) {
+                        if(e.getMessage().equals("document " + name + " exists")) exists.incrementAndGet();
+                    } catch(InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        start.countDown();
+        for(Thread t : threads) t.join();
+        assertEquals(1, created.get());
+        assertEquals(threads.length - 1, exists.get());
+        assertEquals(Collections.singletonList("books"), LmdbDataManager.listDocuments(TEST_COLLECTION));
+        try(Transaction tx = LmdbDataManager.env.createReadTransaction()) {
+            assertEquals(1, LmdbCollections.info(TEST_COLLECTION, tx)[0]);
+        }
+        LmdbDataManager.removeDocument(name);
+    }
+
+    @Test
+    public void groupCommitTest() throws Exception {
+        LmdbDataManager.createCollection(TEST_COLLECTION);
+        for(int d = 0; d < 4; d++) {
+            LmdbDataManager.createDocument(TEST_COLLECTION + "/d" + d, new ByteArrayInputStream("<r/>".getBytes()));
+        }
+        final long jobs = LmdbWriteCoordinator.jobs(), failed = LmdbWriteCoordinator.failed();
+        final long commits = LmdbWriteCoordinator.commits();
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread[] threads = new Thread[8];
+        for(int t = 0; t < threads.length; t++) {
+            final String doc = "doc('" + TEST_COLLECTION + "/d" + t % 4 + "')/r";
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for(int u = 0; u < 25; u++) {
+                            ByteArrayOutputStream out = new ByteArrayOutputStream();
+                            assertTrue(LmdbQueryContext.update("insert node <u/> into " + doc, new MainOptions(), out, "text/plain"));
+                        }
+                    } catch(Throwable e) {
+                        errors.add(e);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        // a failing update doesn't fail the updates committed with it
+        try {
+            LmdbQueryContext.update("insert node <u/> into doc('" + TEST_COLLECTION + "/missing')/r", new MainOptions(), new ByteArrayOutputStream(), "text/plain");
+            fail("update of a missing document applied");
+        } catch(QueryException expected) {
+        }
+        for(Thread t : threads) t.join();
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertEquals("200", LmdbQueryContext.queryString("count(collection('" + TEST_COLLECTION + "')//u)"));
+        // updates of changed documents are applied again
+        final long applied = LmdbWriteCoordinator.jobs() - jobs - (LmdbWriteCoordinator.failed() - failed);
+        assertEquals(200, applied);
+        // updates queued while the writer is busy are committed together
+        final long queuedJobs = LmdbWriteCoordinator.jobs(), queuedCommits = LmdbWriteCoordinator.commits();
+        final CountDownLatch release = new CountDownLatch(1);
+        final Thread blocker = blockWriter(release);
+        for(int t = 0; t < 4; t++) {
+            final String doc = "doc('" + TEST_COLLECTION + "/d" + t + "')/r";
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        assertTrue(LmdbQueryContext.update("insert node <v/> into " + doc, new MainOptions(), new ByteArrayOutputStream(), "text/plain"));
+                    } catch(Throwable e) {
+                        errors.add(e);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        while(LmdbWriteCoordinator.queued() < 4) Thread.sleep(1);
+        release.countDown();
+        blocker.join();
+        for(int t = 0; t < 4; t++) threads[t].join();
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertEquals("4", LmdbQueryContext.queryString("count(collection('" + TEST_COLLECTION + "')//v)"));
+        assertTrue(LmdbWriteCoordinator.commits() - queuedCommits < LmdbWriteCoordinator.jobs() - queuedJobs);
+        assertFalse(LmdbQueryContext.update("1 + 1", new MainOptions(), new ByteArrayOutputStream(), "text/plain"));
+        for(String d : LmdbDataManager.listDocuments(TEST_COLLECTION)) LmdbDataManager.removeDocument(TEST_COLLECTION + "/" + d);
+    }
+
+    @Test
+    public void optimisticUpdateTest() throws Exception {
+        LmdbDataManager.createCollection(TEST_COLLECTION);
+        LmdbDataManager.createDocument(TEST_COLLECTION + "/c", new ByteArrayInputStream("<r n='0'/>".getBytes()));
+        final String n = "doc('" + TEST_COLLECTION + "/c')/r/@n";
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread[] threads = new Thread[8];
+        for(int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for(int u = 0; u < 25; u++) {
+                            ByteArrayOutputStream out = new ByteArrayOutputStream();
+                            // read and updated: no increment is lost
+                            assertTrue(LmdbQueryContext.update("replace value of node " + n + " with " + n + " + 1", new MainOptions(), out, "text/plain"));
+                        }
+                    } catch(Throwable e) {
+                        errors.add(e);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for(Thread t : threads) t.join();
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertEquals("200", LmdbQueryContext.queryString("data(" + n + ")"));
+        // evaluated in the write transaction
+        LmdbQueryContext.attempts(0);
+        try {
+            assertTrue(LmdbQueryContext.update("replace value of node " + n + " with " + n + " + 1", new MainOptions(), new ByteArrayOutputStream(), "text/plain"));
+        } finally {
+            LmdbQueryContext.attempts(3);
+        }
+        assertEquals("201", LmdbQueryContext.queryString("data(" + n + ")"));
+        // two updates evaluated on the same snapshot: the second one applied conflicts with the first one, and is
+        // evaluated again on a new snapshot, or in the write transaction after a single attempt. The indexer writes
+        // the document as well after updates: it is stopped meanwhile
+        assertTrue(LmdbIndexer.await(60000));
+        LmdbIndexer.stop();
+        try {
+            for(int attempts : new int[] { 3, 1 }) {
+                LmdbQueryContext.attempts(attempts);
+                try {
+                    final long before = LmdbQueryContext.conflicts();
+                    final CountDownLatch release = new CountDownLatch(1);
+                    final Thread blocker = blockWriter(release);
+                    Thread[] updates = new Thread[2];
+                    for(int t = 0; t < updates.length; t++) {
+                        updates[t] = new Thread() {
+                            @Override
+                            public void run() {
+                                try {
+                                    assertTrue(LmdbQueryContext.update("insert node <u/> into doc('" + TEST_COLLECTION + "/c')/r", new MainOptions(), new ByteArrayOutputStream(), "text/plain"));
+                                } catch(Throwable e) {
+                                    errors.add(e);
+                                }
+                            }
+                        };
+                        updates[t].start();
+                    }
+                    while(LmdbWriteCoordinator.queued() < updates.length) Thread.sleep(1);
+                    release.countDown();
+                    blocker.join();
+                    for(Thread t : updates) t.join();
+                    assertTrue(errors.toString(), errors.isEmpty());
+                    assertEquals(before + 1, LmdbQueryContext.conflicts());
+                } finally {
+                    LmdbQueryContext.attempts(3);
+                }
+            }
+        } finally {
+            LmdbIndexer.start();
+        }
+        assertEquals("4", LmdbQueryContext.queryString("count(doc('" + TEST_COLLECTION + "/c')/r/u)"));
+        LmdbDataManager.removeDocument(TEST_COLLECTION + "/c");
+    }
+
+    /**
+     * Occupies the writer thread of {@link LmdbWriteCoordinator} with a job until it is released.
+     * @param release released by the caller
+     * @return thread waiting for the job
+     */
+    private static Thread blockWriter(final CountDownLatch release) throws InterruptedException {
+        final CountDownLatch running = new CountDownLatch(1);
+        final Thread t = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    LmdbWriteCoordinator.execute(new LmdbWriteCoordinator.Job() {
+                        @Override
+                        void run(Transaction tx) throws IOException {
+                            running.countDown();
+                            try {
+                                release.await();
+                            } catch(InterruptedException e) {
+                                throw new IOException(e);
+                            }
+                        }
+                    });
+                } catch(Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        t.start();
+        running.await();
+        return t;
+    }
+
+    @Test
+    public void durabilityTest() throws Exception {
+        assertEquals(LmdbDurability.Mode.GROUP, LmdbDurability.mode(" Group "));
+        assertNull(LmdbDurability.mode(""));
+        try {
+            LmdbDurability.mode("eventually");
+            fail("unknown durability parsed");
+        } catch(IllegalArgumentException expected) {
+        }
+        LmdbDataManager.createCollection(TEST_COLLECTION);
+        assertEquals(0, LmdbDataManager.env.getFlags() & NOSYNC);
+        final long syncs = LmdbDurability.syncs();
+        final LmdbDurability.Request r = LmdbDurability.request(LmdbDurability.Mode.ASYNC);
+        try {
+            // a bulk load turns off the sync of the strict environment
+            assertEquals(NOSYNC, LmdbDataManager.env.getFlags() & NOSYNC);
+            LmdbDataManager.createDocument(TEST_COLLECTION + "/async", new ByteArrayInputStream("<a/>".getBytes()));
+            // strict writes of other threads are synced explicitly in the meantime
+            final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+            Thread strict = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        LmdbDataManager.createDocument(TEST_COLLECTION + "/strict", new ByteArrayInputStream("<s/>".getBytes()));
+                    } catch(Throwable e) {
+                        errors.add(e);
+                    }
+                }
+            };
+            strict.start();
+            strict.join();
+            assertTrue(errors.toString(), errors.isEmpty());
+            assertTrue(LmdbDurability.syncs() > syncs);
+        } finally {
+            r.close();
+        }
+        assertEquals(0, LmdbDataManager.env.getFlags() & NOSYNC);
+        assertEquals("2", LmdbQueryContext.queryString("count(collection('" + TEST_COLLECTION + "'))"));
+        LmdbDataManager.removeDocument(TEST_COLLECTION + "/async");
+        LmdbDataManager.removeDocument(TEST_COLLECTION + "/strict");
+    }
+
+    @Test
+    public void readersTest() throws Exception {
+        LmdbDataManager.createCollection(TEST_COLLECTION);
+        LmdbDataManager.createDocument(TEST_COLLECTION + "/r", new ByteArrayInputStream("<r>1</r>".getBytes()));
+        final String query = "string(doc('" + TEST_COLLECTION + "/r')/r)";
+        assertEquals("1", LmdbQueryContext.queryString(query));
+        final long renewed = LmdbReaders.renewed();
+        assertEquals("1", LmdbQueryContext.queryString(query));
+        assertTrue(LmdbReaders.renewed() > renewed);
+        // a renewed transaction reads the latest snapshot
+        LmdbQueryContext.update("replace value of node doc('" + TEST_COLLECTION + "/r')/r with 2", new MainOptions(), new ByteArrayOutputStream(), "text/plain");
+        assertEquals("2", LmdbQueryContext.queryString(query));
+        // a query may be closed by another thread
+        final LmdbQueryContext ctx = new LmdbQueryContext(query);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    ctx.run(out);
+                    ctx.close();
+                } catch(Throwable e) {
+                    errors.add(e);
+                }
+            }
+        };
+        t.start();
+        t.join();
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertEquals("2", out.toString());
+        assertTrue(LmdbReaders.pooled() > 0);
+        LmdbDataManager.removeDocument(TEST_COLLECTION + "/r");
+    }
+
+    @Test
+    public void expiredSnapshotTest() throws Exception {
+        LmdbDataManager.createCollection(TEST_COLLECTION);
+        LmdbDataManager.createDocument(TEST_COLLECTION + "/e", new ByteArrayInputStream("<r><i/><i/><i/></r>".getBytes()));
+        final long expired = LmdbReaders.expired();
+        // an abandoned streamed result keeps its snapshot
+        InputStream in = LmdbQueryContext.queryStream("doc('" + TEST_COLLECTION + "/e')//i", null, null, "text/xml");
+        assertTrue(in.read() != -1);
+        assertTrue(LmdbReaders.readers() > 0);
+        assertTrue(LmdbReaders.freePages() >= 0);
+        LmdbReaders.check(10);
+        LmdbReaders.maxAge(50);
+        try {
+            long end = System.currentTimeMillis() + 5000;
+            while(LmdbReaders.readers() > 0 && System.currentTimeMillis() < end) Thread.sleep(10);
+            assertEquals(0, LmdbReaders.readers());
+            assertTrue(LmdbReaders.expired() > expired);
+            try {
+                while(in.read() != -1);
+                fail("expired result read to the end");
+            } catch(IOException expected) {
+            }
+            in.close();
+        } finally {
+            LmdbReaders.maxAge(300000);
+            LmdbReaders.check(10000);
+        }
+        LmdbDataManager.removeDocument(TEST_COLLECTION + "/e");
+    }
 }
@@ -0,0 +1,89 @@
+package lmdb.basex;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.LogManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Loads and indexes a set of documents into an empty environment, with and without appending writes.
+ * The size of data.mdb after each load is printed at the end of the iteration.
+ *
+ * run from project basedir: java -cp ... lmdb.basex.LmdbIngestBenchmark
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@BenchmarkMode(Mode.SingleShotTime)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+public class LmdbIngestBenchmark {
+
+    static {
+        System.setProperty("log4j.defaultInitOverride", "true");
+        LogManager.resetConfiguration();
+        LogManager.getRootLogger().removeAllAppenders();
+        LogManager.getRootLogger().setLevel(org.apache.log4j.Level.toLevel("off"));
+    }
+
+    private static final String XML = "./db/xml/etc/";
+    private static final String[] DOCS = {"factbook", "auction", "books", "employees", "orders"};
+
+    @Param({"true", "false"})
+    public boolean append;
+
+    @Param({"10000"})
+    public int batch;
+
+    private File home;
+
+    @Setup(Level.Iteration)
+    public void open() throws IOException {
+        LmdbWriteBatch.appending = append;
+        LmdbWriteBatch.defaultSize(batch);
+        LmdbIndexer.capacity(0);
+        home = Files.createTempDirectory("blx.ingest").toFile();
+        LmdbDataManager.config(home.getAbsolutePath(), 1);
+        LmdbDataManager.start(false);
+        LmdbDataManager.createCollection("bench");
+    }
+
+    @TearDown(Level.Iteration)
+    public void close() {
+        LmdbDataManager.stop();
+        System.out.println("  data.mdb: " + new File(home, "data.mdb").length() / 1024 + " KB");
+        FileUtils.deleteQuietly(home);
+    }
+
+    @Benchmark
+    public void load() throws IOException {
+        for(int i = 0; i < 4; i++) {
+            for(String doc : DOCS) {
+                final String name = "bench/" + doc + i;
+                LmdbDataManager.createDocument(name, new FileInputStream(XML + doc + ".xml"));
+                LmdbDataManager.indexDocument(name);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(LmdbIngestBenchmark.class.getSimpleName()).build()).run();
+    }
+}
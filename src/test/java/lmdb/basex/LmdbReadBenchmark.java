@@ -0,0 +1,88 @@
+package lmdb.basex;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.LogManager;
+import org.basex.query.QueryException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of small queries of concurrent clients, each reading one attribute, with read transactions created for
+ * every query ({@code pool = 0}) and renewed from the pool of {@link LmdbReaders}. See the p99 percentiles.
+ *
+ * run from project basedir: java -cp ... lmdb.basex.LmdbReadBenchmark
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Threads(8)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class LmdbReadBenchmark {
+
+    static {
+        System.setProperty("log4j.defaultInitOverride", "true");
+        LogManager.resetConfiguration();
+        LogManager.getRootLogger().removeAllAppenders();
+        LogManager.getRootLogger().setLevel(org.apache.log4j.Level.toLevel("off"));
+    }
+
+    private static final int DOCUMENTS = 16;
+
+    @Param({"0", "32"})
+    public int pool;
+
+    private File home;
+
+    @Setup(Level.Trial)
+    public void open() throws IOException {
+        LmdbIndexer.capacity(0);
+        LmdbReaders.capacity(pool);
+        home = Files.createTempDirectory("blx.read").toFile();
+        LmdbDataManager.config(home.getAbsolutePath(), 1);
+        LmdbDataManager.start(false);
+        LmdbDataManager.createCollection("bench");
+        for(int d = 0; d < DOCUMENTS; d++) {
+            LmdbDataManager.createDocument("bench/d" + d, new ByteArrayInputStream(("<r n='" + d + "'/>").getBytes()));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        System.out.println("  " + LmdbReaders.stats());
+        LmdbDataManager.stop();
+        FileUtils.deleteQuietly(home);
+    }
+
+    @Benchmark
+    public String lookup() throws QueryException {
+        final int d = (int) (Thread.currentThread().getId() % DOCUMENTS);
+        return LmdbQueryContext.queryString("string(doc('bench/d" + d + "')/r/@n)");
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(LmdbReadBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,108 @@
+package lmdb.basex;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.LogManager;
+import org.basex.core.MainOptions;
+import org.basex.query.QueryException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Small updating queries of concurrent clients, committed on their own ({@code batch = 1}) and together with
+ * {@link LmdbWriteCoordinator}. Every client replaces an attribute of a document of its own; the throughput is
+ * the number of updates per second over all clients, for 1 to 16 clients, with every durability of
+ * {@link LmdbDurability}.
+ *
+ * run from project basedir: java -cp ... lmdb.basex.LmdbUpdateBenchmark
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class LmdbUpdateBenchmark {
+
+    static {
+        System.setProperty("log4j.defaultInitOverride", "true");
+        LogManager.resetConfiguration();
+        LogManager.getRootLogger().removeAllAppenders();
+        LogManager.getRootLogger().setLevel(org.apache.log4j.Level.toLevel("off"));
+    }
+
+    private static final int DOCUMENTS = 16;
+
+    @Param({"1", "64"})
+    public int batch;
+
+    @Param({"strict", "group", "async"})
+    public String durability;
+
+    private File home;
+    private final AtomicInteger clients = new AtomicInteger();
+
+    @State(Scope.Thread)
+    public static class Client {
+        int doc;
+        int n;
+
+        @Setup(Level.Trial)
+        public void setup(final LmdbUpdateBenchmark bench) {
+            doc = bench.clients.getAndIncrement() % DOCUMENTS;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void open() throws IOException {
+        LmdbIndexer.capacity(0);
+        LmdbWriteCoordinator.batch(batch);
+        LmdbDurability.mode(LmdbDurability.mode(durability));
+        home = Files.createTempDirectory("blx.update").toFile();
+        LmdbDataManager.config(home.getAbsolutePath(), 1);
+        LmdbDataManager.start(false);
+        LmdbDataManager.createCollection("bench");
+        for(int d = 0; d < DOCUMENTS; d++) {
+            LmdbDataManager.createDocument("bench/d" + d, new ByteArrayInputStream("<r n='0'><v/></r>".getBytes()));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        System.out.println("  " + LmdbWriteCoordinator.stats());
+        System.out.println("  " + LmdbDurability.stats());
+        LmdbDataManager.stop();
+        FileUtils.deleteQuietly(home);
+    }
+
+    @Benchmark
+    public void update(final Client client) throws QueryException {
+        LmdbQueryContext.update("replace value of node doc('bench/d" + client.doc + "')/r/@n with " + ++client.n,
+                new MainOptions(), new ByteArrayOutputStream(), "text/plain");
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for(int threads : new int[] { 1, 2, 4, 8, 16 }) {
+            new Runner(new OptionsBuilder().include(LmdbUpdateBenchmark.class.getSimpleName()).threads(threads)
+                    .build()).run();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package lmdb.basex;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.LogManager;
+import org.basex.core.MainOptions;
+import org.basex.data.Data;
+import org.basex.index.query.IndexIterator;
+import org.basex.index.query.StringToken;
+import org.basex.util.ft.FTLexer;
+import org.basex.util.ft.FTOpt;
+import org.basex.util.list.TokenList;
+import org.fusesource.lmdbjni.Transaction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Random lookups of text values in the text index and of words in the full-text index of a document,
+ * opened for every batch of lookups as queries do.
+ *
+ * run from project basedir: java -cp ... lmdb.basex.LmdbValuesBenchmark
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class LmdbValuesBenchmark {
+
+    static {
+        System.setProperty("log4j.defaultInitOverride", "true");
+        LogManager.resetConfiguration();
+        LogManager.getRootLogger().removeAllAppenders();
+        LogManager.getRootLogger().setLevel(org.apache.log4j.Level.toLevel("off"));
+    }
+
+    private static final String DOC = "bench/factbook";
+    private static final String XML = "./db/xml/etc/factbook.xml";
+    private static final int LOOKUPS = 100;
+
+    private File home;
+
+    /**
+     * Read transaction and lookup terms of a benchmark thread: run with {@code -t} to probe the indexes of the
+     * document from several threads.
+     */
+    @State(Scope.Thread)
+    public static class Reader {
+        private Transaction tx;
+        private byte[][] terms;
+        private byte[][] words;
+
+        @Setup(Level.Iteration)
+        public void open() throws IOException {
+            tx = LmdbDataManager.env.createReadTransaction();
+            final TokenList texts = new TokenList(), tokens = new TokenList();
+            try(LmdbData data = (LmdbData) LmdbDataManager.openDocument(DOC, new MainOptions(), tx)) {
+                final FTLexer lexer = new FTLexer(new FTOpt());
+                for(int pre = 0; pre < data.meta.size; pre++) {
+                    if(data.kind(pre) != Data.TEXT) continue;
+                    if(data.textLen(pre, true) <= data.meta.maxlen) texts.add(data.text(pre, true));
+                    lexer.init(data.text(pre, true));
+                    while(lexer.hasNext()) tokens.add(lexer.nextToken());
+                }
+            }
+            final Random random = new Random(1);
+            terms = new byte[LOOKUPS][];
+            words = new byte[LOOKUPS][];
+            for(int t = 0; t < LOOKUPS; t++) {
+                terms[t] = texts.get(random.nextInt(texts.size()));
+                words[t] = tokens.get(random.nextInt(tokens.size()));
+            }
+        }
+
+        @TearDown(Level.Iteration)
+        public void close() {
+            tx.close();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        LmdbIndexer.capacity(0);
+        home = Files.createTempDirectory("blx.bench").toFile();
+        LmdbDataManager.config(home.getAbsolutePath(), 1);
+        LmdbDataManager.start(false);
+        LmdbDataManager.createCollection("bench");
+        LmdbDataManager.createDocument(DOC, new FileInputStream(XML));
+        LmdbDataManager.indexDocument(DOC);
+    }
+
+    @TearDown(Level.Trial)
+    public void unload() {
+        LmdbDataManager.stop();
+        FileUtils.deleteQuietly(home);
+    }
+
+    @Benchmark
+    public long lookup(final Reader reader) throws IOException {
+        long sum = 0;
+        try(LmdbData d = (LmdbData) LmdbDataManager.openDocument(DOC, new MainOptions(), reader.tx)) {
+            for(final byte[] term : reader.terms) {
+                final IndexIterator it = d.textIndex.iter(new StringToken(true, term));
+                while(it.more()) sum += it.pre();
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long fulltext(final Reader reader) throws IOException {
+        long sum = 0;
+        try(LmdbData d = (LmdbData) LmdbDataManager.openDocument(DOC, new MainOptions(), reader.tx)) {
+            final FTLexer lexer = new FTLexer(new FTOpt());
+            for(final byte[] word : reader.words) {
+                if(!lexer.init(word).hasNext()) continue;
+                lexer.nextToken();
+                final IndexIterator it = d.ftxtIndex.iter(lexer);
+                while(it.more()) sum += it.pre();
+            }
+        }
+        return sum;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(LmdbValuesBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,99 @@
+package lmdb.basex;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.LogManager;
+import org.basex.core.MainOptions;
+import org.basex.data.Data;
+import org.fusesource.lmdbjni.Transaction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Descendant-axis scan over a document table, reading pages copied into private java heap buffers,
+ * straight from the LMDB memory map, or through the shared page cache.
+ *
+ * run from project basedir: java -cp ... lmdb.basex.TableLmdbAccessBenchmark
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class TableLmdbAccessBenchmark {
+
+    static {
+        System.setProperty("log4j.defaultInitOverride", "true");
+        LogManager.resetConfiguration();
+        LogManager.getRootLogger().removeAllAppenders();
+        LogManager.getRootLogger().setLevel(org.apache.log4j.Level.toLevel("off"));
+    }
+
+    private static final String DOC = "bench/factbook";
+    private static final String XML = "./db/xml/etc/factbook.xml";
+
+    @Param({"BUFFERED", "DIRECT", "SHARED"})
+    public String mode;
+
+    private File home;
+    private Transaction tx;
+    private LmdbData data;
+    private TableLmdbAccess table;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        home = Files.createTempDirectory("blx.bench").toFile();
+        LmdbDataManager.config(home.getAbsolutePath(), 1);
+        LmdbDataManager.start(false);
+        LmdbDataManager.createCollection("bench");
+        LmdbDataManager.createDocument(DOC, new FileInputStream(XML));
+    }
+
+    @TearDown(Level.Trial)
+    public void unload() {
+        LmdbDataManager.stop();
+        FileUtils.deleteQuietly(home);
+    }
+
+    @Setup(Level.Iteration)
+    public void open() throws IOException {
+        tx = LmdbDataManager.env.createReadTransaction();
+        data = (LmdbData) LmdbDataManager.openDocument(DOC, new MainOptions(), tx);
+        table = new TableLmdbAccess(data.meta, tx, data.docid, TableLmdbAccess.ReadMode.valueOf(mode));
+    }
+
+    @TearDown(Level.Iteration)
+    public void close() {
+        data.close();
+        tx.close();
+    }
+
+    @Benchmark
+    public long descendant() {
+        long sum = 0;
+        final int size = data.meta.size;
+        for(int pre = 0; pre < size; pre++) {
+            final int kind = table.read1(pre, 0) & 0x07;
+            sum += kind == Data.ELEM || kind == Data.DOC ? table.read4(pre, 8) : table.read5(pre, 3);
+        }
+        return sum;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(TableLmdbAccessBenchmark.class.getSimpleName()).build()).run();
+    }
+}